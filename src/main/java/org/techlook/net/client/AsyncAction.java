@@ -29,15 +29,21 @@ import org.techlook.net.client.nio.AsyncSocketClient;
 import java.nio.ByteBuffer;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the main stuff in the library to execute a bit of some work in the Fork-join Pool.
  * Computational intensive actions such as gzip deflate/inflate, TLS encrypt/decrypt are all AsyncAction.
+ *
+ * An action is a mailbox processed by at most one task at a time, the task is scheduled by a single CAS
+ * and neither producers nor the task ever block each other. A producer learns that the action can't keep up
+ * by {@link #isSaturated()} and is notified by the drain callback when the action is able to accept chunks again.
  */
 public abstract class AsyncAction implements Callable<Void> {
     /**
      * A coordinating queue designed to alleviate undesirable effects caused by different processing rates
-     * in different Async Actions
+     * in different Async Actions. Chunks are put and taken by {@link #enqueue(ByteBuffer)} and {@link #dequeue()},
+     * so the queue size is tracked.
      *
      * Do not set value less than 3
      *
@@ -45,10 +51,15 @@ public abstract class AsyncAction implements Callable<Void> {
      */
     protected final ConcurrentLinkedQueue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
     private static final int MAX_QUEUE_FILL = AsyncSocketClient.PARALLELISM_LEVEL * 5 / 2;
+    private static final int RESUME_QUEUE_FILL = MAX_QUEUE_FILL / 2;
 
+    private final AtomicInteger queued = new AtomicInteger(0);
     private final AtomicBoolean shouldContinue = new AtomicBoolean();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean isBackpressured = new AtomicBoolean(false);
     private final ForkJoinPool pool;
     private volatile ForkJoinTask<Void> completionTask;
+    private volatile Runnable drainCallback;
 
     /**
      * Constructor
@@ -67,23 +78,16 @@ public abstract class AsyncAction implements Callable<Void> {
     }
 
     /**
-     * Wake up the action to process a next bunch of chunks if the current portion has been processed.
-     * If the queue size exceeds the max limit and processing of the previous portion of chunks hasn't been yet completed
-     * then current thread waits a completion of the previous task using a work stealing algorithm in the Fork Join Pool
+     * Wake up the action to process a next bunch of chunks. If the action is already running it's notified
+     * to make one more pass, otherwise it's submitted to the pool, so there is never more than one running task.
+     * The method never blocks, a producer should check {@link #isSaturated()} to slow down.
      *
      * @see ForkJoinPool
      */
     public void shakeUp() {
         shouldContinue.set(true);
 
-        if (completionTask.isDone() || chunks.size() > MAX_QUEUE_FILL) {
-            try {
-                completionTask.get();
-            } catch (InterruptedException ignored) {
-            } catch (ExecutionException e) {
-                throw new RuntimeException(e.getMessage());
-            }
-            shouldContinue.set(false);
+        if (scheduled.compareAndSet(false, true)) {
             completionTask = pool.submit(this);
         }
     }
@@ -91,8 +95,15 @@ public abstract class AsyncAction implements Callable<Void> {
     @Override
     public Void call() {
         do {
-            processAction();
-        } while (!chunks.isEmpty() && shouldContinue.getAndSet(false));
+            do {
+                shouldContinue.set(false);
+                processAction();
+            } while (shouldContinue.get());
+
+            scheduled.set(false);
+            // a wake-up which has come after the last pass but before unscheduling must not be lost
+        } while (shouldContinue.get() && scheduled.compareAndSet(false, true));
+
         return null;
     }
 
@@ -114,6 +125,65 @@ public abstract class AsyncAction implements Callable<Void> {
         return completionTask == null || completionTask.isDone();
     }
 
+    /**
+     * The queue is filled over the limit, a producer should stop feeding the action until the drain callback
+     * is called. The callback is called once for every time the action has been reported to be saturated.
+     *
+     * @return true if the action can't keep up with its producer
+     */
+    public boolean isSaturated() {
+        if (queued.get() <= MAX_QUEUE_FILL) {
+            return false;
+        }
+
+        isBackpressured.set(true);
+        // the queue may have been drained before the flag was set
+        if (queued.get() <= RESUME_QUEUE_FILL && isBackpressured.compareAndSet(true, false)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param drainCallback  called when the saturated action has drained its queue, it's run by a processing thread
+     *                       and shouldn't block
+     */
+    public void setDrainCallback(Runnable drainCallback) {
+        this.drainCallback = drainCallback;
+    }
+
+    /**
+     * @return the number of chunks waiting to be processed
+     */
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    /**
+     * puts a chunk into the queue, the action is to be woken up afterwards
+     * @param chunk  the chunk to be processed
+     */
+    protected void enqueue(ByteBuffer chunk) {
+        chunks.add(chunk);
+        queued.incrementAndGet();
+    }
+
+    /**
+     * @return the next chunk to be processed or null if the queue is empty
+     */
+    protected ByteBuffer dequeue() {
+        ByteBuffer chunk = chunks.poll();
+        if (chunk != null && queued.decrementAndGet() <= RESUME_QUEUE_FILL
+                && isBackpressured.compareAndSet(true, false)) {
+            Runnable callback = drainCallback;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+
+        return chunk;
+    }
+
     /**
      * override this method to implement chunk processing logic
      */
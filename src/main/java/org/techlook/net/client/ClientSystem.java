@@ -54,7 +54,8 @@ public class ClientSystem {
     }
 
     /**
-     * SSL-version
+     * SSL-version. The instance may serve several client identities selected by a host,
+     * see {@link SSLSocketClient#addIdentity(String, KeyManager[])}
      * @return SSL client instance
      */
     public static SocketClient sslClient(KeyManager[] keyManagers, TrustManager[] trustManagers) {
@@ -42,7 +42,18 @@ public enum Fault {
     DecompressionError("An error occurred while decompression of the response content: %s"),
     SSLError("SSL error: %s"),
     BAD_RESPONSE_HEAD("Bad response head: %s"),
-    ForkJoinError("An error occurred while the fork-join pool submits task: %s");
+    ResponseHeadIsTooLarge("A response head exceeds %d bytes"),
+    RequestBodyReadError("A request body cannot be read: %s"),
+    FileWriteError("A response content cannot be written to the file: %s"),
+    ForkJoinError("An error occurred while the fork-join pool submits task: %s"),
+    FrameIsTooLarge("A frame length %d exceeds the maximum frame length %d"),
+    BadFrameLength("Bad frame length: %d"),
+    HandshakeExecutorIsSaturated("A connection is rejected because the TLS handshake executor is saturated"),
+    Http2IsNotNegotiated("The server hasn't selected HTTP/2 by ALPN, the selected protocol: %s"),
+    Http2ConnectionError("HTTP/2 connection error %d: %s"),
+    Http2StreamIsReset("HTTP/2 stream has been reset, error code: %d"),
+    Http2ConnectionIsClosed("HTTP/2 connection has been closed"),
+    StreamedContentIsNotPipelined("A streamed content cannot be sent through HTTP Pipelining connection");
 
 
     private final String description;
@@ -28,6 +28,7 @@ import org.techlook.net.client.nio.TransportChannel;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 
@@ -63,6 +64,15 @@ public interface SocketClient {
      */
     boolean send(byte[] data, int offset, int length, Integer channelId);
 
+    /**
+     * Non-blocking writing a data to send without copying
+     * @param data       the data to be send from its position to its limit, the client takes ownership of the buffer,
+     *                   so neither the buffer nor its content must be used by a caller afterwards
+     * @param channelId  the connection ID that is assigned when connecting
+     * @return   true if the data has been sent successfully
+     */
+    boolean send(ByteBuffer data, Integer channelId);
+
     /**
      * Stopping the client to dispatch
      */
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.codec;
+
+import org.techlook.net.client.Fault;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a byte stream into frames terminated by a delimiter
+ */
+public class DelimiterFrameDecoder extends FrameDecoder {
+    private final byte[] delimiter;
+    private final boolean stripDelimiter;
+
+    /**
+     * how many bytes after the buffer position have already been scanned without finding a delimiter,
+     * so the scanning resumes from there when a next chunk arrives
+     */
+    private int scannedLength;
+
+    /**
+     * @param maxFrameLength  the maximum length of a frame excluding the delimiter
+     * @param delimiter       frame delimiter
+     * @param stripDelimiter  true if the delimiter should be excluded from frames passed to the listener
+     */
+    public DelimiterFrameDecoder(int maxFrameLength, byte[] delimiter, boolean stripDelimiter) {
+        super(maxFrameLength);
+
+        if (delimiter == null || delimiter.length == 0) {
+            throw new IllegalArgumentException("Delimiter should be specified");
+        }
+        this.delimiter = delimiter.clone();
+        this.stripDelimiter = stripDelimiter;
+    }
+
+    @Override
+    protected ByteBuffer decodeFrame(ByteBuffer buffer) throws CorruptedFrameException {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int lastIndex = limit - delimiter.length;
+
+        int index = start + Math.max(0, scannedLength - delimiter.length + 1);
+        for (; index <= lastIndex; ++index) {
+            if (matchesDelimiter(buffer, index)) {
+                int frameLength = index - start;
+                if (frameLength > getMaxFrameLength()) {
+                    throw new CorruptedFrameException(Fault.FrameIsTooLarge.format(frameLength, getMaxFrameLength()));
+                }
+
+                scannedLength = 0;
+                ByteBuffer frame = slice(buffer, start, stripDelimiter ? frameLength : frameLength + delimiter.length);
+                buffer.position(index + delimiter.length);
+
+                return frame;
+            }
+        }
+
+        scannedLength = limit - start;
+        if (scannedLength - delimiter.length + 1 > getMaxFrameLength()) {
+            scannedLength = 0;
+            throw new CorruptedFrameException(Fault.FrameIsTooLarge.format(limit - start, getMaxFrameLength()));
+        }
+
+        return null;
+    }
+
+    private boolean matchesDelimiter(ByteBuffer buffer, int index) {
+        for (int k = 0; k < delimiter.length; ++k) {
+            if (buffer.get(index + k) != delimiter[k]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
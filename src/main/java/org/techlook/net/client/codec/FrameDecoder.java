@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for decoders reassembling frames from chunks of a byte stream.
+ *
+ * A frame contained in a single received chunk is passed to the listener as a slice of this chunk without copying.
+ * Only the incomplete tail of a chunk is kept until the next chunk arrives. Received chunks must not be reused
+ * by a caller after they have been passed to the decoder.
+ *
+ * The decoder keeps a state of the stream, so each connection requires its own decoder instance.
+ */
+public abstract class FrameDecoder {
+    private final int maxFrameLength;
+    private ByteBuffer cumulation;
+
+    /**
+     * @param maxFrameLength  the maximum length of a frame including its header, longer frames are treated
+     *                        as a corrupted stream
+     */
+    protected FrameDecoder(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("The maximum frame length should be positive: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * @return the maximum length of a frame including its header
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * Appends a chunk to the previously received bytes and passes all whole frames to the listener
+     * @param chunk     received chunk
+     * @param listener  frame listener
+     * @return false if the stream is corrupted and the channel should be closed
+     */
+    public boolean decode(byte[] chunk, FrameListener listener) {
+        return decode(ByteBuffer.wrap(chunk), listener);
+    }
+
+    /**
+     * Appends a chunk to the previously received bytes and passes all whole frames to the listener
+     * @param chunk     received bytes between the position and the limit, the decoder takes ownership of the buffer
+     * @param listener  frame listener
+     * @return false if the stream is corrupted and the channel should be closed
+     */
+    public boolean decode(ByteBuffer chunk, FrameListener listener) {
+        ByteBuffer buffer = cumulate(chunk);
+
+        try {
+            ByteBuffer frame;
+            while (buffer.hasRemaining() && (frame = decodeFrame(buffer)) != null) {
+                listener.frameIsReceived(frame);
+            }
+        } catch (CorruptedFrameException e) {
+            cumulation = null;
+            listener.channelError(e.getMessage());
+            return false;
+        }
+
+        cumulation = buffer.hasRemaining() ? buffer : null;
+        return true;
+    }
+
+    /**
+     * @return the number of received bytes which don't make up a whole frame yet
+     */
+    public int pendingBytes() {
+        return cumulation == null ? 0 : cumulation.remaining();
+    }
+
+    /**
+     * Extracts the next frame from the buffer
+     * @param buffer  received bytes starting from the current position
+     * @return the frame moving the buffer position past it,
+     *         or null leaving the buffer position unchanged if the frame hasn't been entirely received yet
+     * @throws CorruptedFrameException if the stream cannot be decoded
+     */
+    protected abstract ByteBuffer decodeFrame(ByteBuffer buffer) throws CorruptedFrameException;
+
+    /**
+     * Creates a view of the buffer region without copying
+     * @param buffer  source buffer
+     * @param index   absolute start index
+     * @param length  length of the region
+     * @return the region as a separate buffer
+     */
+    protected static ByteBuffer slice(ByteBuffer buffer, int index, int length) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(index + length);
+        region.position(index);
+
+        return region.slice();
+    }
+
+    private ByteBuffer cumulate(ByteBuffer chunk) {
+        if (cumulation == null) {
+            return chunk;
+        }
+
+        ByteBuffer buffer = cumulation;
+        int start = buffer.position();
+        int end = buffer.limit();
+        int chunkLength = chunk.remaining();
+        if (buffer.capacity() - end >= chunkLength) {
+            // the spare room has never been passed to the listener, so frames sliced before aren't affected
+            buffer.limit(buffer.capacity());
+            buffer.position(end);
+            buffer.put(chunk);
+            buffer.flip();
+            buffer.position(start);
+
+            return buffer;
+        }
+
+        int residue = end - start;
+        ByteBuffer enlarged = ByteBuffer.allocate(Math.max(residue + chunkLength, residue * 2));
+        enlarged.put(buffer);
+        enlarged.put(chunk);
+        enlarged.flip();
+
+        return enlarged;
+    }
+
+    /**
+     * Is thrown when a received byte stream cannot be split into frames
+     */
+    public static class CorruptedFrameException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param message error message
+         */
+        public CorruptedFrameException(String message) {
+            super(message);
+        }
+    }
+}
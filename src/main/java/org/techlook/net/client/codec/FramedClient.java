@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.codec;
+
+import org.techlook.net.client.ByteBufferListener;
+import org.techlook.net.client.SocketClient;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Frame-oriented connections on top of any SocketClient (plain or TLS). Incoming byte streams are split
+ * into frames by decoders, outgoing messages are framed by the encoder.
+ *
+ *   FramedClient client = new FramedClient(ClientSystem.client(), new LengthFieldFrameEncoder(4));
+ *   int channel = client.connect(server, new LengthFieldFrameDecoder(0x10000, 4), frameListener);
+ *   client.send(ByteBuffer.wrap(message), channel);
+ */
+public class FramedClient {
+    private final SocketClient transport;
+    private final FrameEncoder encoder;
+
+    /**
+     * @param transport  socket client used as a transport
+     * @param encoder    encoder of outgoing messages
+     */
+    public FramedClient(SocketClient transport, FrameEncoder encoder) {
+        this.transport = transport;
+        this.encoder = encoder;
+    }
+
+    /**
+     * Establishes a connection delivering whole frames to the listener
+     * @param server    the remote host to connect to
+     * @param decoder   decoder of incoming frames, a separate instance is required for each connection
+     * @param listener  frame listener
+     * @return connection ID
+     * @throws IOException something went wrong in an underlying nio layer
+     */
+    public int connect(SocketAddress server, FrameDecoder decoder, FrameListener listener) throws IOException {
+        FramedChannel channel = new FramedChannel(decoder, listener);
+        int channelId = transport.connect(server, channel);
+        channel.channelId = channelId;
+
+        return channelId;
+    }
+
+    /**
+     * Non-blocking sending of a framed message without copying its content
+     * @param message    the message to be sent, the client takes ownership of the buffer
+     * @param channelId  the connection ID that is assigned when connecting
+     * @return true if the message has been sent successfully
+     */
+    public boolean send(ByteBuffer message, int channelId) {
+        ByteBuffer[] parts = encoder.encode(message);
+
+        synchronized (this) {
+            for (ByteBuffer part : parts) {
+                if (!part.hasRemaining()) {
+                    continue;
+                }
+
+                if (!transport.send(part, channelId)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Close the previously opened connection
+     * @param channelId the connection ID that is assigned when connecting
+     */
+    public void close(int channelId) {
+        transport.close(channelId);
+    }
+
+    /**
+     * @return the underlying transport
+     */
+    public SocketClient getTransport() {
+        return transport;
+    }
+
+    private void closeCorruptedChannel(final Integer channelId) {
+        if (channelId == null) {
+            return;
+        }
+
+        // a channel cannot be closed synchronously within its own receiving routine
+        transport.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                transport.close(channelId);
+            }
+        });
+    }
+
+    private class FramedChannel implements ByteBufferListener {
+        private final FrameDecoder decoder;
+        private final FrameListener listener;
+        private volatile Integer channelId;
+        private volatile boolean corrupted = false;
+
+        private FramedChannel(FrameDecoder decoder, FrameListener listener) {
+            this.decoder = decoder;
+            this.listener = listener;
+        }
+
+        @Override
+        public void channelError(String message) {
+            listener.channelError(message);
+        }
+
+        @Override
+        public void chunkIsReceived(byte[] chunk) {
+            chunkIsReceived(ByteBuffer.wrap(chunk));
+        }
+
+        @Override
+        public void chunkIsReceived(ByteBuffer chunk) {
+            if (corrupted) {
+                return;
+            }
+
+            if (!decoder.decode(chunk, listener)) {
+                corrupted = true;
+                closeCorruptedChannel(channelId);
+            }
+        }
+
+        @Override
+        public void close() {
+            listener.close();
+        }
+    }
+}
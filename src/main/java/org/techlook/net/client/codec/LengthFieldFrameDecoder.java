@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.codec;
+
+import org.techlook.net.client.Fault;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Splits a byte stream into frames using the length field of a frame header.
+ *
+ * The whole frame length is computed as
+ *   lengthFieldOffset + lengthFieldLength + (value of the length field) + lengthAdjustment,
+ * then initialBytesToStrip bytes are skipped at the beginning of the frame (usually the header itself).
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder {
+    private final int lengthFieldOffset;
+    private final int lengthFieldLength;
+    private final int lengthAdjustment;
+    private final int initialBytesToStrip;
+    private final ByteOrder byteOrder;
+
+    /**
+     * The most common frame layout: a big-endian length prefix followed by a payload of that length,
+     * only the payload is passed to the listener
+     *
+     * @param maxFrameLength     the maximum length of a frame including its header
+     * @param lengthFieldLength  length prefix size in bytes: 1, 2, 3, 4 or 8
+     */
+    public LengthFieldFrameDecoder(int maxFrameLength, int lengthFieldLength) {
+        this(maxFrameLength, 0, lengthFieldLength, 0, lengthFieldLength, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @param maxFrameLength       the maximum length of a frame including its header
+     * @param lengthFieldOffset    offset of the length field from the frame start
+     * @param lengthFieldLength    length field size in bytes: 1, 2, 3, 4 or 8
+     * @param lengthAdjustment     the value added to the length field to get the number of bytes
+     *                             following the length field
+     * @param initialBytesToStrip  the number of bytes skipped at the frame start
+     * @param byteOrder            byte order of the length field
+     */
+    public LengthFieldFrameDecoder(int maxFrameLength,
+                                   int lengthFieldOffset,
+                                   int lengthFieldLength,
+                                   int lengthAdjustment,
+                                   int initialBytesToStrip,
+                                   ByteOrder byteOrder) {
+        super(maxFrameLength);
+
+        if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 3
+                && lengthFieldLength != 4 && lengthFieldLength != 8) {
+            throw new IllegalArgumentException("Length field should be 1, 2, 3, 4 or 8 bytes long: "
+                    + lengthFieldLength);
+        }
+        if (lengthFieldOffset < 0 || initialBytesToStrip < 0) {
+            throw new IllegalArgumentException("Offsets cannot be negative");
+        }
+
+        this.lengthFieldOffset = lengthFieldOffset;
+        this.lengthFieldLength = lengthFieldLength;
+        this.lengthAdjustment = lengthAdjustment;
+        this.initialBytesToStrip = initialBytesToStrip;
+        this.byteOrder = byteOrder;
+    }
+
+    @Override
+    protected ByteBuffer decodeFrame(ByteBuffer buffer) throws CorruptedFrameException {
+        int headerLength = lengthFieldOffset + lengthFieldLength;
+        if (buffer.remaining() < headerLength) {
+            return null;
+        }
+
+        int start = buffer.position();
+        long fieldValue = readLengthField(buffer, start + lengthFieldOffset);
+        long frameLength = headerLength + fieldValue + lengthAdjustment;
+
+        if (fieldValue < 0 || frameLength < headerLength || frameLength < initialBytesToStrip) {
+            throw new CorruptedFrameException(Fault.BadFrameLength.format(fieldValue));
+        }
+        if (frameLength > getMaxFrameLength()) {
+            throw new CorruptedFrameException(Fault.FrameIsTooLarge.format(frameLength, getMaxFrameLength()));
+        }
+        if (buffer.remaining() < frameLength) {
+            return null;
+        }
+
+        ByteBuffer frame = slice(buffer, start + initialBytesToStrip, (int) frameLength - initialBytesToStrip);
+        buffer.position(start + (int) frameLength);
+
+        return frame;
+    }
+
+    private long readLengthField(ByteBuffer buffer, int index) {
+        long value = 0;
+        for (int k = 0; k < lengthFieldLength; ++k) {
+            int byteIndex = byteOrder == ByteOrder.BIG_ENDIAN ? index + k : index + lengthFieldLength - 1 - k;
+            value = (value << 8) | (buffer.get(byteIndex) & 0xff);
+        }
+
+        return value;
+    }
+}
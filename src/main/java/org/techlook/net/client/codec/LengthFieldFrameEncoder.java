@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Prepends a length prefix to outgoing messages, it's a counterpart of {@link LengthFieldFrameDecoder}
+ */
+public class LengthFieldFrameEncoder implements FrameEncoder {
+    private final int lengthFieldLength;
+    private final int lengthAdjustment;
+    private final ByteOrder byteOrder;
+
+    /**
+     * Big-endian length prefix containing the message length
+     * @param lengthFieldLength  length prefix size in bytes: 1, 2, 3, 4 or 8
+     */
+    public LengthFieldFrameEncoder(int lengthFieldLength) {
+        this(lengthFieldLength, 0, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @param lengthFieldLength  length prefix size in bytes: 1, 2, 3, 4 or 8
+     * @param lengthAdjustment   the value subtracted from the message length before it's written to the prefix,
+     *                           it should be the same as the decoder one
+     * @param byteOrder          byte order of the length prefix
+     */
+    public LengthFieldFrameEncoder(int lengthFieldLength, int lengthAdjustment, ByteOrder byteOrder) {
+        if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 3
+                && lengthFieldLength != 4 && lengthFieldLength != 8) {
+            throw new IllegalArgumentException("Length field should be 1, 2, 3, 4 or 8 bytes long: "
+                    + lengthFieldLength);
+        }
+
+        this.lengthFieldLength = lengthFieldLength;
+        this.lengthAdjustment = lengthAdjustment;
+        this.byteOrder = byteOrder;
+    }
+
+    @Override
+    public ByteBuffer[] encode(ByteBuffer frame) {
+        long length = (long) frame.remaining() - lengthAdjustment;
+        if (length < 0 || (lengthFieldLength < 8 && length >= 1L << (lengthFieldLength * 8))) {
+            throw new IllegalArgumentException("The frame length " + frame.remaining()
+                    + " cannot be encoded into " + lengthFieldLength + " bytes");
+        }
+
+        byte[] prefix = new byte[lengthFieldLength];
+        for (int k = 0; k < lengthFieldLength; ++k) {
+            int shift = 8 * (byteOrder == ByteOrder.BIG_ENDIAN ? lengthFieldLength - 1 - k : k);
+            prefix[k] = (byte) (length >>> shift);
+        }
+
+        return new ByteBuffer[]{ByteBuffer.wrap(prefix), frame};
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Body publishers of common sources
+ */
+public final class BodyPublishers {
+    /**
+     * Length of a body which is unknown before it's read
+     */
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private BodyPublishers() {
+    }
+
+    /**
+     * @param input   input stream being closed once the body is sent
+     * @param length  number of bytes to be read from the stream or {@link #UNKNOWN_LENGTH} to read it up to its end
+     * @return publisher of the stream content
+     */
+    public static BodyPublisher ofInputStream(InputStream input, long length) {
+        return ofChannel(Channels.newChannel(input), length);
+    }
+
+    /**
+     * @param channel  channel being closed once the body is sent
+     * @param length   number of bytes to be read from the channel or {@link #UNKNOWN_LENGTH} to read it up to its end
+     * @return publisher of the channel content
+     */
+    public static BodyPublisher ofChannel(ReadableByteChannel channel, long length) {
+        return new ChannelPublisher(channel, length);
+    }
+
+    /**
+     * @param file  file to be sent
+     * @return publisher of the file content which length is the file size
+     * @throws IOException if the file cannot be opened
+     */
+    public static BodyPublisher ofFile(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        return new ChannelPublisher(channel, channel.size());
+    }
+
+    /**
+     * @param buffers  buffers to be sent one by one, the iterator is called by the pool threads as the transport drains
+     * @param length   total size of the buffers or {@link #UNKNOWN_LENGTH}
+     * @return publisher of the buffers
+     */
+    public static BodyPublisher ofBuffers(Iterator<ByteBuffer> buffers, long length) {
+        return new BuffersPublisher(buffers, length);
+    }
+
+    /**
+     * Publisher of a channel content, a known length limits the number of bytes read
+     */
+    private static class ChannelPublisher implements BodyPublisher {
+        private final ReadableByteChannel channel;
+        private final long length;
+        private long remaining;
+
+        ChannelPublisher(ReadableByteChannel channel, long length) {
+            this.channel = channel;
+            this.length = length;
+            remaining = length;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (length < 0) {
+                return channel.read(destination);
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int limit = destination.limit();
+            if (destination.remaining() > remaining) {
+                destination.limit(destination.position() + (int) remaining);
+            }
+            int read;
+            try {
+                read = channel.read(destination);
+            } finally {
+                destination.limit(limit);
+            }
+
+            if (read > 0) {
+                remaining -= read;
+            } else if (read < 0) {
+                throw new IOException(String.format("The body ended %d bytes before its length", remaining));
+            }
+
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class BuffersPublisher implements BodyPublisher {
+        private final Iterator<ByteBuffer> buffers;
+        private final long length;
+        private ByteBuffer current;
+        private boolean isOpen = true;
+
+        BuffersPublisher(Iterator<ByteBuffer> buffers, long length) {
+            this.buffers = buffers;
+            this.length = length;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            while (current == null || !current.hasRemaining()) {
+                if (!buffers.hasNext()) {
+                    return -1;
+                }
+                current = buffers.next();
+            }
+
+            int size = Math.min(current.remaining(), destination.remaining());
+            int limit = current.limit();
+            current.limit(current.position() + size);
+            destination.put(current);
+            current.limit(limit);
+
+            return size;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return isOpen;
+        }
+
+        @Override
+        public void close() {
+            isOpen = false;
+        }
+    }
+}
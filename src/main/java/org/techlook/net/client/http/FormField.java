@@ -54,6 +54,9 @@ public class FormField {
      * @return header
      */
     public String header() {
+        if (contentTypeSpec == null) {
+            return contentDisposition + "\n";
+        }
         return String.format("%s\n%s\n", contentDisposition, contentTypeSpec);
     }
 
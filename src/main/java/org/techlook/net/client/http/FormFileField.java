@@ -25,11 +25,14 @@
 package org.techlook.net.client.http;
 
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 
 /**
  * Special form field for a file transmitting
  */
 public class FormFileField extends FormField {
+    private final Path file;
+
     /**
      * @param name         name
      * @param fileName     name of an uploaded file
@@ -39,6 +42,26 @@ public class FormFileField extends FormField {
      */
     public FormFileField(String name, String fileName, byte[] fileContent, String contentType, Charset charset) {
         super(name, fileContent, contentType, charset);
+        file = null;
         contentDisposition += "; filename=\"" + fileName + "\"";
     }
+
+    /**
+     * @param name         name
+     * @param file         path of an uploaded file, the file is read while the form is sent
+     * @param contentType  MIME-type of a content, may be null
+     * @param charset      content charset, may be null
+     */
+    public FormFileField(String name, Path file, String contentType, Charset charset) {
+        super(name, null, contentType, charset);
+        this.file = file;
+        contentDisposition += "; filename=\"" + file.getFileName() + "\"";
+    }
+
+    /**
+     * @return path of the uploaded file or null if its content is held in memory
+     */
+    public Path file() {
+        return file;
+    }
 }
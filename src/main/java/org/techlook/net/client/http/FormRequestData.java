@@ -26,6 +26,7 @@ package org.techlook.net.client.http;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -71,6 +72,17 @@ public class FormRequestData {
         fields.add(new FormFileField(name, fileName, fileContent, contentType, charset));
     }
 
+    /**
+     * Add file form field which content isn't loaded into memory but sent from the file
+     * @param name          name of a field
+     * @param file          path of the file, its name is sent as the file name
+     * @param contentType   MIME-type of a content, may be null
+     * @param charset       charset of a content, may be null
+     */
+    public void addFileField(String name, Path file, String contentType, Charset charset) {
+        fields.add(new FormFileField(name, file, contentType, charset));
+    }
+
     /**
      * @return  all added fields
      */
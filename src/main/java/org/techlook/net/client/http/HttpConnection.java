@@ -177,6 +177,28 @@ public interface HttpConnection {
                       FormRequestData requestData,
                       HttpListener listener);
 
+    /**
+     * HTTP request which content is read from the publisher as the transport sends it,
+     * a content of unknown length is sent with chunked transfer encoding over HTTP/1.1.
+     * HTTP Pipelining connection doesn't allow it, closes the publisher and reports the failure to the listener
+     * @param method             HTTP method, e.g. POST or PUT
+     * @param url                the request URL
+     * @param additionalHeaders  user-defined HTTP headers
+     * @param urlParameters      request parameters to be url-encoded
+     * @param contentType        MIME-type of a content
+     * @param contentCharset     content charset (optional)
+     * @param content            content publisher
+     * @param listener           HTTP listener
+     */
+    void streamContent(String method,
+                       String url,
+                       Set<Pair<String, String>> additionalHeaders,
+                       Set<Pair<String, String>> urlParameters,
+                       String contentType,
+                       Charset contentCharset,
+                       BodyPublisher content,
+                       HttpListener listener);
+
     /**
      * HTTP OPTIONS
      * @param url       the request URL
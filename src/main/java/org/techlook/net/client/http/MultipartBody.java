@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * multipart/form-data body of a form (RFC 7578). The framing and in-memory values are encoded once,
+ * files are referenced by their paths and read straight into the transport buffers while the body is sent.
+ * The body length is computed from the file sizes beforehand, so the body is sent with Content-Length.
+ */
+public class MultipartBody implements BodyPublisher {
+    private static final String CRLF = "\r\n";
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final long length;
+    private final boolean hasFiles;
+
+    private int segmentIndex;
+    private FileChannel file;
+    private long fileRemaining;
+    private boolean isOpen = true;
+
+    /**
+     * @param requestData  form fields
+     * @param boundary     delimiter of the parts which doesn't occur in the fields
+     * @throws IOException if a size of a file cannot be read
+     */
+    public MultipartBody(FormRequestData requestData, String boundary) throws IOException {
+        long bodyLength = 0;
+        boolean withFiles = false;
+
+        String delimiter = "";
+        for (FormField field : requestData.getFields()) {
+            StringBuilder head = new StringBuilder(delimiter)
+                    .append("--").append(boundary).append(CRLF)
+                    .append(field.contentDisposition).append(CRLF);
+            if (field.contentTypeSpec != null) {
+                head.append(field.contentTypeSpec).append(CRLF);
+            }
+            head.append(CRLF);
+            bodyLength += add(head.toString().getBytes(StandardCharsets.UTF_8));
+
+            Path path = field instanceof FormFileField ? ((FormFileField) field).file() : null;
+            if (path != null) {
+                Segment segment = new Segment(path, Files.size(path));
+                segments.add(segment);
+                bodyLength += segment.size;
+                withFiles = true;
+            } else if (field.body() != null) {
+                bodyLength += add(field.body());
+            }
+
+            delimiter = CRLF;
+        }
+        if (!segments.isEmpty()) {
+            bodyLength += add((CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.UTF_8));
+        }
+
+        length = bodyLength;
+        hasFiles = withFiles;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    /**
+     * @return true if some parts are read from files while the body is sent
+     */
+    public boolean hasFiles() {
+        return hasFiles;
+    }
+
+    /**
+     * Reads the remaining body into memory, it suits bodies without large files
+     * @return the body
+     * @throws IOException if a file cannot be read
+     */
+    public byte[] toByteArray() throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(String.format("The body of %d bytes cannot be held in an array", length));
+        }
+
+        ByteBuffer body = ByteBuffer.allocate((int) length);
+        while (body.hasRemaining() && read(body) >= 0) {
+        }
+        close();
+
+        return body.array();
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        if (!isOpen) {
+            throw new ClosedChannelException();
+        }
+
+        int read = 0;
+        while (destination.hasRemaining() && segmentIndex < segments.size()) {
+            Segment segment = segments.get(segmentIndex);
+            if (segment.data != null) {
+                read += transfer(segment.data, destination);
+                if (!segment.data.hasRemaining()) {
+                    ++segmentIndex;
+                }
+            } else {
+                read += readFile(segment, destination);
+                if (fileRemaining == 0) {
+                    file.close();
+                    file = null;
+                    ++segmentIndex;
+                }
+            }
+        }
+
+        return read == 0 && segmentIndex == segments.size() ? -1 : read;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    @Override
+    public void close() throws IOException {
+        isOpen = false;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private int readFile(Segment segment, ByteBuffer destination) throws IOException {
+        if (file == null) {
+            file = FileChannel.open(segment.file, StandardOpenOption.READ);
+            fileRemaining = segment.size;
+            if (fileRemaining == 0) {
+                return 0;
+            }
+        }
+
+        int limit = destination.limit();
+        if (destination.remaining() > fileRemaining) {
+            destination.limit(destination.position() + (int) fileRemaining);
+        }
+        int read;
+        try {
+            read = file.read(destination);
+        } finally {
+            destination.limit(limit);
+        }
+
+        if (read < 0) {
+            throw new IOException(String.format("The file %s has been truncated while being sent", segment.file));
+        }
+        fileRemaining -= read;
+
+        return read;
+    }
+
+    private long add(byte[] data) {
+        segments.add(new Segment(ByteBuffer.wrap(data)));
+        return data.length;
+    }
+
+    private static int transfer(ByteBuffer source, ByteBuffer destination) {
+        int size = Math.min(source.remaining(), destination.remaining());
+        int limit = source.limit();
+        source.limit(source.position() + size);
+        destination.put(source);
+        source.limit(limit);
+
+        return size;
+    }
+
+    private static class Segment {
+        private final ByteBuffer data;
+        private final Path file;
+        private final long size;
+
+        Segment(ByteBuffer data) {
+            this.data = data;
+            file = null;
+            size = data.remaining();
+        }
+
+        Segment(Path file, long size) {
+            data = null;
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -24,25 +24,56 @@
 
 package org.techlook.net.client.http;
 
+import org.techlook.net.client.Fault;
 import org.techlook.net.client.SocketClient;
 import org.techlook.net.client.http.client.HttpAsyncClient;
 import org.techlook.net.client.http.client.HttpListener;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Many servers block very frequent requests to prevent DoS-attacks,
- * therefore requests could be sent with a slight delay.
+ * Sends requests through the same keep-alive connection without waiting for responses of the previous ones.
+ * The number of requests awaiting their responses is limited by the pipeline depth, requests beyond it are queued
+ * and sent as responses arrive, so the caller never blocks. Many servers block very frequent requests
+ * to prevent DoS-attacks, a shallow pipeline is friendlier to them.
+ *
+ * If the connection is lost, the idempotent requests which haven't got a response yet are replayed
+ * on a new connection, others fail.
  */
 public class PipeliningConnection implements HttpConnection {
     /**
-     * Default delay between sending requests in milliseconds
+     * Default maximum number of requests awaiting their responses
+     */
+    public static final int DEFAULT_PIPELINE_DEPTH = 8;
+
+    /**
+     * Maximum number of times a request is replayed after a connection loss
+     */
+    public static final int MAX_REPLAYS = 2;
+
+    /**
+     * @deprecated requests aren't delayed anymore, they are limited by the pipeline depth
      */
+    @Deprecated
     public static final long DEFAULT_SENDING_INTERVAL = 0;
 
+    private static final String NOT_ALLOWED_METHOD =
+            "Only methods HEAD, GET, PUT, DELETE, PATCH, CONNECT, TRACE are allowed in HTTP Pipelining Connection";
+
     private final HttpAsyncClient httpClient;
-    private final long sendingTimeInterval;
+    private final ForkJoinPool threadPool;
+    private final int pipelineDepth;
+    private final AtomicBoolean isSending = new AtomicBoolean(false);
+    private final Queue<PipelinedRequest> replayedRequests = new ArrayDeque<>();
+    private final Queue<PipelinedRequest> waitingRequests = new ArrayDeque<>();
+    private int requestsInFlight;
 
     /**
      * Constructor
@@ -51,76 +82,148 @@ public class PipeliningConnection implements HttpConnection {
      * @param asyncClient  asynchronous SocketClient instance used as a transport
      */
     public PipeliningConnection(String server, int port, SocketClient asyncClient) {
-        this(server, port, asyncClient, DEFAULT_SENDING_INTERVAL);
+        this(server, port, asyncClient, DEFAULT_PIPELINE_DEPTH);
     }
 
     /**
      * Constructor
-     * @param server       a remote server to connect to
-     * @param port         TCP port
-     * @param asyncClient  asynchronous SocketClient instance used as a transport
-     * @param sendingTimeInterval  delay between sending requests
+     * @param server               a remote server to connect to
+     * @param port                 TCP port
+     * @param asyncClient          asynchronous SocketClient instance used as a transport
+     * @param sendingTimeInterval  ignored
+     * @deprecated requests aren't delayed anymore, they are limited by the pipeline depth,
+     * use {@link #withPipelineDepth(String, int, SocketClient, int)}
      */
+    @Deprecated
     public PipeliningConnection(String server, int port, SocketClient asyncClient, long sendingTimeInterval) {
-        this.sendingTimeInterval = sendingTimeInterval;
+        this(server, port, asyncClient, DEFAULT_PIPELINE_DEPTH);
+    }
+
+    private PipeliningConnection(String server, int port, SocketClient asyncClient, int pipelineDepth) {
+        if (pipelineDepth <= 0) {
+            throw new IllegalArgumentException("Pipeline depth must be positive");
+        }
+
+        this.pipelineDepth = pipelineDepth;
+        threadPool = asyncClient.getThreadPool();
         httpClient = new HttpAsyncClient(server, port, true, asyncClient);
     }
 
+    /**
+     * @param server         a remote server to connect to
+     * @param port           TCP port
+     * @param asyncClient    asynchronous SocketClient instance used as a transport
+     * @param pipelineDepth  maximum number of requests awaiting their responses
+     * @return the connection
+     */
+    public static PipeliningConnection withPipelineDepth(String server, int port, SocketClient asyncClient,
+                                                         int pipelineDepth) {
+        return new PipeliningConnection(server, port, asyncClient, pipelineDepth);
+    }
+
     @Override
-    public void head(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
-        httpClient.head(url, additionalHeaders, parameters, listener);
-        throttle();
+    public void head(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        admit(new PipelinedRequest(listener, true) {
+            @Override
+            void doRequest() {
+                httpClient.head(url, additionalHeaders, parameters, this);
+            }
+        });
     }
 
     @Override
-    public synchronized void get(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
-        httpClient.get(url, additionalHeaders, parameters, listener);
-        throttle();
+    public void get(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        admit(new PipelinedRequest(listener, true) {
+            @Override
+            void doRequest() {
+                httpClient.get(url, additionalHeaders, parameters, this);
+            }
+        });
     }
 
     @Override
-    public synchronized void put(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
-        httpClient.put(url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
-        throttle();
+    public void put(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> urlParameters, final String contentType, final Charset contentCharset, final byte[] content, HttpListener listener) {
+        admit(new PipelinedRequest(listener, true) {
+            @Override
+            void doRequest() {
+                httpClient.put(url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+            }
+        });
     }
 
     @Override
-    public void delete(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
-        httpClient.delete(url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
-        throttle();
+    public void delete(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> urlParameters, final String contentType, final Charset contentCharset, final byte[] content, HttpListener listener) {
+        admit(new PipelinedRequest(listener, true) {
+            @Override
+            void doRequest() {
+                httpClient.delete(url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+            }
+        });
     }
 
     @Override
-    public void patch(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
-        httpClient.patch(url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
-        throttle();
+    public void patch(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> urlParameters, final String contentType, final Charset contentCharset, final byte[] content, HttpListener listener) {
+        admit(new PipelinedRequest(listener, false) {
+            @Override
+            void doRequest() {
+                httpClient.patch(url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+            }
+        });
     }
 
     @Override
-    public void connect(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
-        httpClient.connect(url, additionalHeaders, parameters, listener);
-        throttle();
+    public void connect(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        admit(new PipelinedRequest(listener, false) {
+            @Override
+            void doRequest() {
+                httpClient.connect(url, additionalHeaders, parameters, this);
+            }
+        });
     }
 
     @Override
-    public void trace(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
-        httpClient.trace(url, additionalHeaders, parameters, listener);
-        throttle();
+    public void trace(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        admit(new PipelinedRequest(listener, true) {
+            @Override
+            void doRequest() {
+                httpClient.trace(url, additionalHeaders, parameters, this);
+            }
+        });
     }
 
     @Override
     public void postContent(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
-        throw new UnsupportedOperationException("Only methods HEAD, GET, PUT, DELETE are allowed in HTTP Pipelining Connection");
+        throw new UnsupportedOperationException(NOT_ALLOWED_METHOD);
     }
 
     @Override
     public void postWithEncodedParameters(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
-        throw new UnsupportedOperationException("Only methods HEAD, GET, PUT, DELETE are allowed in HTTP Pipelining Connection");
+        throw new UnsupportedOperationException(NOT_ALLOWED_METHOD);
     }
 
     @Override
     public void postFormData(String url, Set<Pair<String, String>> additionalHeaders, FormRequestData requestData, HttpListener listener) {
-        throw new UnsupportedOperationException("Only methods HEAD, GET, PUT, DELETE are allowed in HTTP Pipelining Connection");
+        throw new UnsupportedOperationException(NOT_ALLOWED_METHOD);
+    }
+
+    /**
+     * A streamed content cannot be replayed and would hold up the pipeline, so it's not allowed here:
+     * the publisher is closed and the request fails through the listener
+     */
+    @Override
+    public void streamContent(String method,
+                              String url,
+                              Set<Pair<String, String>> additionalHeaders,
+                              Set<Pair<String, String>> urlParameters,
+                              String contentType,
+                              Charset contentCharset,
+                              BodyPublisher content,
+                              HttpListener listener) {
+        try {
+            content.close();
+        } catch (IOException ignored) {
+        }
+        listener.failure(Fault.StreamedContentIsNotPipelined.getDescription());
     }
 
     @Override
@@ -128,22 +231,188 @@ public class PipeliningConnection implements HttpConnection {
                                Set<Pair<String, String>> headers,
                                Set<Pair<String, String>> urlParameters,
                                HttpListener listener) {
-        throw new UnsupportedOperationException("Only methods HEAD, GET, PUT, DELETE are allowed in HTTP Pipelining Connection");
+        throw new UnsupportedOperationException(NOT_ALLOWED_METHOD);
     }
 
     @Override
     public void options(
             Set<Pair<String, String>> headers,
             HttpListener listener) {
-        throw new UnsupportedOperationException("Only methods HEAD, GET, PUT, DELETE are allowed in HTTP Pipelining Connection");
+        throw new UnsupportedOperationException(NOT_ALLOWED_METHOD);
+    }
+
+    /**
+     * @return number of sent requests awaiting their responses
+     */
+    public synchronized int requestsInFlight() {
+        return requestsInFlight;
+    }
+
+    /**
+     * @return number of requests waiting to be sent
+     */
+    public synchronized int waitingRequests() {
+        return replayedRequests.size() + waitingRequests.size();
+    }
+
+    /**
+     * @return number of requests either awaiting their responses or waiting to be sent
+     */
+    public synchronized int outstandingRequests() {
+        return requestsInFlight + replayedRequests.size() + waitingRequests.size();
+    }
+
+    /**
+     * closes the transport connection, requests awaiting their responses are replayed or failed
+     */
+    public void disconnect() {
+        httpClient.disconnect();
+    }
+
+    private void admit(PipelinedRequest request) {
+        synchronized (this) {
+            waitingRequests.add(request);
+        }
+
+        sendAdmitted();
     }
 
-    private synchronized void throttle() {
-        if (sendingTimeInterval > 0) {
+    /**
+     * Sends waiting requests while the pipeline has room, replayed requests go first to keep their order.
+     * Only one thread sends at a time, so requests are written in the order their listeners are queued
+     * by the client, other threads just leave their requests to it.
+     */
+    private void sendAdmitted() {
+        while (isSending.compareAndSet(false, true)) {
             try {
-                wait(sendingTimeInterval);
-            } catch (InterruptedException ignored) {
+                PipelinedRequest request;
+                while ((request = nextAdmitted()) != null) {
+                    request.doRequest();
+                }
+            } finally {
+                isSending.set(false);
+            }
+
+            if (!hasAdmitted()) {
+                return;
+            }
+        }
+    }
+
+    private synchronized PipelinedRequest nextAdmitted() {
+        if (requestsInFlight >= pipelineDepth) {
+            return null;
+        }
+
+        PipelinedRequest request = replayedRequests.poll();
+        if (request == null) {
+            request = waitingRequests.poll();
+        }
+        if (request != null) {
+            ++requestsInFlight;
+        }
+
+        return request;
+    }
+
+    private synchronized boolean hasAdmitted() {
+        return requestsInFlight < pipelineDepth && !(replayedRequests.isEmpty() && waitingRequests.isEmpty());
+    }
+
+    private void finished(PipelinedRequest request, boolean shouldBeReplayed) {
+        synchronized (this) {
+            --requestsInFlight;
+            if (shouldBeReplayed) {
+                replayedRequests.add(request);
+            }
+        }
+
+        if (!shouldBeReplayed) {
+            sendAdmitted();
+            return;
+        }
+
+        // the connection loss is reported by the transport thread, a new connection is established out of it
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendAdmitted();
+            }
+        });
+    }
+
+    private abstract class PipelinedRequest extends HttpListener {
+        private final HttpListener listener;
+        private final boolean isIdempotent;
+        private volatile boolean isResponseStarted;
+        private volatile int replays;
+
+        private PipelinedRequest(HttpListener listener, boolean isIdempotent) {
+            this.listener = listener;
+            this.isIdempotent = isIdempotent;
+        }
+
+        abstract void doRequest();
+
+        @Override
+        public void responseCode(int code, String httpVersion, String description) {
+            isResponseStarted = true;
+            listener.responseCode(code, httpVersion, description);
+        }
+
+        @Override
+        public void respond(byte[] chunk) {
+            listener.respond(chunk);
+        }
+
+        @Override
+        public void complete() {
+            listener.complete();
+            finished(this, false);
+        }
+
+        @Override
+        public void failure(String message) {
+            listener.failure(message);
+            finished(this, false);
+        }
+
+        @Override
+        public void connectionLost(String message) {
+            // the client fails the requests awaiting responses when the connection is lost
+            boolean shouldBeReplayed = isIdempotent && !isResponseStarted && replays < MAX_REPLAYS;
+            if (shouldBeReplayed) {
+                ++replays;
+            } else {
+                listener.failure(message);
             }
+
+            finished(this, shouldBeReplayed);
+        }
+
+        @Override
+        public Charset getCharset() {
+            return listener.getCharset();
+        }
+
+        @Override
+        public void respondHttpHeaders(Map<String, String> headers) {
+            listener.respondHeaders(headers);
+        }
+
+        @Override
+        public void connectionClosed() {
+            listener.connectionClosed();
+        }
+
+        @Override
+        public boolean isSaturated() {
+            return listener.isSaturated();
+        }
+
+        @Override
+        public void setDrainCallback(Runnable drainCallback) {
+            listener.setDrainCallback(drainCallback);
         }
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single daemon thread repeating reads of non-blocking body publishers which have no data for now,
+ * so an idle source doesn't spin a pool thread. The thread is started on demand.
+ */
+public final class PollTimer {
+    /**
+     * Delay of the first poll after a read has returned no data
+     */
+    public static final long MIN_DELAY_MILLIS = 1;
+
+    /**
+     * The delay doubles while the source is idle up to this value
+     */
+    public static final long MAX_DELAY_MILLIS = 64;
+
+    private PollTimer() {
+    }
+
+    /**
+     * @param task         the task to be passed to the pool again
+     * @param delayMillis  delay in milliseconds
+     */
+    public static void schedule(Runnable task, long delayMillis) {
+        Executor.INSTANCE.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param delayMillis  the current delay
+     * @return the delay of the next poll if the source is still idle
+     */
+    public static long nextDelay(long delayMillis) {
+        return Math.min(2 * delayMillis, MAX_DELAY_MILLIS);
+    }
+
+    private static final class Executor {
+        static final ScheduledExecutorService INSTANCE = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "body-poll");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
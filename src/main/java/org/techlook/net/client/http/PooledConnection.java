@@ -0,0 +1,486 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.client.HttpAsyncClient;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a pool of keep-alive connections to the remote host. A request takes an idle connection or opens a new one
+ * while the number of connections is below the limit, otherwise it waits until some connection is released.
+ * A connection returns to the pool once its response is completed, connections idle for too long are closed.
+ */
+public class PooledConnection implements HttpConnection {
+    /**
+     * Default maximum number of connections to the host
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 6;
+
+    /**
+     * Default maximum number of idle connections kept open
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 6;
+
+    /**
+     * Default time in milliseconds after which an idle connection is closed
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private static final String CONNECTION = "connection";
+    private static final String CONNECTION_CLOSE = "close";
+
+    private final String server;
+    private final int port;
+    private final SocketClient asyncClient;
+    private final int maxConnections;
+    private final int maxIdleConnections;
+    private final long idleTimeout;
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    private final Queue<PooledRequest> waitingRequests = new ArrayDeque<>();
+    private int openConnections;
+
+    /**
+     * Constructor with default limits
+     * @param server       a remote host
+     * @param port         TCP port
+     * @param asyncClient  asynchronous SocketClient instance used as a transport
+     */
+    public PooledConnection(String server, int port, SocketClient asyncClient) {
+        this(server, port, asyncClient, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Constructor
+     * @param server              a remote host
+     * @param port                TCP port
+     * @param asyncClient         asynchronous SocketClient instance used as a transport
+     * @param maxConnections      maximum number of connections to the host
+     * @param maxIdleConnections  maximum number of idle connections kept open
+     * @param idleTimeout         time in milliseconds after which an idle connection is closed
+     */
+    public PooledConnection(String server, int port, SocketClient asyncClient,
+                            int maxConnections, int maxIdleConnections, long idleTimeout) {
+        if (maxConnections <= 0 || maxIdleConnections < 0 || idleTimeout < 0) {
+            throw new IllegalArgumentException("Connection limits must be positive");
+        }
+
+        this.server = server;
+        this.port = port;
+        this.asyncClient = asyncClient;
+        this.maxConnections = maxConnections;
+        this.maxIdleConnections = Math.min(maxIdleConnections, maxConnections);
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    public void head(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.head(url, additionalHeaders, parameters, this);
+            }
+        });
+    }
+
+    @Override
+    public void get(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.get(url, additionalHeaders, parameters, this);
+            }
+        });
+    }
+
+    @Override
+    public void put(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> urlParameters, final String contentType, final Charset contentCharset, final byte[] content, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.put(url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+            }
+        });
+    }
+
+    @Override
+    public void delete(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> urlParameters, final String contentType, final Charset contentCharset, final byte[] content, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.delete(url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+            }
+        });
+    }
+
+    @Override
+    public void patch(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> urlParameters, final String contentType, final Charset contentCharset, final byte[] content, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.patch(url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+            }
+        });
+    }
+
+    @Override
+    public void connect(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.connect(url, additionalHeaders, parameters, this);
+            }
+        });
+    }
+
+    @Override
+    public void trace(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.trace(url, additionalHeaders, parameters, this);
+            }
+        });
+    }
+
+    @Override
+    public void postContent(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> urlParameters, final String contentType, final Charset contentCharset, final byte[] content, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.postContent(url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+            }
+        });
+    }
+
+    @Override
+    public void postWithEncodedParameters(final String url, final Set<Pair<String, String>> additionalHeaders, final Set<Pair<String, String>> parameters, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.postWithEncodedParameters(url, additionalHeaders, parameters, this);
+            }
+        });
+    }
+
+    @Override
+    public void postFormData(final String url, final Set<Pair<String, String>> additionalHeaders, final FormRequestData requestData, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.postFormData(url, additionalHeaders, requestData, this);
+            }
+        });
+    }
+
+    @Override
+    public void streamContent(final String method,
+                              final String url,
+                              final Set<Pair<String, String>> additionalHeaders,
+                              final Set<Pair<String, String>> urlParameters,
+                              final String contentType,
+                              final Charset contentCharset,
+                              final BodyPublisher content,
+                              HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.streamContent(method, url, additionalHeaders, urlParameters,
+                        contentType, contentCharset, content, this);
+            }
+        });
+    }
+
+    @Override
+    public void optionsWithUrl(final String url,
+                               final Set<Pair<String, String>> headers,
+                               final Set<Pair<String, String>> urlParameters,
+                               HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.optionsWithUrl(url, headers, urlParameters, this);
+            }
+        });
+    }
+
+    @Override
+    public void options(final Set<Pair<String, String>> headers, HttpListener listener) {
+        perform(new PooledRequest(listener) {
+            @Override
+            void doRequest(HttpConnection connection) {
+                connection.options(headers, this);
+            }
+        });
+    }
+
+    /**
+     * closes connections which have been idle longer than the idle timeout
+     */
+    public void evictIdleConnections() {
+        evictExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * closes all idle connections, connections in use are closed once their responses are completed
+     */
+    public void closeIdleConnections() {
+        List<HttpAsyncClient> closed = new ArrayList<>();
+        synchronized (this) {
+            IdleConnection idle;
+            while ((idle = idleConnections.poll()) != null) {
+                closed.add(discard(idle.client));
+            }
+        }
+
+        disconnect(closed);
+    }
+
+    /**
+     * @return number of open connections including idle ones
+     */
+    public synchronized int openConnections() {
+        return openConnections;
+    }
+
+    /**
+     * @return number of idle connections
+     */
+    public synchronized int idleConnections() {
+        return idleConnections.size();
+    }
+
+    void evictExpired(long now) {
+        List<HttpAsyncClient> expired;
+        synchronized (this) {
+            expired = removeExpired(now);
+        }
+
+        disconnect(expired);
+    }
+
+    HttpAsyncClient createClient() {
+        return new HttpAsyncClient(server, port, true, asyncClient);
+    }
+
+    private void perform(PooledRequest request) {
+        HttpAsyncClient client;
+        List<HttpAsyncClient> expired;
+        synchronized (this) {
+            expired = removeExpired(System.currentTimeMillis());
+            client = acquire();
+            if (client == null) {
+                waitingRequests.add(request);
+            }
+        }
+
+        disconnect(expired);
+        if (client != null) {
+            request.start(client);
+        }
+    }
+
+    private List<HttpAsyncClient> removeExpired(long now) {
+        List<HttpAsyncClient> expired = Collections.emptyList();
+        Iterator<IdleConnection> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext()) {
+            IdleConnection idle = iterator.next();
+            if (now - idle.releasedAt < idleTimeout) {
+                // older connections are at the tail
+                break;
+            }
+            iterator.remove();
+            if (expired.isEmpty()) {
+                expired = new ArrayList<>();
+            }
+            expired.add(discard(idle.client));
+        }
+
+        return expired;
+    }
+
+    /**
+     * @return an idle connection or a new one if the limit allows, otherwise null
+     */
+    private HttpAsyncClient acquire() {
+        IdleConnection idle = idleConnections.poll();
+        if (idle != null) {
+            return idle.client;
+        }
+
+        if (openConnections < maxConnections) {
+            ++openConnections;
+            return createClient();
+        }
+
+        return null;
+    }
+
+    private void release(HttpAsyncClient client, boolean isReusable) {
+        PooledRequest nextRequest = null;
+        HttpAsyncClient discarded = null;
+        synchronized (this) {
+            if (!isReusable) {
+                discarded = discard(client);
+                client = waitingRequests.isEmpty() ? null : acquire();
+            }
+
+            if (client != null) {
+                nextRequest = waitingRequests.poll();
+                if (nextRequest == null) {
+                    if (idleConnections.size() < maxIdleConnections) {
+                        idleConnections.push(new IdleConnection(client, System.currentTimeMillis()));
+                    } else {
+                        discarded = discard(client);
+                    }
+                }
+            }
+        }
+
+        if (discarded != null) {
+            discarded.disconnect();
+        }
+        if (nextRequest != null) {
+            nextRequest.start(client);
+        }
+    }
+
+    /**
+     * removes the client from the pool, it's disconnected once the pool monitor is released
+     * @return the client
+     */
+    private HttpAsyncClient discard(HttpAsyncClient client) {
+        --openConnections;
+        return client;
+    }
+
+    private static void disconnect(List<HttpAsyncClient> clients) {
+        for (HttpAsyncClient client : clients) {
+            client.disconnect();
+        }
+    }
+
+    private static final class IdleConnection {
+        private final HttpAsyncClient client;
+        private final long releasedAt;
+
+        private IdleConnection(HttpAsyncClient client, long releasedAt) {
+            this.client = client;
+            this.releasedAt = releasedAt;
+        }
+    }
+
+    private abstract class PooledRequest extends HttpListener {
+        private final HttpListener listener;
+        private volatile HttpAsyncClient client;
+        private volatile boolean isReusable = true;
+        private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+        private PooledRequest(HttpListener listener) {
+            this.listener = listener;
+        }
+
+        abstract void doRequest(HttpConnection connection);
+
+        void start(HttpAsyncClient client) {
+            this.client = client;
+            doRequest(client);
+        }
+
+        @Override
+        public void responseCode(int code, String httpVersion, String description) {
+            listener.responseCode(code, httpVersion, description);
+        }
+
+        @Override
+        public void respond(byte[] chunk) {
+            listener.respond(chunk);
+        }
+
+        @Override
+        public void complete() {
+            if (isReleased.compareAndSet(false, true)) {
+                listener.complete();
+                release(client, isReusable);
+            }
+        }
+
+        /**
+         * the failure of the closed connection which comes after the response has been ended isn't reported
+         */
+        @Override
+        public void failure(String message) {
+            if (isReleased.compareAndSet(false, true)) {
+                listener.failure(message);
+                release(client, false);
+            }
+        }
+
+        @Override
+        public Charset getCharset() {
+            return listener.getCharset();
+        }
+
+        @Override
+        public void respondHttpHeaders(Map<String, String> headers) {
+            String connection = headers.get(CONNECTION);
+            if (connection != null && CONNECTION_CLOSE.equalsIgnoreCase(connection.trim())) {
+                isReusable = false;
+            }
+            listener.respondHeaders(headers);
+        }
+
+        @Override
+        public void connectionClosed() {
+            // the response is delimited by the closing, so the connection can't be reused
+            if (isReleased.compareAndSet(false, true)) {
+                listener.connectionClosed();
+                release(client, false);
+            }
+        }
+
+        @Override
+        public boolean isSaturated() {
+            return listener.isSaturated();
+        }
+
+        @Override
+        public void setDrainCallback(Runnable drainCallback) {
+            listener.setDrainCallback(drainCallback);
+        }
+    }
+}
@@ -139,6 +139,19 @@ public class SequentialConnection implements HttpConnection {
         putListener(new PostFormDataListener(url, additionalHeaders, requestData, listener));
     }
 
+    @Override
+    public void streamContent(String method,
+                              String url,
+                              Set<Pair<String, String>> additionalHeaders,
+                              Set<Pair<String, String>> urlParameters,
+                              String contentType,
+                              Charset contentCharset,
+                              BodyPublisher content,
+                              HttpListener listener) {
+        putListener(new StreamContentListener(method, url, additionalHeaders, urlParameters,
+                contentType, contentCharset, content, listener));
+    }
+
     @Override
     public void optionsWithUrl(String url,
                                Set<Pair<String, String>> headers,
@@ -220,6 +233,16 @@ public class SequentialConnection implements HttpConnection {
         public void connectionClosed() {
             listener.connectionClosed();
         }
+
+        @Override
+        public boolean isSaturated() {
+            return listener.isSaturated();
+        }
+
+        @Override
+        public void setDrainCallback(Runnable drainCallback) {
+            listener.setDrainCallback(drainCallback);
+        }
     }
 
     private abstract class BaseListener extends ResponseListener {
@@ -350,6 +373,34 @@ public class SequentialConnection implements HttpConnection {
         }
     }
 
+    private class StreamContentListener extends ResponseListener {
+        private final String method;
+        private final String url;
+        private final Set<Pair<String, String>> additionalHeaders;
+        private final Set<Pair<String, String>> urlParameters;
+        private final String contentType;
+        private final Charset contentCharset;
+        private final BodyPublisher content;
+
+        private StreamContentListener(String method, String url, Set<Pair<String, String>> additionalHeaders,
+                                      Set<Pair<String, String>> urlParameters, String contentType,
+                                      Charset contentCharset, BodyPublisher content, HttpListener listener) {
+            super(listener);
+            this.method = method;
+            this.url = url;
+            this.additionalHeaders = additionalHeaders;
+            this.urlParameters = urlParameters;
+            this.contentType = contentType;
+            this.contentCharset = contentCharset;
+            this.content = content;
+        }
+
+        @Override
+        void doRequest() {
+            httpClient.streamContent(method, url, additionalHeaders, urlParameters, contentType, contentCharset, content, this);
+        }
+    }
+
     private class OptionsWithUrlListener extends ResponseListener {
         private final String url;
         private final Set<Pair<String, String>> headers;
@@ -101,6 +101,19 @@ public class SingleConnection implements HttpConnection {
         new HttpAsyncClient(server, port, false, asyncClient).postFormData(url, additionalHeaders, requestData, listener);
     }
 
+    @Override
+    public void streamContent(String method,
+                              String url,
+                              Set<Pair<String, String>> additionalHeaders,
+                              Set<Pair<String, String>> urlParameters,
+                              String contentType,
+                              Charset contentCharset,
+                              BodyPublisher content,
+                              HttpListener listener) {
+        new HttpAsyncClient(server, port, false, asyncClient).streamContent(method, url, additionalHeaders,
+                urlParameters, contentType, contentCharset, content, listener);
+    }
+
     @Override
     public void optionsWithUrl(String url,
                                Set<Pair<String, String>> headers,
@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Spreads requests across several pipelining connections to the same host. A request goes to the connection
+ * with the fewest outstanding requests, a new connection is opened while all of them are busy and the limit
+ * allows, so a slow response delays only the requests pipelined behind it. Connections which have had no requests
+ * for the idle timeout are closed.
+ */
+public class StripedConnection implements HttpConnection {
+    /**
+     * Default maximum number of connections to the host
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    /**
+     * Default time in milliseconds after which a connection without requests is closed
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private final String server;
+    private final int port;
+    private final SocketClient asyncClient;
+    private final int maxConnections;
+    private final int pipelineDepth;
+    private final long idleTimeout;
+    private final List<Stripe> stripes = new ArrayList<>();
+
+    /**
+     * Constructor with default limits
+     * @param server       a remote host
+     * @param port         TCP port
+     * @param asyncClient  asynchronous SocketClient instance used as a transport
+     */
+    public StripedConnection(String server, int port, SocketClient asyncClient) {
+        this(server, port, asyncClient, DEFAULT_MAX_CONNECTIONS,
+                PipeliningConnection.DEFAULT_PIPELINE_DEPTH, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Constructor
+     * @param server          a remote host
+     * @param port            TCP port
+     * @param asyncClient     asynchronous SocketClient instance used as a transport
+     * @param maxConnections  maximum number of connections to the host
+     * @param pipelineDepth   maximum number of requests awaiting their responses in a connection
+     * @param idleTimeout     time in milliseconds after which a connection without requests is closed, must be positive
+     *                        since a zero timeout would close every connection as soon as its requests are answered
+     */
+    public StripedConnection(String server, int port, SocketClient asyncClient,
+                             int maxConnections, int pipelineDepth, long idleTimeout) {
+        if (maxConnections <= 0 || pipelineDepth <= 0 || idleTimeout <= 0) {
+            throw new IllegalArgumentException("Connection limits must be positive");
+        }
+
+        this.server = server;
+        this.port = port;
+        this.asyncClient = asyncClient;
+        this.maxConnections = maxConnections;
+        this.pipelineDepth = pipelineDepth;
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    public void head(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        choose().head(url, additionalHeaders, parameters, listener);
+    }
+
+    @Override
+    public void get(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        choose().get(url, additionalHeaders, parameters, listener);
+    }
+
+    @Override
+    public void put(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        choose().put(url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void delete(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        choose().delete(url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void patch(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        choose().patch(url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void connect(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        choose().connect(url, additionalHeaders, parameters, listener);
+    }
+
+    @Override
+    public void trace(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        choose().trace(url, additionalHeaders, parameters, listener);
+    }
+
+    @Override
+    public void postContent(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        choose().postContent(url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void postWithEncodedParameters(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        choose().postWithEncodedParameters(url, additionalHeaders, parameters, listener);
+    }
+
+    @Override
+    public void postFormData(String url, Set<Pair<String, String>> additionalHeaders, FormRequestData requestData, HttpListener listener) {
+        choose().postFormData(url, additionalHeaders, requestData, listener);
+    }
+
+    @Override
+    public void streamContent(String method,
+                              String url,
+                              Set<Pair<String, String>> additionalHeaders,
+                              Set<Pair<String, String>> urlParameters,
+                              String contentType,
+                              Charset contentCharset,
+                              BodyPublisher content,
+                              HttpListener listener) {
+        choose().streamContent(method, url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void optionsWithUrl(String url,
+                               Set<Pair<String, String>> headers,
+                               Set<Pair<String, String>> urlParameters,
+                               HttpListener listener) {
+        choose().optionsWithUrl(url, headers, urlParameters, listener);
+    }
+
+    @Override
+    public void options(Set<Pair<String, String>> headers, HttpListener listener) {
+        choose().options(headers, listener);
+    }
+
+    /**
+     * closes connections which have had no requests for the idle timeout
+     */
+    public void evictIdleConnections() {
+        evictIdle(System.currentTimeMillis());
+    }
+
+    /**
+     * @return number of open connections
+     */
+    public synchronized int openConnections() {
+        return stripes.size();
+    }
+
+    void evictIdle(long now) {
+        List<PipeliningConnection> idle;
+        synchronized (this) {
+            idle = removeIdle(now);
+        }
+
+        disconnect(idle);
+    }
+
+    PipeliningConnection createConnection() {
+        return PipeliningConnection.withPipelineDepth(server, port, asyncClient, pipelineDepth);
+    }
+
+    /**
+     * @return the least loaded connection, a new one if all connections are busy and the limit allows
+     */
+    private PipeliningConnection choose() {
+        PipeliningConnection chosen;
+        List<PipeliningConnection> idle;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            idle = removeIdle(now);
+            chosen = leastLoaded(now);
+        }
+
+        // the pool monitor isn't held while disconnecting, so requests to other stripes aren't stalled
+        disconnect(idle);
+        return chosen;
+    }
+
+    private PipeliningConnection leastLoaded(long now) {
+        Stripe chosen = null;
+        int chosenLoad = Integer.MAX_VALUE;
+        for (Stripe stripe : stripes) {
+            int load = stripe.connection.outstandingRequests();
+            if (load < chosenLoad) {
+                chosen = stripe;
+                chosenLoad = load;
+            }
+        }
+
+        if (chosen == null || (chosenLoad > 0 && stripes.size() < maxConnections)) {
+            chosen = new Stripe(createConnection());
+            stripes.add(chosen);
+        }
+        chosen.lastRequestAt = now;
+
+        return chosen.connection;
+    }
+
+    private List<PipeliningConnection> removeIdle(long now) {
+        List<PipeliningConnection> idle = Collections.emptyList();
+        Iterator<Stripe> iterator = stripes.iterator();
+        while (iterator.hasNext()) {
+            Stripe stripe = iterator.next();
+            if (now - stripe.lastRequestAt >= idleTimeout && stripe.connection.outstandingRequests() == 0) {
+                iterator.remove();
+                if (idle.isEmpty()) {
+                    idle = new ArrayList<>();
+                }
+                idle.add(stripe.connection);
+            }
+        }
+
+        return idle;
+    }
+
+    private static void disconnect(List<PipeliningConnection> connections) {
+        for (PipeliningConnection connection : connections) {
+            connection.disconnect();
+        }
+    }
+
+    private static final class Stripe {
+        private final PipeliningConnection connection;
+        private long lastRequestAt;
+
+        private Stripe(PipeliningConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -41,7 +41,11 @@ import java.io.PipedOutputStream;
  *
  * The obtained input stream blocks user thread if it has no data and it is uncompleted
  * and until a new portion of data is received.
+ *
+ * @deprecated the pipe blocks the transport thread while the reader lags behind and a failure which isn't
+ * propagated by a subclass looks like the end of the content, use {@link InputStreamListener}
  */
+@Deprecated
 public abstract class ByteStreamListener extends HttpListener {
     protected final PipedOutputStream outputStream = new PipedOutputStream();
     protected final PipedInputStream inputStream = new PipedInputStream(outputStream);
@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.adapters;
+
+import org.techlook.net.client.Either;
+import org.techlook.net.client.Fault;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * This listener saves a response content to a file as it's received, the content isn't held in memory.
+ * A content of known length is written into the file mapped to memory, so the file is allocated by its full size
+ * at once and chunks are copied right into the file pages, otherwise chunks are written at their positions.
+ * The file is synced to the storage before the download is reported.
+ */
+public abstract class FileDownloadListener extends HttpListener {
+    /**
+     * Total size of a content which length isn't known in advance
+     */
+    public static final long UNKNOWN_SIZE = -1;
+
+    private static final String CONTENT_LENGTH = "content-length";
+    private static final String CONTENT_ENCODING = "content-encoding";
+
+    private final Path file;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long expectedSize = UNKNOWN_SIZE;
+    private long written;
+    private boolean isFinished;
+    private int code;
+    private String httpVersion;
+    private String description;
+    private Map<String, String> headers;
+
+    /**
+     * @param file  file to be written, an existing file is overwritten
+     * @throws IOException if the file cannot be opened
+     */
+    public FileDownloadListener(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public final void responseCode(int code, String httpVersion, String description) {
+        this.code = code;
+        this.httpVersion = httpVersion;
+        this.description = description;
+    }
+
+    @Override
+    public final synchronized void respondHttpHeaders(Map<String, String> headers) {
+        this.headers = headers;
+
+        // a compressed content is decoded, so its size is unknown until it's received
+        String length = headers.get(CONTENT_LENGTH);
+        if (length == null || headers.containsKey(CONTENT_ENCODING)) {
+            return;
+        }
+
+        try {
+            expectedSize = Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (expectedSize > 0 && expectedSize <= Integer.MAX_VALUE) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, expectedSize);
+            } catch (IOException e) {
+                fail(Fault.FileWriteError.format(e.getMessage()));
+            }
+        }
+    }
+
+    @Override
+    public final synchronized void respond(byte[] chunk) {
+        if (isFinished) {
+            return;
+        }
+
+        try {
+            if (mapped != null && chunk.length <= mapped.remaining()) {
+                mapped.put(chunk);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                long position = written;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        } catch (IOException e) {
+            fail(Fault.FileWriteError.format(e.getMessage()));
+            return;
+        }
+
+        written += chunk.length;
+        progress(written, expectedSize);
+    }
+
+    @Override
+    public final synchronized void complete() {
+        finish();
+    }
+
+    @Override
+    public final synchronized void connectionClosed() {
+        if (code == 0) {
+            fail("No response");
+        } else if (expectedSize != UNKNOWN_SIZE && written < expectedSize) {
+            fail(Fault.FileWriteError.format(String.format("the connection is closed after %d of %d bytes",
+                    written, expectedSize)));
+        } else {
+            finish();
+        }
+    }
+
+    @Override
+    public final synchronized void failure(String message) {
+        fail(message);
+    }
+
+    /**
+     * @return the file the content is written to
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Override this method to track the download, it's called after every written chunk
+     * @param received  number of content bytes written
+     * @param total     content length or {@link #UNKNOWN_SIZE}
+     */
+    protected void progress(long received, long total) {
+    }
+
+    /**
+     * Implement this method to obtain the result, a response doesn't contain the content which is in the file.
+     * A partially written file is left as is on a failure.
+     * @param response  response or an error
+     */
+    public abstract void downloaded(Either<String, Response> response);
+
+    private void finish() {
+        if (isFinished) {
+            return;
+        }
+        isFinished = true;
+
+        try {
+            if (mapped != null) {
+                mapped.force();
+            }
+            if (written < channel.size()) {
+                channel.truncate(written);
+            }
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            downloaded(Either.<String, Response>left(Fault.FileWriteError.format(e.getMessage())));
+            return;
+        }
+
+        downloaded(Either.<String, Response>right(
+                new Response(code, httpVersion, description, headers, null, charset)));
+    }
+
+    private void fail(String message) {
+        if (isFinished) {
+            return;
+        }
+        isFinished = true;
+
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        downloaded(Either.<String, Response>left(message));
+    }
+}
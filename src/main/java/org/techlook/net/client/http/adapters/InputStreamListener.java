@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2021 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.adapters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * One of most convenient way to obtain large HTTP response content. Just create this listener and get toInputStream()
+ * input stream, then read it as an ordinary stream. Thus, depending on what you need
+ *   InputStreamListener inputStreamListener = new InputStreamListener(...);
+ *   new DataInputStream(inputStreamListener.toInputStream()). ... or
+ *   new BufferedReader(new InputStreamReader(inputStreamListener.toInputStream())) ...
+ *
+ * The obtained input stream blocks user thread if it has no data and it is uncompleted
+ * and until a new portion of data is received. The next chunk is requested once the stream has read the previous one,
+ * so the connection isn't read ahead of the stream and the transport threads never wait for it.
+ */
+public abstract class InputStreamListener extends StreamingResponseListener {
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final LinkedBlockingQueue<ByteBuffer> chunks = new LinkedBlockingQueue<>();
+    private final InputStream inputStream = new ChunksInputStream();
+    private volatile String streamFailure;
+
+    public InputStreamListener() {
+        request(1);
+    }
+
+    @Override
+    protected final void onNext(ByteBuffer chunk) {
+        chunks.add(chunk);
+    }
+
+    @Override
+    protected final void onComplete() {
+        chunks.add(END_OF_STREAM);
+    }
+
+    @Override
+    protected final void onError(String message) {
+        streamFailure = message;
+        chunks.add(END_OF_STREAM);
+        onFailure(message);
+    }
+
+    /**
+     * is called once the content cannot be received, reading of the stream throws IOException with the message then
+     * @param message  error message
+     */
+    protected void onFailure(String message) {
+    }
+
+    /**
+     * @return  InputStream - stream to be read synchronously
+     */
+    public InputStream toInputStream() {
+        return inputStream;
+    }
+
+    private class ChunksInputStream extends InputStream {
+        private ByteBuffer current;
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer chunk = nextChunk();
+            return chunk == null ? -1 : chunk.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            ByteBuffer chunk = nextChunk();
+            if (chunk == null) {
+                return -1;
+            }
+
+            int size = Math.min(length, chunk.remaining());
+            chunk.get(buffer, offset, size);
+            return size;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer chunk = current;
+            return chunk == null ? 0 : chunk.remaining();
+        }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+
+        /**
+         * @return the chunk having data or null at the end of the content
+         */
+        private ByteBuffer nextChunk() throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (current == END_OF_STREAM) {
+                    if (streamFailure != null) {
+                        throw new IOException(streamFailure);
+                    }
+                    return null;
+                }
+                if (current != null) {
+                    request(1);
+                }
+
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            }
+
+            return current;
+        }
+    }
+}
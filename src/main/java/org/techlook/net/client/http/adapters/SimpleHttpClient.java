@@ -26,6 +26,7 @@ package org.techlook.net.client.http.adapters;
 
 import org.techlook.net.client.*;
 import org.techlook.net.client.http.*;
+import org.techlook.net.client.http.http2.Http2Connection;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.TrustManager;
@@ -45,7 +46,7 @@ public class SimpleHttpClient {
     private final Set<Pair<String, String>> commonHeaders = new HashSet<>();
 
     public enum ConnectionType {
-        Single, Persistent, Pipelining
+        Single, Persistent, Pipelining, Pooled, Striped, Http2
     }
 
     public SimpleHttpClient(String baseUrl) throws MalformedURLException {
@@ -72,13 +73,43 @@ public class SimpleHttpClient {
             case Pipelining:
                 httpConnection.set(new PipeliningConnection(server, port, httpClient.socketClient()));
                 break;
+            case Pooled:
+                httpConnection.set(new PooledConnection(server, port, httpClient.socketClient()));
+                break;
+            case Striped:
+                httpConnection.set(new StripedConnection(server, port, httpClient.socketClient()));
+                break;
+            case Http2:
+                httpConnection.set(new Http2Connection(server, port, httpClient.socketClient()));
+                break;
         }
 
         return this;
     }
 
+    /**
+     * @deprecated requests aren't delayed anymore, use {@link #configurePipeliningConnectionDepth(int)}
+     */
+    @Deprecated
     public SimpleHttpClient configurePipeliningConnection(long sendingInterval) {
-        httpConnection.set(new PipeliningConnection(server, port, httpClient.socketClient(), sendingInterval));
+        return configurePipeliningConnectionDepth(PipeliningConnection.DEFAULT_PIPELINE_DEPTH);
+    }
+
+    public SimpleHttpClient configurePipeliningConnectionDepth(int pipelineDepth) {
+        httpConnection.set(PipeliningConnection.withPipelineDepth(server, port, httpClient.socketClient(),
+                pipelineDepth));
+        return this;
+    }
+
+    public SimpleHttpClient configurePooledConnection(int maxConnections, int maxIdleConnections, long idleTimeout) {
+        httpConnection.set(new PooledConnection(server, port, httpClient.socketClient(),
+                maxConnections, maxIdleConnections, idleTimeout));
+        return this;
+    }
+
+    public SimpleHttpClient configureStripedConnection(int maxConnections, int pipelineDepth, long idleTimeout) {
+        httpConnection.set(new StripedConnection(server, port, httpClient.socketClient(),
+                maxConnections, pipelineDepth, idleTimeout));
         return this;
     }
 
@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.adapters;
+
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Demand-driven receiving of a response content. Content chunks are passed to {@link #onNext(ByteBuffer)}
+ * no more than they have been requested by {@link #request(long)}. A chunk received beyond the demand is kept
+ * and the listener reports itself saturated, so the connection isn't read until more chunks are requested.
+ * Thus a large content is received with bounded memory and no transport thread waits for a slow consumer.
+ *
+ * The callbacks are never called concurrently, they are called either by a thread delivering the content or
+ * by a thread calling {@link #request(long)}.
+ */
+public abstract class StreamingResponseListener extends HttpListener {
+    private final ConcurrentLinkedQueue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger missedPasses = new AtomicInteger();
+    private final AtomicBoolean isBackpressured = new AtomicBoolean(false);
+    private volatile Runnable drainCallback;
+    private volatile boolean isReceived;
+    private volatile boolean isCancelled;
+    private volatile String failureMessage;
+    private boolean isTerminated;
+
+    /**
+     * Adds the number of chunks the listener is ready to accept
+     * @param n  positive number of chunks
+     */
+    public void request(long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("A demand must be positive: " + n);
+        }
+
+        long current;
+        long next;
+        do {
+            current = demand.get();
+            next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!demand.compareAndSet(current, next));
+
+        deliver();
+    }
+
+    /**
+     * Stops passing the content, the rest of the content is read and discarded,
+     * so the connection can be reused
+     */
+    public void cancel() {
+        isCancelled = true;
+        pending.clear();
+        resumeIfDrained();
+    }
+
+    /**
+     * is called for every requested chunk
+     * @param chunk  content chunk
+     */
+    protected abstract void onNext(ByteBuffer chunk);
+
+    /**
+     * all the content has been passed
+     */
+    protected abstract void onComplete();
+
+    /**
+     * the content cannot be received, the chunks which are not passed yet are dropped
+     * @param message  error message
+     */
+    protected abstract void onError(String message);
+
+    @Override
+    public final void respond(byte[] chunk) {
+        if (!isCancelled) {
+            pending.add(ByteBuffer.wrap(chunk));
+            deliver();
+        }
+    }
+
+    @Override
+    public final void complete() {
+        isReceived = true;
+        deliver();
+    }
+
+    @Override
+    public final void connectionClosed() {
+        isReceived = true;
+        deliver();
+    }
+
+    /**
+     * Passes the failure to {@link #onError(String)}, it's final so the failure cannot be lost by an override
+     * @param message  error message
+     */
+    @Override
+    public final void failure(String message) {
+        failureMessage = message;
+        deliver();
+    }
+
+    @Override
+    public boolean isSaturated() {
+        if (pending.isEmpty()) {
+            return false;
+        }
+
+        isBackpressured.set(true);
+        // the chunks may have been passed before the flag was set
+        if (pending.isEmpty() && isBackpressured.compareAndSet(true, false)) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void setDrainCallback(Runnable drainCallback) {
+        this.drainCallback = drainCallback;
+    }
+
+    /**
+     * @return the number of received chunks waiting for a demand
+     */
+    public int pendingChunks() {
+        return pending.size();
+    }
+
+    /**
+     * makes passes over the pending chunks until no thread has asked for another pass, so a single thread
+     * calls the callbacks at a time
+     */
+    private void deliver() {
+        if (missedPasses.getAndIncrement() != 0) {
+            return;
+        }
+
+        int passes = 1;
+        do {
+            deliverPending();
+            passes = missedPasses.addAndGet(-passes);
+        } while (passes != 0);
+
+        resumeIfDrained();
+    }
+
+    private void deliverPending() {
+        if (isTerminated || isCancelled) {
+            pending.clear();
+            return;
+        }
+
+        String failure = failureMessage;
+        if (failure != null) {
+            isTerminated = true;
+            pending.clear();
+            onError(failure);
+            return;
+        }
+
+        while (demand.get() > 0) {
+            ByteBuffer chunk = pending.poll();
+            if (chunk == null) {
+                break;
+            }
+            demand.decrementAndGet();
+            onNext(chunk);
+        }
+
+        if (isReceived && pending.isEmpty()) {
+            isTerminated = true;
+            onComplete();
+        }
+    }
+
+    private void resumeIfDrained() {
+        if (pending.isEmpty() && isBackpressured.compareAndSet(true, false)) {
+            Runnable callback = drainCallback;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    }
+}
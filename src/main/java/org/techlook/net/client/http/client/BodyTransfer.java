@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.client;
+
+import org.techlook.net.client.Fault;
+import org.techlook.net.client.http.BodyPublisher;
+import org.techlook.net.client.http.PollTimer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends a request body read from a publisher. A few parts are read and passed to the transport per run,
+ * the next run is scheduled once the transport has written them, so only these parts are held in memory.
+ * A body of unknown length is framed by chunked transfer encoding, a body of known length has to match it exactly,
+ * otherwise the transfer fails and the connection is closed.
+ * A non-blocking source which has no data for now is polled again with an increasing delay.
+ */
+class BodyTransfer implements Runnable {
+    static final int PART_SIZE = 0x10000;
+    static final int PARTS_PER_RUN = 4;
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // hexadecimal chunk size and CRLF
+    private static final int CHUNK_HEADER_ROOM = 2 * Integer.SIZE / 8 + 2;
+
+    private final HttpAsyncClient client;
+    private final BodyPublisher publisher;
+    private final boolean isChunked;
+    private final AtomicBoolean isFinished = new AtomicBoolean(false);
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private long sentSize;
+    private long pollDelay = PollTimer.MIN_DELAY_MILLIS;
+
+    BodyTransfer(HttpAsyncClient client, BodyPublisher publisher) {
+        this.client = client;
+        this.publisher = publisher;
+        isChunked = publisher.contentLength() < 0;
+    }
+
+    @Override
+    public synchronized void run() {
+        isScheduled.set(false);
+        try {
+            for (int k = 0; k < PARTS_PER_RUN && !isFinished.get(); ++k) {
+                ByteBuffer part = ByteBuffer.allocate(CHUNK_HEADER_ROOM + PART_SIZE + CRLF.length);
+                part.position(CHUNK_HEADER_ROOM);
+                part.limit(CHUNK_HEADER_ROOM + PART_SIZE);
+
+                int read = publisher.read(part);
+                if (read < 0) {
+                    if (!isChunked && sentSize != publisher.contentLength()) {
+                        finish(lengthMismatch(sentSize));
+                    } else if (isChunked && !client.sendBodyPart(ByteBuffer.wrap(LAST_CHUNK))) {
+                        finish(Fault.AsyncClientChannelWriteError.getDescription());
+                    } else {
+                        finish(null);
+                    }
+                    return;
+                } else if (read == 0) {
+                    pollLater();
+                    return;
+                }
+
+                pollDelay = PollTimer.MIN_DELAY_MILLIS;
+                sentSize += read;
+                if (!isChunked && sentSize > publisher.contentLength()) {
+                    finish(lengthMismatch(sentSize));
+                    return;
+                }
+
+                if (!client.sendBodyPart(frame(part, read))) {
+                    finish(Fault.AsyncClientChannelWriteError.getDescription());
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            finish(Fault.RequestBodyReadError.format(e.getMessage()));
+        }
+    }
+
+    /**
+     * @return false if the transfer is already waiting for its run
+     */
+    boolean markScheduled() {
+        return !isFinished.get() && isScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * stops the transfer if the connection has been lost
+     */
+    void cancel() {
+        if (isFinished.compareAndSet(false, true)) {
+            closePublisher();
+        }
+    }
+
+    /**
+     * a non-blocking source has nothing for now, the run is repeated after a delay instead of spinning a pool thread
+     */
+    private void pollLater() {
+        long delay = pollDelay;
+        pollDelay = PollTimer.nextDelay(pollDelay);
+
+        PollTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                client.scheduleBodyTransfer(BodyTransfer.this);
+            }
+        }, delay);
+    }
+
+    private String lengthMismatch(long size) {
+        long length = publisher.contentLength();
+        return Fault.RequestBodyReadError.format(size > length
+                ? String.format("the body is longer than its length %d", length)
+                : String.format("the body has ended after %d of %d bytes", size, length));
+    }
+
+    private ByteBuffer frame(ByteBuffer part, int size) {
+        int start = CHUNK_HEADER_ROOM;
+        int end = part.position();
+
+        if (isChunked) {
+            byte[] header = (Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            start -= header.length;
+            part.limit(part.capacity());
+            part.put(CRLF);
+            end = part.position();
+            part.position(start);
+            part.put(header);
+        }
+
+        part.limit(end);
+        part.position(start);
+        return part;
+    }
+
+    private void finish(String failure) {
+        if (isFinished.compareAndSet(false, true)) {
+            closePublisher();
+            client.bodyTransferred(this, failure);
+        }
+    }
+
+    private void closePublisher() {
+        try {
+            publisher.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -24,12 +24,15 @@
 
 package org.techlook.net.client.http.client;
 
-import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.BackpressuredListener;
+import org.techlook.net.client.ByteBufferListener;
+import org.techlook.net.client.DrainAwareListener;
 import org.techlook.net.client.Fault;
 import org.techlook.net.client.SocketClient;
-import org.techlook.net.client.http.FormField;
+import org.techlook.net.client.http.BodyPublisher;
 import org.techlook.net.client.http.FormRequestData;
 import org.techlook.net.client.http.HttpConnection;
+import org.techlook.net.client.http.MultipartBody;
 import org.techlook.net.client.http.Pair;
 
 import java.io.IOException;
@@ -39,7 +42,9 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -48,7 +53,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 
-public class HttpAsyncClient implements HttpConnection, ChannelListener {
+public class HttpAsyncClient implements HttpConnection, DrainAwareListener, BackpressuredListener, ByteBufferListener {
     public static final class Method {
         public static final String GET = "GET";
         public static final String PUT = "PUT";
@@ -68,12 +73,26 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
     private final ConcurrentLinkedQueue<HttpListener> listeners = new ConcurrentLinkedQueue<>();
     private final AtomicInteger connectId = new AtomicInteger(-1);
     private final AtomicReference<HttpSession> httpSession = new AtomicReference<>();
+    private final AtomicReference<BodyTransfer> bodyTransfer = new AtomicReference<>();
+    private final RequestHeadTemplate headTemplate;
+    private volatile Runnable drainCallback;
+    private final Runnable resumeReading = new Runnable() {
+        @Override
+        public void run() {
+            Runnable callback = drainCallback;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    };
 
     public HttpAsyncClient(String server, int port, boolean isPersistent, SocketClient asyncClient) {
         this.client = asyncClient;
         this.server = server;
         this.port = port;
         this.isPersistent = isPersistent;
+
+        headTemplate = new RequestHeadTemplate(server, isPersistent);
     }
 
     @Override
@@ -89,7 +108,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             request.append(encodeParameters(parameters));
         }
 
-        final String requestHeader = requestHeader(Method.HEAD, request.toString(), headers, null, false);
+        final byte[] requestHeader = requestHeader(Method.HEAD, request.toString(), headers, null, false);
 
         sendViaTransport(requestHeader);
     }
@@ -107,7 +126,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             request.append(encodeParameters(parameters));
         }
 
-        final String requestHeader = requestHeader(Method.GET, request.toString(), headers, null, true);
+        final byte[] requestHeader = requestHeader(Method.GET, request.toString(), headers, null, true);
 
         sendViaTransport(requestHeader);
     }
@@ -164,7 +183,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             request.append(encodeParameters(parameters));
         }
 
-        final String requestHeader = requestHeader(Method.CONNECT, request.toString(), headers, null, true);
+        final byte[] requestHeader = requestHeader(Method.CONNECT, request.toString(), headers, null, true);
 
         sendViaTransport(requestHeader);
     }
@@ -182,7 +201,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             request.append(encodeParameters(parameters));
         }
 
-        final String requestHeader = requestHeader(Method.TRACE, request.toString(), headers, null, false);
+        final byte[] requestHeader = requestHeader(Method.TRACE, request.toString(), headers, null, false);
 
         sendViaTransport(requestHeader);
     }
@@ -215,7 +234,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             parametersHeader = "Content-Type: application/x-www-form-urlencoded\n" +
                     "Content-Length: " + body.length() + "\n";
         }
-        final String requestHeader = requestHeader(Method.POST, request.toString(), headers, parametersHeader, true);
+        final byte[] requestHeader = requestHeader(Method.POST, request.toString(), headers, parametersHeader, true);
 
         sendViaTransport(requestHeader);
         if (!body.isEmpty()) {
@@ -228,18 +247,60 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
                              Set<Pair<String, String>> headers,
                              FormRequestData requestData,
                              HttpListener listener) {
-        putListener(listener);
-        StringBuilder request = initRequestBuilder(path);
+        if (requestData.isEmpty()) {
+            putListener(listener);
+            sendViaTransport(requestHeader(Method.POST, initRequestBuilder(path).toString(), headers, "", true));
+            return;
+        }
 
-        String formFieldsHeader = "";
+        MultipartBody body;
+        byte[] content = null;
+        try {
+            body = new MultipartBody(requestData, Boundary.value);
+            if (!body.hasFiles()) {
+                content = body.toByteArray();
+            }
+        } catch (IOException e) {
+            listener.failure(Fault.RequestBodyReadError.format(e.getMessage()));
+            return;
+        }
+
+        String formFieldsHeader = "Content-Type: multipart/form-data;boundary=\"" + Boundary.value + "\"\n" +
+                "Content-Length: " + body.contentLength() + "\n";
+
+        if (content == null) {
+            streamBody(Method.POST, path, headers, null, formFieldsHeader, body, listener);
+        } else {
+            putListener(listener);
+            sendViaTransport(requestHeader(Method.POST, initRequestBuilder(path).toString(), headers, formFieldsHeader, true));
+            sendViaTransport(content);
+        }
+    }
 
-        if (!requestData.isEmpty()) {
-            formFieldsHeader = "Content-Type: multipart/form-data;boundary=\"" + Boundary.value + "\"\n";
+    @Override
+    public void streamContent(String method,
+                              String path,
+                              Set<Pair<String, String>> headers,
+                              Set<Pair<String, String>> urlParameters,
+                              String contentType,
+                              Charset contentCharset,
+                              BodyPublisher content,
+                              HttpListener listener) {
+        StringBuilder contentHeaders = new StringBuilder();
+        if (contentType != null) {
+            contentHeaders.append("Content-type: ").append(contentType);
+            if (contentCharset != null) {
+                contentHeaders.append("; charset=").append(contentCharset.name());
+            }
+            contentHeaders.append("\n");
+        }
+        if (content.contentLength() < 0) {
+            contentHeaders.append("Transfer-Encoding: chunked\n");
+        } else {
+            contentHeaders.append("Content-Length: ").append(content.contentLength()).append("\n");
         }
-        final String requestHeader = requestHeader(Method.POST, request.toString(), headers, formFieldsHeader, true);
 
-        sendViaTransport(requestHeader.substring(0, requestHeader.length() - 1));
-        sendFormData(requestData);
+        streamBody(method, path, headers, urlParameters, contentHeaders.toString(), content, listener);
     }
 
     @Override
@@ -261,25 +322,69 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             request.append(encodeParameters(parameters));
         }
 
-        final String requestHeader = requestHeader(Method.OPTIONS, request.toString(), headers, null, true);
+        final byte[] requestHeader = requestHeader(Method.OPTIONS, request.toString(), headers, null, true);
 
         sendViaTransport(requestHeader);
     }
 
     @Override
     public void channelError(String message) {
-        httpSession.get().getListener().failure(message);
         connectId.set(-1);
+        cancelBodyTransfer();
+        abandonSessions(message, true);
+    }
+
+    @Override
+    public void channelDrained() {
+        BodyTransfer transfer = bodyTransfer.get();
+        if (transfer != null) {
+            scheduleBodyTransfer(transfer);
+        }
+    }
+
+    /**
+     * The connection isn't read while the listener of the current response is saturated
+     */
+    @Override
+    public boolean isSaturated() {
+        HttpSession session = httpSession.get();
+        return session != null && session.getListener().isSaturated();
+    }
+
+    @Override
+    public void setDrainCallback(Runnable drainCallback) {
+        this.drainCallback = drainCallback;
     }
 
     @Override
     public void chunkIsReceived(byte[] chunk) {
-        httpSession.get().read(chunk);
+        chunkIsReceived(ByteBuffer.wrap(chunk));
+    }
+
+    @Override
+    public void chunkIsReceived(ByteBuffer chunk) {
+        // data arriving after the sessions have been abandoned has no one to be delivered to
+        HttpSession session = httpSession.get();
+        if (session != null) {
+            session.read(chunk);
+        }
     }
 
     @Override
     public void close() {
         connectId.set(-1);
+        cancelBodyTransfer();
+        abandonSessions(Fault.RequiredSessionHasBeenClosed.getDescription(), true);
+    }
+
+    /**
+     * closes the transport connection, the next request establishes a new one
+     */
+    public void disconnect() {
+        int channelId = connectId.getAndSet(-1);
+        if (channelId >= 0) {
+            client.close(channelId);
+        }
     }
 
     void sendContent(String method,
@@ -293,8 +398,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
         String contentHeaders = "";
         if (contentType != null && content != null) {
             String charset = contentCharset == null ? "" : "; charset=" + contentCharset.name();
-            contentHeaders = String.format("Content-type: %s%s\nContent-Length: %d\n",
-                    contentType, charset, content.length);
+            contentHeaders = "Content-type: " + contentType + charset + "\nContent-Length: " + content.length + "\n";
         }
 
         if (urlParameters != null && !urlParameters.isEmpty()) {
@@ -302,7 +406,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             request.append(encodeParameters(urlParameters));
         }
 
-        final String requestHeader = requestHeader(method, request.toString(), headers, contentHeaders, true);
+        final byte[] requestHeader = requestHeader(method, request.toString(), headers, contentHeaders, true);
 
         sendViaTransport(requestHeader);
         if (content != null) {
@@ -310,25 +414,79 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
         }
     }
 
-    private String requestHeader(String method,
+    private void streamBody(String method,
+                            String path,
+                            Set<Pair<String, String>> headers,
+                            Set<Pair<String, String>> urlParameters,
+                            String contentHeaders,
+                            BodyPublisher content,
+                            HttpListener listener) {
+        BodyTransfer transfer = new BodyTransfer(this, content);
+        if (!bodyTransfer.compareAndSet(null, transfer)) {
+            throw new IllegalStateException("Another request body is being sent via the connection");
+        }
+
+        putListener(listener);
+        StringBuilder request = initRequestBuilder(path);
+
+        if (urlParameters != null && !urlParameters.isEmpty()) {
+            request.append("?");
+            request.append(encodeParameters(urlParameters));
+        }
+
+        final byte[] requestHeader = requestHeader(method, request.toString(), headers, contentHeaders, true);
+
+        sendViaTransport(requestHeader);
+        scheduleBodyTransfer(transfer);
+    }
+
+    void scheduleBodyTransfer(BodyTransfer transfer) {
+        if (transfer.markScheduled()) {
+            client.getThreadPool().execute(transfer);
+        }
+    }
+
+    /**
+     * passes a part of a streamed request body to the transport, the transport owns the buffer then
+     * @return false if the part cannot be sent
+     */
+    boolean sendBodyPart(ByteBuffer part) {
+        awaitConnecting();
+        int channelId = connectId.get();
+        return channelId >= 0 && client.send(part, channelId);
+    }
+
+    /**
+     * @param failure  reason of the transfer failure or null if the body has been sent completely
+     */
+    void bodyTransferred(BodyTransfer transfer, String failure) {
+        if (bodyTransfer.compareAndSet(transfer, null) && failure != null) {
+            // the server waits for the rest of the body, so the connection cannot be reused,
+            // it may be still being established for the request head
+            awaitConnecting();
+            disconnect();
+            abandonSessions(failure, false);
+        }
+    }
+
+    private void cancelBodyTransfer() {
+        BodyTransfer transfer = bodyTransfer.getAndSet(null);
+        if (transfer != null) {
+            transfer.cancel();
+        }
+    }
+
+    private byte[] requestHeader(String method,
                                  String urlPart,
                                  Set<Pair<String, String>> headers,
                                  String contentHeaders,
                                  boolean hasResponseBody) {
-        String responseEncoding = hasResponseBody ? "Accept-Encoding: gzip, deflate\n" : "";
-
-        return String.format(
-                "%s %s HTTP/1.1\nHost: %s\nConnection: %s\n%s%s%s\n",
-                method,
-                urlPart,
-                server,
-                isPersistent ? "keep-alive" : "close",
-                encodeHeaders(headers),
-                contentHeaders != null ? contentHeaders : "",
-                responseEncoding);
+        return headTemplate.encode(method, urlPart, headers, contentHeaders, hasResponseBody);
     }
 
     HttpListener createSessionListener(final HttpListener listener) {
+        listener.setDrainCallback(resumeReading);
+
         return new HttpListener() {
             @Override
             public void responseCode(int code, String httpVersion, String description) {
@@ -343,13 +501,14 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             @Override
             public void complete() {
                 listener.complete();
-                HttpListener nextListener = listeners.poll();
-                httpSession.set(nextListener == null ? null : new HttpSession(nextListener, client.getThreadPool()));
+                nextSession();
             }
 
             @Override
             public void connectionClosed() {
+                // the response is over, so closing of the connection mustn't fail it again
                 listener.connectionClosed();
+                nextSession();
             }
 
             @Override
@@ -357,6 +516,11 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
                 listener.failure(message);
             }
 
+            @Override
+            public void connectionLost(String message) {
+                listener.connectionLost(message);
+            }
+
             @Override
             public Charset getCharset() {
                 return listener.getCharset();
@@ -366,9 +530,19 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
             public void respondHttpHeaders(Map<String, String> headers) {
                 listener.respondHeaders(headers);
             }
+
+            @Override
+            public boolean isSaturated() {
+                return listener.isSaturated();
+            }
         };
     }
 
+    private synchronized void nextSession() {
+        HttpListener nextListener = listeners.poll();
+        httpSession.set(nextListener == null ? null : new HttpSession(nextListener, client.getThreadPool()));
+    }
+
     synchronized void putListener(final HttpListener listener) {
         HttpListener sessionListener = createSessionListener(listener);
         if (!httpSession.compareAndSet(null,
@@ -377,13 +551,33 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
         }
     }
 
-    void sendFormData(FormRequestData requestData) {
-        if (!requestData.isEmpty()) {
-            for (FormField field : requestData.getFields()) {
-                sendViaTransport(String.format("\n--%s\n%s\n", Boundary.value, field.header()));
-                sendViaTransport(field.body());
+    /**
+     * Fails the requests which are still waiting for their responses when the transport connection is lost,
+     * so they aren't matched with responses of the next connection
+     * @param message           failure reason
+     * @param isConnectionLost  false if the connection is closed because of the request itself,
+     *                          so the request isn't worth sending again
+     */
+    private void abandonSessions(String message, boolean isConnectionLost) {
+        List<HttpListener> abandoned = new ArrayList<>();
+        synchronized (this) {
+            HttpSession session = httpSession.getAndSet(null);
+            if (session != null) {
+                abandoned.add(session.getListener());
+            }
+
+            HttpListener listener;
+            while ((listener = listeners.poll()) != null) {
+                abandoned.add(listener);
+            }
+        }
+
+        for (HttpListener listener : abandoned) {
+            if (isConnectionLost) {
+                listener.connectionLost(message);
+            } else {
+                listener.failure(message);
             }
-            sendViaTransport(String.format("\n--%s\n", Boundary.value));
         }
     }
 
@@ -395,15 +589,7 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
     private final AtomicBoolean isConnecting = new AtomicBoolean(false);
 
     private void sendViaTransport(byte[] buffer) {
-        if (isConnecting.get()) {
-            try {
-                synchronized (connecting) {
-                    connecting.wait();
-                }
-            } catch (InterruptedException ignored) {
-                sendViaTransport(buffer);
-            }
-        }
+        awaitConnecting();
 
         if ((connectId.get() < 0 || !client.send(buffer, 0, buffer.length, connectId.get()))) {
             if (isConnecting.compareAndSet(false, true)) {
@@ -414,6 +600,19 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
         }
     }
 
+    private void awaitConnecting() {
+        synchronized (connecting) {
+            while (isConnecting.get()) {
+                try {
+                    connecting.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
     private void reconnectAndSend(final byte[] buffer) {
         client.getThreadPool().submit(new Runnable() {
             @Override
@@ -425,9 +624,9 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
                     String errorMessage = Fault.AsyncClientError.format(e.getMessage());
                 } finally {
                     synchronized (connecting) {
-                        connecting.notify();
+                        isConnecting.set(false);
+                        connecting.notifyAll();
                     }
-                    isConnecting.set(false);
                 }
             }
         });
@@ -458,19 +657,6 @@ public class HttpAsyncClient implements HttpConnection, ChannelListener {
         return request.toString();
     }
 
-    private String encodeHeaders(Set<Pair<String, String>> headers) {
-        if (headers == null || headers.isEmpty()) {
-            return "\n";
-        }
-
-        StringBuilder result = new StringBuilder();
-        for (Pair<String, String> header : headers) {
-            result.append(String.format("%s: %s\n", header.getKey(), header.getValue()));
-        }
-
-        return result.toString();
-    }
-
     static final class Boundary {
         static final String value;
 
@@ -84,6 +84,15 @@ public abstract class HttpListener {
      */
     public void failure(String message) {}
 
+    /**
+     * occurs when the connection is lost before the response is received completely,
+     * the request may be sent again then unless its response has started
+     * @param message  error message
+     */
+    public void connectionLost(String message) {
+        failure(message);
+    }
+
     /**
      * receiving of a response is completed successfully
      */
@@ -107,4 +116,18 @@ public abstract class HttpListener {
      * calls when connection is closed
      */
     public abstract void connectionClosed();
+
+    /**
+     * A listener which can't keep up with the content stops the connection reading by this method
+     * @return true if the listener can't accept more chunks for now, the drain callback is called afterwards
+     * once the listener is able to accept chunks again
+     */
+    public boolean isSaturated() {
+        return false;
+    }
+
+    /**
+     * @param drainCallback  callback resuming reading of the connection, it doesn't block
+     */
+    public void setDrainCallback(Runnable drainCallback) {}
 }
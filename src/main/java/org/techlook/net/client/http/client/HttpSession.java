@@ -30,11 +30,9 @@ import org.techlook.net.client.http.content.ContentReader;
 import org.techlook.net.client.http.content.Decoder;
 import org.techlook.net.client.http.content.WholeContentReader;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Parses and recognizes the HTTP parts from the input stream.
@@ -45,16 +43,13 @@ public class HttpSession {
     private final static String TRANSFER_ENCODING_CHUNKED = "chunked";
     private final static String CONTENT_ENCODING = "content-encoding";
     private final static String CONNECTION = "connection";
-    private final static Pattern RESPONSE_HEAD = Pattern.compile("^(\\S+)\\s+(\\d+)\\s+(.+)$");
 
-    private final StringBuilder responseBuilder = new StringBuilder();
-    private final Map<String, String> headers = new TreeMap<>();
+    private final ResponseHeadParser headParser = new ResponseHeadParser();
     private final List<Decoder> decompressionMethods = new ArrayList<>();
     private final HttpListener listener;
     private final ForkJoinPool threadPool;
-    private final AtomicBoolean responseCodeIsntParsedYet = new AtomicBoolean(true);
 
-    private volatile int position = 0;
+    private volatile boolean isResponseCodeReported;
     private volatile boolean continueParse = true;
     private volatile long contentLength;
     private volatile ContentReader contentReader;
@@ -91,55 +86,38 @@ public class HttpSession {
      * @param chunk chunk
      */
     public void read(byte[] chunk) {
-        responseBuilder.append(new String(chunk));
-        if (continueParse) {
-            int index;
-
-            while ((index = responseBuilder.indexOf("\n", position)) > 0) {
-                int residueIndex = index + 1;
-                if (responseBuilder.charAt(index - 1) == '\r') {
-                    --index;
-                }
+        read(ByteBuffer.wrap(chunk));
+    }
 
-                String line = responseBuilder.substring(position, index).trim();
-                if (responseCodeIsntParsedYet.compareAndSet(true, false)) {
-                    parseResponseCode(line);
-                }
+    /**
+     * read incoming chunk from channel, the response head is parsed in place and the rest of the chunk
+     * is passed to the content reader
+     * @param chunk  chunk between the position and the limit, the session takes ownership of the buffer
+     */
+    public void read(ByteBuffer chunk) {
+        if (continueParse) {
+            boolean isHeadComplete = headParser.parse(chunk);
 
-                if (line.isEmpty()) {
-                    int start = -1;
-                    for (int k = 3; k < chunk.length; ++k) {
-                        if (chunk[k - 3] == '\r' && chunk[k - 2] == '\n' && chunk[k - 1] == '\r' && chunk[k] == '\n') {
-                            start = k + 1;
-                            break;
-                        }
-                    }
-                    completeResponseHeader(Arrays.copyOfRange(chunk, start, chunk.length));
-
-                    break;
-                } else {
-                    pushLine(line);
-                }
+            if (!isResponseCodeReported && headParser.isStatusLineParsed()) {
+                isResponseCodeReported = true;
+                listener.responseCode(headParser.getStatusCode(),
+                        headParser.getHttpVersion(), headParser.getReasonPhrase());
+            }
 
-                position = residueIndex;
+            if (isHeadComplete) {
+                completeResponseHeader(chunk);
+            } else if (headParser.getFault() != null) {
+                continueParse = false;
+                listener.failure(headParser.getFault());
             }
-        } else {
+        } else if (contentReader != null) {
             contentReader.read(chunk);
         }
     }
 
-    private void parseResponseCode(String line) {
-        Matcher matcher = RESPONSE_HEAD.matcher(line);
-        if (!matcher.matches()) {
-            listener.failure(Fault.BAD_RESPONSE_HEAD.format(line));
-            return;
-        }
-
-        listener.responseCode(Integer.parseInt(matcher.group(2)), matcher.group(1), matcher.group(3));
-    }
-
-    private void completeResponseHeader(byte[] residue) {
+    private void completeResponseHeader(ByteBuffer residue) {
         continueParse = false;
+        Map<String, String> headers = headParser.getHeaders();
 
         listener.respondHeaders(headers);
 
@@ -182,7 +160,7 @@ public class HttpSession {
                 return;
             }
             contentReader = new WholeContentReader(listener,
-                    (int) contentLength, residue, decompressionMethods, threadPool);
+                    (int) contentLength, null, decompressionMethods, threadPool);
         } else if (headers.containsKey(TRANSFER_ENCODING)) {
             String transfer = headers.get(TRANSFER_ENCODING).trim().toLowerCase();
 
@@ -191,21 +169,14 @@ public class HttpSession {
                 return;
             }
 
-            contentReader = new ChunkedContentReader(listener, residue, decompressionMethods, threadPool);
+            contentReader = new ChunkedContentReader(listener, null, decompressionMethods, threadPool);
         } else {
             listener.failure(Fault.NonChunkedContentWithoutLength.getDescription());
-        }
-    }
-
-    private void pushLine(String line) {
-        int index = line.indexOf(':');
-        if (index < 0) {
             return;
         }
 
-        String key = line.substring(0, index).trim().toLowerCase();
-        String value = line.substring(index + 1).trim();
-
-        headers.put(key, value);
+        if (residue.hasRemaining()) {
+            contentReader.read(residue);
+        }
     }
 }
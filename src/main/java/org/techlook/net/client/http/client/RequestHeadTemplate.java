@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.client;
+
+import org.techlook.net.client.http.Pair;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pre-encoded parts of request heads of a connection.
+ *
+ * The request line tail, Host, Connection and Accept-Encoding lines are encoded once per connection.
+ * Header lines are cached by their pairs, so headers repeated in every request (e.g. common headers
+ * of SimpleHttpClient) are encoded only once as well. A head is assembled by copying the parts
+ * into an array of the exact size.
+ */
+class RequestHeadTemplate {
+    static final int MAX_CACHED_HEADERS = 64;
+
+    private static final byte[] HTTP_VERSION = bytes(" HTTP/1.1\n");
+    private static final byte[] ACCEPT_ENCODING = bytes("Accept-Encoding: gzip, deflate\n");
+    private static final byte[] LINE_FEED = bytes("\n");
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final Map<String, byte[]> METHODS = new HashMap<>();
+
+    static {
+        for (String method : new String[]{HttpAsyncClient.Method.GET, HttpAsyncClient.Method.PUT,
+                HttpAsyncClient.Method.DELETE, HttpAsyncClient.Method.OPTIONS, HttpAsyncClient.Method.POST,
+                HttpAsyncClient.Method.HEAD, HttpAsyncClient.Method.PATCH, HttpAsyncClient.Method.CONNECT,
+                HttpAsyncClient.Method.TRACE}) {
+            METHODS.put(method, bytes(method + " "));
+        }
+    }
+
+    private final byte[] hostAndConnection;
+    private final ConcurrentMap<Pair<String, String>, byte[]> headerLines = new ConcurrentHashMap<>();
+
+    /**
+     * Creation
+     * @param server        server name of the Host header
+     * @param isPersistent  keep-alive or close connection
+     */
+    RequestHeadTemplate(String server, boolean isPersistent) {
+        hostAndConnection = bytes("Host: " + server + "\nConnection: " + (isPersistent ? "keep-alive" : "close") + "\n");
+    }
+
+    /**
+     * assembles a request head terminated by an empty line
+     * @param method           HTTP method
+     * @param target           request target: a path with a query, or '*'
+     * @param headers          request headers, may be null
+     * @param contentHeaders   content describing header lines, may be null
+     * @param hasResponseBody  whether the accepted content encodings are specified
+     * @return encoded head
+     */
+    byte[] encode(String method,
+                  String target,
+                  Set<Pair<String, String>> headers,
+                  String contentHeaders,
+                  boolean hasResponseBody) {
+        byte[] methodPart = METHODS.get(method);
+        if (methodPart == null) {
+            methodPart = bytes(method + " ");
+        }
+        byte[] targetPart = bytes(target);
+        byte[] contentPart = contentHeaders == null || contentHeaders.isEmpty() ? NO_BYTES : bytes(contentHeaders);
+        byte[] encodingPart = hasResponseBody ? ACCEPT_ENCODING : NO_BYTES;
+
+        byte[][] headerParts = null;
+        int length = methodPart.length + targetPart.length + HTTP_VERSION.length + hostAndConnection.length
+                + contentPart.length + encodingPart.length + LINE_FEED.length;
+        if (headers != null && !headers.isEmpty()) {
+            headerParts = new byte[headers.size()][];
+            int index = 0;
+            for (Pair<String, String> header : headers) {
+                byte[] line = headerLine(header);
+                headerParts[index++] = line;
+                length += line.length;
+            }
+        }
+
+        byte[] head = new byte[length];
+        int position = put(methodPart, head, 0);
+        position = put(targetPart, head, position);
+        position = put(HTTP_VERSION, head, position);
+        position = put(hostAndConnection, head, position);
+        if (headerParts != null) {
+            for (byte[] line : headerParts) {
+                position = put(line, head, position);
+            }
+        }
+        position = put(contentPart, head, position);
+        position = put(encodingPart, head, position);
+        put(LINE_FEED, head, position);
+
+        return head;
+    }
+
+    /**
+     * @return the number of cached header lines
+     */
+    int cachedHeaders() {
+        return headerLines.size();
+    }
+
+    private byte[] headerLine(Pair<String, String> header) {
+        byte[] line = headerLines.get(header);
+        if (line == null) {
+            line = bytes(header.getKey() + ": " + header.getValue() + "\n");
+            if (headerLines.size() < MAX_CACHED_HEADERS) {
+                headerLines.putIfAbsent(header, line);
+            }
+        }
+
+        return line;
+    }
+
+    private static int put(byte[] part, byte[] head, int position) {
+        System.arraycopy(part, 0, head, position, part.length);
+        return position + part.length;
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.client;
+
+import org.techlook.net.client.Fault;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resumable byte-level parser of an HTTP/1.x response head: the status line and the header fields.
+ * Chunks are fed as they are read from the channel, a head may be split at any byte.
+ * Header names are lower-cased, the names the session looks for are shared constants,
+ * so only the kept header values and the rest of names are allocated as strings.
+ */
+class ResponseHeadParser {
+    static final int DEFAULT_MAX_HEAD_SIZE = 64 * 1024;
+
+    private static final String HTTP_1_1 = "HTTP/1.1";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final String[] KNOWN_NAMES = {
+            "content-length", "transfer-encoding", "content-encoding", "connection", "content-type", "date",
+            "server", "cache-control", "keep-alive", "location", "set-cookie", "etag", "last-modified", "expires",
+            "vary"
+    };
+    private static final byte[][] KNOWN_NAME_BYTES = new byte[KNOWN_NAMES.length][];
+
+    static {
+        for (int k = 0; k < KNOWN_NAMES.length; ++k) {
+            KNOWN_NAME_BYTES[k] = KNOWN_NAMES[k].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private enum State {
+        VERSION, CODE, REASON, LINE_START, NAME, VALUE, FOLD, DONE, FAILED
+    }
+
+    private final Map<String, String> headers = new TreeMap<>();
+    private final int maxHeadSize;
+
+    private State state = State.VERSION;
+    private byte[] token = new byte[64];
+    private int tokenLength;
+    private int headSize;
+    private boolean isStatusLineParsed;
+    private String httpVersion;
+    private int statusCode;
+    private String reasonPhrase;
+    private String name;
+    private String fault;
+
+    ResponseHeadParser() {
+        this(DEFAULT_MAX_HEAD_SIZE);
+    }
+
+    /**
+     * Creation
+     * @param maxHeadSize the limit of the status line and headers size in bytes
+     */
+    ResponseHeadParser(int maxHeadSize) {
+        this.maxHeadSize = maxHeadSize;
+    }
+
+    /**
+     * consumes bytes of the head from the buffer
+     * @param buffer incoming bytes
+     * @return true if the head is complete, the buffer position is at the first byte of the content then.
+     * False if more bytes are needed or the head is malformed, see {@link #getFault()}
+     */
+    boolean parse(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (state == State.DONE || state == State.FAILED) {
+                break;
+            }
+            if (++headSize > maxHeadSize) {
+                fail(Fault.ResponseHeadIsTooLarge.format(maxHeadSize));
+                break;
+            }
+
+            byte b = buffer.get();
+            switch (state) {
+                case VERSION:
+                    if (b == ' ') {
+                        if (tokenLength > 0) {
+                            httpVersion = version();
+                            tokenLength = 0;
+                            state = State.CODE;
+                        }
+                    } else if (b == '\n') {
+                        failStatusLine();
+                    } else {
+                        append(b);
+                    }
+                    break;
+                case CODE:
+                    if (b >= '0' && b <= '9' && tokenLength < 3) {
+                        statusCode = statusCode * 10 + b - '0';
+                        append(b);
+                    } else if (tokenLength == 3 && (b == ' ' || b == '\r')) {
+                        tokenLength = 0;
+                        state = State.REASON;
+                    } else if (tokenLength == 3 && b == '\n') {
+                        completeStatusLine();
+                    } else if (b != ' ' || tokenLength != 0) {
+                        failStatusLine();
+                    }
+                    break;
+                case REASON:
+                    if (b == '\n') {
+                        completeStatusLine();
+                    } else if (tokenLength > 0 || b != ' ') {
+                        append(b);
+                    }
+                    break;
+                case LINE_START:
+                    if (b == '\n') {
+                        completeField();
+                        state = State.DONE;
+                    } else if (b == '\r') {
+                        // the last line ending is CRLF
+                    } else if ((b == ' ' || b == '\t') && name != null) {
+                        // an obsolete line folding continues the previous value
+                        trimToken();
+                        state = State.FOLD;
+                    } else {
+                        completeField();
+                        if (b == ':') {
+                            name = "";
+                            state = State.VALUE;
+                        } else {
+                            append(lowerCase(b));
+                            state = State.NAME;
+                        }
+                    }
+                    break;
+                case NAME:
+                    if (b == ':') {
+                        name = headerName();
+                        tokenLength = 0;
+                        state = State.VALUE;
+                    } else if (b == '\n') {
+                        // a line without a colon is skipped
+                        tokenLength = 0;
+                        name = null;
+                        state = State.LINE_START;
+                    } else {
+                        append(lowerCase(b));
+                    }
+                    break;
+                case FOLD:
+                    if (b == '\n') {
+                        state = State.LINE_START;
+                    } else if (b != ' ' && b != '\t') {
+                        if (tokenLength > 0) {
+                            append((byte) ' ');
+                        }
+                        append(b);
+                        state = State.VALUE;
+                    }
+                    break;
+                case VALUE:
+                    if (b == '\n') {
+                        state = State.LINE_START;
+                    } else if (tokenLength > 0 || (b != ' ' && b != '\t')) {
+                        append(b);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return state == State.DONE;
+    }
+
+    /**
+     * @return true if the status line has been parsed, the status code, version and reason are available
+     */
+    boolean isStatusLineParsed() {
+        return isStatusLineParsed;
+    }
+
+    String getHttpVersion() {
+        return httpVersion;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    /**
+     * @return headers by lower-cased names, the last one wins if a header is repeated
+     */
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return description of the malformed head or null
+     */
+    String getFault() {
+        return fault;
+    }
+
+    private void completeStatusLine() {
+        reasonPhrase = trimmedToken();
+        tokenLength = 0;
+        isStatusLineParsed = true;
+        state = State.LINE_START;
+    }
+
+    private void completeField() {
+        if (name == null) {
+            return;
+        }
+
+        if (!name.isEmpty()) {
+            headers.put(name, trimmedToken());
+        }
+        name = null;
+        tokenLength = 0;
+    }
+
+    private void append(byte b) {
+        if (tokenLength == token.length) {
+            byte[] enlarged = new byte[token.length * 2];
+            System.arraycopy(token, 0, enlarged, 0, tokenLength);
+            token = enlarged;
+        }
+        token[tokenLength++] = b;
+    }
+
+    private void trimToken() {
+        while (tokenLength > 0 && isWhitespace(token[tokenLength - 1])) {
+            --tokenLength;
+        }
+    }
+
+    private String trimmedToken() {
+        trimToken();
+
+        return new String(token, 0, tokenLength, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private String version() {
+        if (matches(HTTP_1_1)) {
+            return HTTP_1_1;
+        } else if (matches(HTTP_1_0)) {
+            return HTTP_1_0;
+        }
+
+        return new String(token, 0, tokenLength, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean matches(String version) {
+        if (version.length() != tokenLength) {
+            return false;
+        }
+        for (int k = 0; k < tokenLength; ++k) {
+            if (version.charAt(k) != token[k]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String headerName() {
+        trimToken();
+        int end = tokenLength;
+
+        for (int k = 0; k < KNOWN_NAME_BYTES.length; ++k) {
+            byte[] known = KNOWN_NAME_BYTES[k];
+            if (known.length == end && equalsToken(known)) {
+                return KNOWN_NAMES[k];
+            }
+        }
+
+        return new String(token, 0, end, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean equalsToken(byte[] known) {
+        for (int k = 0; k < known.length; ++k) {
+            if (known[k] != token[k]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static byte lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private void failStatusLine() {
+        String line = (httpVersion == null ? "" : httpVersion + " ")
+                + new String(token, 0, tokenLength, StandardCharsets.ISO_8859_1);
+        fail(Fault.BAD_RESPONSE_HEAD.format(line.trim()));
+    }
+
+    private void fail(String description) {
+        fault = description;
+        state = State.FAILED;
+    }
+}
@@ -51,6 +51,15 @@ public abstract class ContentReader implements WritableByteChannel {
 
     public abstract void read(byte[] chunk);
 
+    /**
+     * @param chunk  content between the position and the limit, the reader takes ownership of the buffer
+     */
+    public void read(ByteBuffer chunk) {
+        byte[] content = new byte[chunk.remaining()];
+        chunk.get(content);
+        read(content);
+    }
+
     private void setDecoders(List<Decoder> decoders) {
         if (decoders == null || decoders.isEmpty()) {
             return;
@@ -67,8 +76,13 @@ public abstract class ContentReader implements WritableByteChannel {
     }
 
     void transmitChunk(final byte[] chunk) {
+        transmitChunk(ByteBuffer.wrap(chunk));
+    }
+
+    void transmitChunk(final ByteBuffer chunk) {
         try {
-            sink.write(ByteBuffer.wrap(chunk));
+            // the decoders expect the data from the beginning of the buffer
+            sink.write(chunk.position() == 0 ? chunk : chunk.slice());
         } catch (IOException e) {
             listener.failure(Fault.AsyncClientChannelWriteError.format(e.getMessage()));
         }
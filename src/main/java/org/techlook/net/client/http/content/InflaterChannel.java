@@ -230,11 +230,11 @@ public class InflaterChannel implements WritableByteChannel {
         }
 
         ByteBuffer pollChunk() {
-            return chunks.poll();
+            return dequeue();
         }
 
         void putChunk(ByteBuffer chunk) {
-            chunks.add(chunk);
+            enqueue(chunk);
             shakeUp();
         }
     }
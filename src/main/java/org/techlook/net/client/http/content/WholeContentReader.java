@@ -26,6 +26,7 @@ package org.techlook.net.client.http.content;
 
 import org.techlook.net.client.http.client.HttpListener;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 
@@ -50,8 +51,17 @@ public class WholeContentReader extends ContentReader {
             return;
         }
 
+        read(ByteBuffer.wrap(chunk));
+    }
+
+    /**
+     * the buffer is passed to the decoders or the listener without copying into an array beforehand
+     */
+    @Override
+    public synchronized void read(ByteBuffer chunk) {
+        int chunkSize = chunk.remaining();
         transmitChunk(chunk);
-        readSize += chunk.length;
+        readSize += chunkSize;
 
         if (readSize == size) {
             completeTransmitting();
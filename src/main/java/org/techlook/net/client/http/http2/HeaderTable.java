@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.http.Pair;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The HPACK index address space: the static table followed by the dynamic table (RFC 7541, section 2.3)
+ */
+class HeaderTable {
+    static final int DEFAULT_SIZE = 4096;
+
+    private static final int ENTRY_OVERHEAD = 32;
+
+    static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    static {
+        for (int k = STATIC_TABLE.length - 1; k >= 0; --k) {
+            STATIC_NAMES.put(STATIC_TABLE[k][0], k + 1);
+        }
+    }
+
+    // the newest entry is the first one
+    private final Deque<Pair<String, String>> entries = new ArrayDeque<>();
+    private int size;
+    private int maxSize = DEFAULT_SIZE;
+
+    Pair<String, String> get(int index) throws Http2Exception {
+        if (index <= 0 || index > STATIC_TABLE.length + entries.size()) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Bad header index: " + index);
+        }
+        if (index <= STATIC_TABLE.length) {
+            return new Pair<>(STATIC_TABLE[index - 1][0], STATIC_TABLE[index - 1][1]);
+        }
+
+        Iterator<Pair<String, String>> iterator = entries.iterator();
+        for (int k = STATIC_TABLE.length + 1; k < index; ++k) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    /**
+     * @return the index of the field, or the negated index of its name, or 0 if neither is found
+     */
+    int find(String name, String value) {
+        int nameIndex = 0;
+        Integer staticIndex = STATIC_NAMES.get(name);
+        if (staticIndex != null) {
+            for (int k = staticIndex; k <= STATIC_TABLE.length && STATIC_TABLE[k - 1][0].equals(name); ++k) {
+                if (STATIC_TABLE[k - 1][1].equals(value)) {
+                    return k;
+                }
+            }
+            nameIndex = -staticIndex;
+        }
+
+        int index = STATIC_TABLE.length + 1;
+        for (Pair<String, String> entry : entries) {
+            if (entry.getKey().equals(name)) {
+                if (entry.getValue().equals(value)) {
+                    return index;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = -index;
+                }
+            }
+            ++index;
+        }
+
+        return nameIndex;
+    }
+
+    void add(String name, String value) {
+        int entrySize = entrySize(name, value);
+        if (entrySize > maxSize) {
+            // an entry larger than the table empties it
+            entries.clear();
+            size = 0;
+            return;
+        }
+
+        evict(maxSize - entrySize);
+        entries.addFirst(new Pair<>(name, value));
+        size += entrySize;
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int length() {
+        return entries.size();
+    }
+
+    private void evict(int targetSize) {
+        while (size > targetSize && !entries.isEmpty()) {
+            Pair<String, String> entry = entries.removeLast();
+            size -= entrySize(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+}
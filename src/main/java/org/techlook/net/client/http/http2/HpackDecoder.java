@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.http.Pair;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes header blocks (RFC 7541), each connection requires its own decoder since it keeps the dynamic table
+ */
+class HpackDecoder {
+    private final HeaderTable table = new HeaderTable();
+    private final int maxTableSize;
+
+    /**
+     * @param maxTableSize  the table size limit announced to the peer by SETTINGS_HEADER_TABLE_SIZE
+     */
+    HpackDecoder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        table.setMaxSize(maxTableSize);
+    }
+
+    /**
+     * @param block  the whole header block
+     * @return header fields in the order of their appearance
+     * @throws Http2Exception on a compression error, the connection can't be used anymore
+     */
+    List<Pair<String, String>> decode(ByteBuffer block) throws Http2Exception {
+        List<Pair<String, String>> headers = new ArrayList<>();
+        boolean isSizeUpdateAllowed = true;
+        try {
+            while (block.hasRemaining()) {
+                int first = block.get(block.position()) & 0xff;
+                if ((first & 0x80) != 0) {
+                    headers.add(table.get(decodeInteger(block, 7)));
+                } else if ((first & 0x40) != 0) {
+                    Pair<String, String> header = decodeLiteral(block, 6);
+                    table.add(header.getKey(), header.getValue());
+                    headers.add(header);
+                } else if ((first & 0x20) != 0) {
+                    if (!isSizeUpdateAllowed) {
+                        throw new Http2Exception(Http2Exception.COMPRESSION_ERROR,
+                                "A table size update must start the header block");
+                    }
+                    int size = decodeInteger(block, 5);
+                    if (size > maxTableSize) {
+                        throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size is too large: " + size);
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // literals without indexing and never indexed ones
+                    headers.add(decodeLiteral(block, 4));
+                }
+                isSizeUpdateAllowed = false;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated header block");
+        }
+
+        return headers;
+    }
+
+    int tableSize() {
+        return table.size();
+    }
+
+    private Pair<String, String> decodeLiteral(ByteBuffer block, int prefixBits) throws Http2Exception {
+        int nameIndex = decodeInteger(block, prefixBits);
+        String name = nameIndex == 0 ? decodeString(block) : table.get(nameIndex).getKey();
+
+        return new Pair<>(name, decodeString(block));
+    }
+
+    private static String decodeString(ByteBuffer block) throws Http2Exception {
+        if (!block.hasRemaining()) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "String literal is missing");
+        }
+        boolean isHuffman = (block.get(block.position()) & 0x80) != 0;
+        int length = decodeInteger(block, 7);
+        if (length > block.remaining()) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated string literal");
+        }
+
+        byte[] octets;
+        if (isHuffman) {
+            octets = Huffman.decode(block, length);
+        } else {
+            octets = new byte[length];
+            block.get(octets);
+        }
+
+        return new String(octets, StandardCharsets.ISO_8859_1);
+    }
+
+    static int decodeInteger(ByteBuffer block, int prefixBits) throws Http2Exception {
+        int mask = (1 << prefixBits) - 1;
+        int value = block.get() & mask;
+        if (value < mask) {
+            return value;
+        }
+
+        int shift = 0;
+        int octet;
+        do {
+            octet = block.get() & 0xff;
+            if (shift > 21) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Integer overflow");
+            }
+            value += (octet & 0x7f) << shift;
+            shift += 7;
+        } while ((octet & 0x80) != 0);
+
+        if (value < 0) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Integer overflow");
+        }
+        return value;
+    }
+}
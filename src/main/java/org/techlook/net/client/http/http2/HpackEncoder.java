@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.http.Pair;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes header blocks (RFC 7541). Fields are added to the dynamic table, so repeated headers of following
+ * requests are sent as indices. Credentials are never indexed. Blocks must be sent in the order of their encoding.
+ */
+class HpackEncoder {
+    private static final Set<String> NEVER_INDEXED =
+            new HashSet<>(Arrays.asList("authorization", "proxy-authorization"));
+
+    private final HeaderTable table = new HeaderTable();
+    private int smallestPendingSize = -1;
+    private boolean isSizeUpdatePending;
+
+    /**
+     * applies SETTINGS_HEADER_TABLE_SIZE of the peer, the encoder never uses more than the default size
+     * @param size  the table size the peer decoder is able to keep
+     */
+    void setMaxTableSize(int size) {
+        int newSize = Math.min(size, HeaderTable.DEFAULT_SIZE);
+        if (newSize == table.getMaxSize()) {
+            return;
+        }
+
+        smallestPendingSize = smallestPendingSize < 0 ? newSize : Math.min(smallestPendingSize, newSize);
+        isSizeUpdatePending = true;
+        table.setMaxSize(newSize);
+    }
+
+    /**
+     * @param headers  header fields with lowercase names
+     * @return the header block
+     */
+    byte[] encode(List<Pair<String, String>> headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (isSizeUpdatePending) {
+            if (smallestPendingSize < table.getMaxSize()) {
+                encodeInteger(out, 0x20, 5, smallestPendingSize);
+            }
+            encodeInteger(out, 0x20, 5, table.getMaxSize());
+            isSizeUpdatePending = false;
+            smallestPendingSize = -1;
+        }
+
+        for (Pair<String, String> header : headers) {
+            String name = header.getKey();
+            String value = header.getValue();
+            int index = table.find(name, value);
+            if (index > 0) {
+                encodeInteger(out, 0x80, 7, index);
+                continue;
+            }
+
+            boolean isIndexed = !NEVER_INDEXED.contains(name);
+            if (isIndexed) {
+                encodeInteger(out, 0x40, 6, -index);
+            } else {
+                encodeInteger(out, 0x10, 4, -index);
+            }
+            if (index == 0) {
+                encodeString(out, name);
+            }
+            encodeString(out, value);
+
+            if (isIndexed) {
+                table.add(name, value);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    int tableSize() {
+        return table.size();
+    }
+
+    private static void encodeString(ByteArrayOutputStream out, String string) {
+        byte[] octets = string.getBytes(StandardCharsets.ISO_8859_1);
+        int huffmanLength = Huffman.encodedLength(octets);
+        if (huffmanLength < octets.length) {
+            encodeInteger(out, 0x80, 7, huffmanLength);
+            Huffman.encode(octets, out);
+        } else {
+            encodeInteger(out, 0, 7, octets.length);
+            out.write(octets, 0, octets.length);
+        }
+    }
+
+    static void encodeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(flags | value);
+            return;
+        }
+
+        out.write(flags | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
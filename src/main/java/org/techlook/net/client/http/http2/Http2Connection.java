@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.Fault;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.BodyPublisher;
+import org.techlook.net.client.http.FormRequestData;
+import org.techlook.net.client.http.HttpConnection;
+import org.techlook.net.client.http.MultipartBody;
+import org.techlook.net.client.http.Pair;
+import org.techlook.net.client.http.client.HttpListener;
+import org.techlook.net.client.ssl.SSLSocketClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HTTP/2 connection multiplexing concurrent requests as streams of a single TCP connection, so a slow response
+ * doesn't hold up others and any method can be sent without waiting. HTTP/2 is negotiated by ALPN when the transport
+ * is an {@link SSLSocketClient} (ALPN requires Java 9+), a plain transport connects with prior knowledge.
+ *
+ * The connection is established by the first request. Once the server sends GOAWAY, requests it hasn't processed
+ * are sent again over a new connection.
+ */
+public class Http2Connection implements HttpConnection {
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "te"));
+
+    private final InetSocketAddress address;
+    private final String scheme;
+    private final String authority;
+    private final SocketClient transport;
+    private final AtomicReference<Http2Session> session = new AtomicReference<>();
+
+    /**
+     * Constructor
+     * @param server     a remote host
+     * @param port       TCP port
+     * @param transport  asynchronous SocketClient instance, HTTP/2 goes over TLS if it's an SSLSocketClient
+     */
+    public Http2Connection(String server, int port, SocketClient transport) {
+        this.transport = transport;
+        address = new InetSocketAddress(server, port);
+        boolean isSecure = transport instanceof SSLSocketClient;
+        scheme = isSecure ? "https" : "http";
+        authority = port == (isSecure ? 443 : 80) ? server : server + ":" + port;
+    }
+
+    @Override
+    public void head(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        submit(new Http2Request(requestHeaders("HEAD", path(url, parameters), additionalHeaders, null, null, null),
+                null, listener));
+    }
+
+    @Override
+    public void get(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        submit(new Http2Request(requestHeaders("GET", path(url, parameters), additionalHeaders, null, null, null),
+                null, listener));
+    }
+
+    @Override
+    public void put(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        sendContent("PUT", url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void delete(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        sendContent("DELETE", url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void patch(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        sendContent("PATCH", url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void connect(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        // CONNECT has neither :scheme nor :path, the url is the authority of the tunnel
+        List<Pair<String, String>> headers = new ArrayList<>();
+        headers.add(new Pair<>(":method", "CONNECT"));
+        headers.add(new Pair<>(":authority", url));
+        addHeaders(headers, additionalHeaders);
+        submit(new Http2Request(headers, null, listener));
+    }
+
+    @Override
+    public void trace(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        submit(new Http2Request(requestHeaders("TRACE", path(url, parameters), additionalHeaders, null, null, null),
+                null, listener));
+    }
+
+    @Override
+    public void postContent(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset, byte[] content, HttpListener listener) {
+        sendContent("POST", url, additionalHeaders, urlParameters, contentType, contentCharset, content, listener);
+    }
+
+    @Override
+    public void postWithEncodedParameters(String url, Set<Pair<String, String>> additionalHeaders, Set<Pair<String, String>> parameters, HttpListener listener) {
+        byte[] body = null;
+        String contentType = null;
+        if (parameters != null && !parameters.isEmpty()) {
+            body = encodeParameters(parameters).getBytes(StandardCharsets.UTF_8);
+            contentType = "application/x-www-form-urlencoded";
+        }
+        submit(new Http2Request(requestHeaders("POST", path(url, null), additionalHeaders, contentType, null, body),
+                body, listener));
+    }
+
+    @Override
+    public void postFormData(String url, Set<Pair<String, String>> additionalHeaders, FormRequestData requestData, HttpListener listener) {
+        byte[] body = null;
+        String contentType = null;
+        if (!requestData.isEmpty()) {
+            String boundary = UUID.randomUUID().toString().replace("-", "");
+            contentType = "multipart/form-data; boundary=\"" + boundary + "\"";
+            try {
+                body = new MultipartBody(requestData, boundary).toByteArray();
+            } catch (IOException e) {
+                listener.failure(Fault.RequestBodyReadError.format(e.getMessage()));
+                return;
+            }
+        }
+        submit(new Http2Request(requestHeaders("POST", path(url, null), additionalHeaders, contentType, null, body),
+                body, listener));
+    }
+
+    /**
+     * The content is sent by DATA frames as the flow control windows allow, a content of unknown length
+     * has no content-length header and ends with the stream
+     */
+    @Override
+    public void streamContent(String method,
+                              String url,
+                              Set<Pair<String, String>> additionalHeaders,
+                              Set<Pair<String, String>> urlParameters,
+                              String contentType,
+                              Charset contentCharset,
+                              BodyPublisher content,
+                              HttpListener listener) {
+        submit(new Http2Request(requestHeaders(method, path(url, urlParameters), additionalHeaders,
+                contentType, contentCharset, content.contentLength()), null, content, listener));
+    }
+
+    @Override
+    public void optionsWithUrl(String url,
+                               Set<Pair<String, String>> headers,
+                               Set<Pair<String, String>> urlParameters,
+                               HttpListener listener) {
+        submit(new Http2Request(requestHeaders("OPTIONS", path(url, urlParameters), headers, null, null, null),
+                null, listener));
+    }
+
+    @Override
+    public void options(Set<Pair<String, String>> headers, HttpListener listener) {
+        submit(new Http2Request(requestHeaders("OPTIONS", "*", headers, null, null, null), null, listener));
+    }
+
+    /**
+     * Sends GOAWAY and closes the connection once its active requests are completed
+     */
+    public void close() {
+        Http2Session current = session.getAndSet(null);
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of requests being processed by the current connection
+     */
+    public int activeStreams() {
+        Http2Session current = session.get();
+        return current == null ? 0 : current.activeStreams();
+    }
+
+    /**
+     * is called by a session which doesn't accept new streams anymore
+     * @param endedSession    the session
+     * @param unsentRequests  requests which haven't been processed by the server
+     */
+    void sessionEnded(Http2Session endedSession, final List<Http2Request> unsentRequests) {
+        session.compareAndSet(endedSession, null);
+        if (unsentRequests.isEmpty()) {
+            return;
+        }
+
+        // the ended session holds its monitor, so requests are sent again from another thread
+        transport.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Http2Request request : unsentRequests) {
+                    submit(request);
+                }
+            }
+        });
+    }
+
+    private void submit(Http2Request request) {
+        while (true) {
+            Http2Session current = session.get();
+            if (current == null) {
+                Http2Session created = new Http2Session(this, transport);
+                if (!session.compareAndSet(null, created)) {
+                    continue;
+                }
+
+                created.submit(request);
+                created.start(address);
+                return;
+            }
+
+            if (current.submit(request)) {
+                return;
+            }
+            session.compareAndSet(current, null);
+        }
+    }
+
+    private void sendContent(String method, String url, Set<Pair<String, String>> additionalHeaders,
+                             Set<Pair<String, String>> urlParameters, String contentType, Charset contentCharset,
+                             byte[] content, HttpListener listener) {
+        submit(new Http2Request(requestHeaders(method, path(url, urlParameters), additionalHeaders,
+                content != null ? contentType : null, contentCharset, content), content, listener));
+    }
+
+    private List<Pair<String, String>> requestHeaders(String method, String path,
+                                                      Set<Pair<String, String>> additionalHeaders,
+                                                      String contentType, Charset contentCharset, byte[] content) {
+        return requestHeaders(method, path, additionalHeaders, contentType, contentCharset,
+                content == null ? -1 : content.length);
+    }
+
+    /**
+     * @param contentLength  a negative value if there is no content-length header
+     */
+    private List<Pair<String, String>> requestHeaders(String method, String path,
+                                                      Set<Pair<String, String>> additionalHeaders,
+                                                      String contentType, Charset contentCharset, long contentLength) {
+        List<Pair<String, String>> headers = new ArrayList<>();
+        headers.add(new Pair<>(":method", method));
+        headers.add(new Pair<>(":scheme", scheme));
+        headers.add(new Pair<>(":authority", authority));
+        headers.add(new Pair<>(":path", path));
+        addHeaders(headers, additionalHeaders);
+
+        if (contentType != null) {
+            headers.add(new Pair<>("content-type",
+                    contentType + (contentCharset == null ? "" : "; charset=" + contentCharset.name())));
+        }
+        if (contentLength >= 0) {
+            headers.add(new Pair<>("content-length", String.valueOf(contentLength)));
+        }
+
+        return headers;
+    }
+
+    private static void addHeaders(List<Pair<String, String>> headers, Set<Pair<String, String>> additionalHeaders) {
+        if (additionalHeaders == null) {
+            return;
+        }
+
+        for (Pair<String, String> header : additionalHeaders) {
+            // HTTP/2 field names are lowercase, connection-specific fields are prohibited
+            String name = header.getKey().trim().toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(name)) {
+                headers.add(new Pair<>(name, header.getValue()));
+            }
+        }
+    }
+
+    private static String path(String url, Set<Pair<String, String>> parameters) {
+        StringBuilder path = new StringBuilder();
+        if (!url.startsWith("/")) {
+            path.append("/");
+        }
+        path.append(url);
+
+        if (parameters != null && !parameters.isEmpty()) {
+            path.append("?").append(encodeParameters(parameters));
+        }
+
+        return path.toString();
+    }
+
+    private static String encodeParameters(Set<Pair<String, String>> parameters) {
+        StringBuilder encoded = new StringBuilder();
+
+        Iterator<Pair<String, String>> iterator = parameters.iterator();
+        while (iterator.hasNext()) {
+            Pair<String, String> parameter = iterator.next();
+            encoded.append(parameter.getKey()).append("=").append(parameter.getValue());
+
+            if (iterator.hasNext()) {
+                encoded.append("&");
+            }
+        }
+
+        return encoded.toString();
+    }
+}
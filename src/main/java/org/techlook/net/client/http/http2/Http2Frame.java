@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.codec.FrameDecoder;
+import org.techlook.net.client.codec.LengthFieldFrameDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/2 frame layout (RFC 7540, section 4.1): a 24-bit payload length, 8-bit type, 8-bit flags,
+ * a reserved bit and a 31-bit stream identifier followed by the payload
+ */
+final class Http2Frame {
+    static final int HEADER_LENGTH = 9;
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int DEFAULT_MAX_FRAME_SIZE = 0x4000;
+    static final int MAX_FRAME_SIZE_LIMIT = 0xffffff;
+    static final int DEFAULT_WINDOW_SIZE = 0xffff;
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    static final byte[] CONNECTION_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private Http2Frame() {
+    }
+
+    /**
+     * @param maxFrameSize  the maximum payload length announced by SETTINGS_MAX_FRAME_SIZE
+     * @return the decoder passing whole frames including their headers
+     */
+    static FrameDecoder decoder(int maxFrameSize) {
+        return new LengthFieldFrameDecoder(HEADER_LENGTH + maxFrameSize, 0, 3, 6, 0, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return the frame buffer positioned after the header, so the payload is put next
+     */
+    static ByteBuffer allocate(int type, int flags, int streamId, int payloadLength) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payloadLength);
+        frame.put((byte) (payloadLength >>> 16));
+        frame.put((byte) (payloadLength >>> 8));
+        frame.put((byte) payloadLength);
+        frame.put((byte) type);
+        frame.put((byte) flags);
+        frame.putInt(streamId & MAX_WINDOW_SIZE);
+
+        return frame;
+    }
+
+    static ByteBuffer settings(int... idValuePairs) {
+        ByteBuffer frame = allocate(SETTINGS, 0, 0, idValuePairs.length / 2 * 6);
+        for (int k = 0; k + 1 < idValuePairs.length; k += 2) {
+            frame.putShort((short) idValuePairs[k]);
+            frame.putInt(idValuePairs[k + 1]);
+        }
+        frame.flip();
+
+        return frame;
+    }
+
+    static ByteBuffer windowUpdate(int streamId, int increment) {
+        ByteBuffer frame = allocate(WINDOW_UPDATE, 0, streamId, 4);
+        frame.putInt(increment);
+        frame.flip();
+
+        return frame;
+    }
+
+    static ByteBuffer rstStream(int streamId, int errorCode) {
+        ByteBuffer frame = allocate(RST_STREAM, 0, streamId, 4);
+        frame.putInt(errorCode);
+        frame.flip();
+
+        return frame;
+    }
+
+    static ByteBuffer goAway(int lastStreamId, int errorCode) {
+        ByteBuffer frame = allocate(GOAWAY, 0, 0, 8);
+        frame.putInt(lastStreamId);
+        frame.putInt(errorCode);
+        frame.flip();
+
+        return frame;
+    }
+
+    static int payloadLength(ByteBuffer frame) {
+        return (frame.get(0) & 0xff) << 16 | (frame.get(1) & 0xff) << 8 | frame.get(2) & 0xff;
+    }
+
+    static int type(ByteBuffer frame) {
+        return frame.get(3) & 0xff;
+    }
+
+    static int flags(ByteBuffer frame) {
+        return frame.get(4) & 0xff;
+    }
+
+    static int streamId(ByteBuffer frame) {
+        return frame.getInt(5) & MAX_WINDOW_SIZE;
+    }
+
+    /**
+     * @return the payload without padding
+     * @throws Http2Exception if the padding is longer than the payload
+     */
+    static ByteBuffer payload(ByteBuffer frame) throws Http2Exception {
+        ByteBuffer payload = frame.duplicate();
+        payload.position(HEADER_LENGTH);
+        if ((flags(frame) & FLAG_PADDED) != 0 && (type(frame) == DATA || type(frame) == HEADERS)) {
+            if (!payload.hasRemaining()) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padded frame without padding length");
+            }
+            int paddingLength = payload.get() & 0xff;
+            if (paddingLength > payload.remaining()) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding exceeds the frame payload");
+            }
+            payload.limit(payload.limit() - paddingLength);
+        }
+
+        return payload.slice();
+    }
+}
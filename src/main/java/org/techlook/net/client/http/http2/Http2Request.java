@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.http.BodyPublisher;
+import org.techlook.net.client.http.Pair;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.util.List;
+
+/**
+ * A request waiting for its stream, it's kept until the server is known to process it,
+ * so a request refused by GOAWAY is sent again over a new connection
+ */
+class Http2Request {
+    final List<Pair<String, String>> headers;
+    final byte[] body;
+    final BodyPublisher publisher;
+    final HttpListener listener;
+
+    Http2Request(List<Pair<String, String>> headers, byte[] body, HttpListener listener) {
+        this(headers, body, null, listener);
+    }
+
+    /**
+     * @param publisher  source of a streamed body, it's used instead of the body
+     */
+    Http2Request(List<Pair<String, String>> headers, byte[] body, BodyPublisher publisher, HttpListener listener) {
+        this.headers = headers;
+        this.body = body;
+        this.publisher = publisher;
+        this.listener = listener;
+    }
+}
@@ -0,0 +1,938 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.Fault;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.codec.FrameDecoder;
+import org.techlook.net.client.codec.FrameListener;
+import org.techlook.net.client.http.BodyPublisher;
+import org.techlook.net.client.http.Pair;
+import org.techlook.net.client.http.PollTimer;
+import org.techlook.net.client.http.client.HttpListener;
+import org.techlook.net.client.ssl.HandshakeListener;
+import org.techlook.net.client.ssl.SSLOptions;
+import org.techlook.net.client.ssl.SSLSocketClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single HTTP/2 connection multiplexing streams of many requests. Frames are processed in the receiving thread,
+ * all the state is guarded by the session monitor. Listener callbacks are queued under the monitor and run in order
+ * by one thread at a time once it's released, so a listener may submit requests from its callbacks.
+ */
+class Http2Session implements HandshakeListener, FrameListener {
+    static final String APPLICATION_PROTOCOL = "h2";
+    static final String HTTP_VERSION = "HTTP/2";
+
+    /**
+     * Receive window of a stream announced by SETTINGS_INITIAL_WINDOW_SIZE
+     */
+    static final int STREAM_WINDOW_SIZE = 1 << 20;
+
+    /**
+     * Receive window of the whole connection
+     */
+    static final int CONNECTION_WINDOW_SIZE = 16 << 20;
+
+    /**
+     * A streamed request body is read by parts of this size, only the current part of a stream is held in memory
+     */
+    static final int BODY_PART_SIZE = 0x10000;
+
+    // the peer limit is unknown until its SETTINGS are received
+    private static final int INITIAL_MAX_CONCURRENT_STREAMS = 100;
+    private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+    private final Http2Connection owner;
+    private final SocketClient transport;
+    private final FrameDecoder frameDecoder = Http2Frame.decoder(Http2Frame.DEFAULT_MAX_FRAME_SIZE);
+    private final HpackEncoder hpackEncoder = new HpackEncoder();
+    private final HpackDecoder hpackDecoder = new HpackDecoder(HeaderTable.DEFAULT_SIZE);
+    private final Map<Integer, Http2Stream> streams = new HashMap<>();
+    private final Queue<Http2Request> waitingRequests = new ArrayDeque<>();
+    private final Queue<Runnable> events = new ArrayDeque<>();
+    private final AtomicBoolean isDispatching = new AtomicBoolean(false);
+    private int channelId = -1;
+    private int nextStreamId = 1;
+    private int maxConcurrentStreams = INITIAL_MAX_CONCURRENT_STREAMS;
+    private int initialSendWindow = Http2Frame.DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = Http2Frame.DEFAULT_MAX_FRAME_SIZE;
+    private int connectionSendWindow = Http2Frame.DEFAULT_WINDOW_SIZE;
+    private int connectionUnacknowledgedBytes;
+    private ByteArrayOutputStream headerBlock;
+    private int headerBlockStreamId;
+    private boolean headerBlockEndsStream;
+    private boolean isGoingAway;
+    private boolean isClosed;
+
+    Http2Session(Http2Connection owner, SocketClient transport) {
+        this.owner = owner;
+        this.transport = transport;
+    }
+
+    /**
+     * connects to the server and sends the connection preface, requests submitted before wait for it
+     * @param server  the remote host
+     */
+    void start(SocketAddress server) {
+        synchronized (this) {
+            try {
+                if (transport instanceof SSLSocketClient) {
+                    channelId = ((SSLSocketClient) transport).connect(server, this,
+                            new SSLOptions().applicationProtocols(APPLICATION_PROTOCOL));
+                } else {
+                    channelId = transport.connect(server, this);
+                }
+            } catch (IOException e) {
+                terminate(Fault.AsyncClientError.format(e.getMessage()));
+            }
+
+            if (!isClosed) {
+                send(ByteBuffer.wrap(Http2Frame.CONNECTION_PREFACE.clone()));
+                send(Http2Frame.settings(
+                        Http2Frame.SETTINGS_ENABLE_PUSH, 0,
+                        Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE));
+                send(Http2Frame.windowUpdate(0, CONNECTION_WINDOW_SIZE - Http2Frame.DEFAULT_WINDOW_SIZE));
+
+                startWaitingRequests();
+            }
+        }
+
+        dispatchEvents();
+    }
+
+    /**
+     * @return false if the session doesn't accept new streams anymore, so the request should be sent
+     * over a new connection
+     */
+    boolean submit(Http2Request request) {
+        synchronized (this) {
+            if (!isAcceptingStreams()) {
+                return false;
+            }
+
+            if (channelId < 0 || streams.size() >= maxConcurrentStreams || !waitingRequests.isEmpty()) {
+                waitingRequests.add(request);
+            } else {
+                openStream(request);
+            }
+        }
+
+        dispatchEvents();
+        return true;
+    }
+
+    /**
+     * sends GOAWAY, the connection is closed once the active streams are completed,
+     * requests which haven't been sent yet fail
+     */
+    void shutdown() {
+        synchronized (this) {
+            if (isClosed || isGoingAway) {
+                return;
+            }
+
+            isGoingAway = true;
+            send(Http2Frame.goAway(0, Http2Exception.NO_ERROR));
+            List<Http2Request> unsentRequests = new ArrayList<>(waitingRequests);
+            waitingRequests.clear();
+            for (Http2Request request : unsentRequests) {
+                closePublisher(request);
+                notifyFailure(request.listener, Fault.Http2ConnectionIsClosed.getDescription());
+            }
+            closeIfDrained();
+        }
+
+        dispatchEvents();
+    }
+
+    synchronized int activeStreams() {
+        return streams.size();
+    }
+
+    @Override
+    public void handshakeCompleted(String applicationProtocol) {
+        synchronized (this) {
+            if (!APPLICATION_PROTOCOL.equals(applicationProtocol)) {
+                terminate(Fault.Http2IsNotNegotiated.format(applicationProtocol));
+            }
+        }
+
+        dispatchEvents();
+    }
+
+    @Override
+    public void chunkIsReceived(byte[] chunk) {
+        synchronized (this) {
+            if (!isClosed) {
+                // a corrupted stream is reported to channelError
+                frameDecoder.decode(chunk, this);
+            }
+        }
+
+        dispatchEvents();
+    }
+
+    @Override
+    public void frameIsReceived(ByteBuffer frame) {
+        synchronized (this) {
+            if (!isClosed) {
+                try {
+                    processFrame(frame);
+                } catch (Http2Exception e) {
+                    send(Http2Frame.goAway(0, e.getErrorCode()));
+                    terminate(Fault.Http2ConnectionError.format(e.getErrorCode(), e.getMessage()));
+                }
+            }
+        }
+
+        dispatchEvents();
+    }
+
+    @Override
+    public void channelError(String message) {
+        synchronized (this) {
+            terminate(message);
+        }
+
+        dispatchEvents();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            terminate(Fault.Http2ConnectionIsClosed.getDescription());
+        }
+
+        dispatchEvents();
+    }
+
+    private boolean isAcceptingStreams() {
+        return !isClosed && !isGoingAway && nextStreamId < MAX_STREAM_ID;
+    }
+
+    private void processFrame(ByteBuffer frame) throws Http2Exception {
+        int type = Http2Frame.type(frame);
+        if (headerBlock != null && type != Http2Frame.CONTINUATION) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "CONTINUATION frame is expected");
+        }
+
+        switch (type) {
+            case Http2Frame.DATA:
+                processData(frame);
+                break;
+            case Http2Frame.HEADERS:
+                processHeaders(frame);
+                break;
+            case Http2Frame.RST_STREAM:
+                processResetStream(frame);
+                break;
+            case Http2Frame.SETTINGS:
+                processSettings(frame);
+                break;
+            case Http2Frame.PUSH_PROMISE:
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Server push is disabled");
+            case Http2Frame.PING:
+                processPing(frame);
+                break;
+            case Http2Frame.GOAWAY:
+                processGoAway(frame);
+                break;
+            case Http2Frame.WINDOW_UPDATE:
+                processWindowUpdate(frame);
+                break;
+            case Http2Frame.CONTINUATION:
+                processContinuation(frame);
+                break;
+            default:
+                // PRIORITY and unknown frames are ignored
+        }
+    }
+
+    private void processData(ByteBuffer frame) throws Http2Exception {
+        int streamId = requireStreamId(frame);
+        int length = Http2Frame.payloadLength(frame);
+
+        // the padding is counted by flow control too
+        connectionUnacknowledgedBytes += length;
+        if (connectionUnacknowledgedBytes >= CONNECTION_WINDOW_SIZE / 2) {
+            send(Http2Frame.windowUpdate(0, connectionUnacknowledgedBytes));
+            connectionUnacknowledgedBytes = 0;
+        }
+
+        ByteBuffer data = Http2Frame.payload(frame);
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        if (!stream.isResponseStarted) {
+            resetStream(stream, Http2Exception.PROTOCOL_ERROR);
+            return;
+        }
+
+        if (data.hasRemaining()) {
+            byte[] chunk = new byte[data.remaining()];
+            data.get(chunk);
+            notifyChunk(stream.request.listener, chunk);
+        }
+
+        if ((Http2Frame.flags(frame) & Http2Frame.FLAG_END_STREAM) != 0) {
+            completeStream(stream);
+            return;
+        }
+
+        stream.unacknowledgedBytes += length;
+        if (stream.unacknowledgedBytes >= STREAM_WINDOW_SIZE / 2) {
+            send(Http2Frame.windowUpdate(streamId, stream.unacknowledgedBytes));
+            stream.unacknowledgedBytes = 0;
+        }
+    }
+
+    private void processHeaders(ByteBuffer frame) throws Http2Exception {
+        int streamId = requireStreamId(frame);
+        int flags = Http2Frame.flags(frame);
+        ByteBuffer fragment = Http2Frame.payload(frame);
+        if ((flags & Http2Frame.FLAG_PRIORITY) != 0) {
+            if (fragment.remaining() < 5) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "HEADERS frame is too short");
+            }
+            fragment.position(fragment.position() + 5);
+        }
+
+        headerBlock = new ByteArrayOutputStream(fragment.remaining());
+        headerBlockStreamId = streamId;
+        headerBlockEndsStream = (flags & Http2Frame.FLAG_END_STREAM) != 0;
+        appendHeaderFragment(fragment, flags);
+    }
+
+    private void processContinuation(ByteBuffer frame) throws Http2Exception {
+        if (headerBlock == null || Http2Frame.streamId(frame) != headerBlockStreamId) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION frame");
+        }
+
+        appendHeaderFragment(Http2Frame.payload(frame), Http2Frame.flags(frame));
+    }
+
+    private void appendHeaderFragment(ByteBuffer fragment, int flags) throws Http2Exception {
+        headerBlock.write(fragment.array(), fragment.arrayOffset() + fragment.position(), fragment.remaining());
+        if ((flags & Http2Frame.FLAG_END_HEADERS) == 0) {
+            return;
+        }
+
+        // the block is decoded even for a closed stream to keep the dynamic table in sync
+        List<Pair<String, String>> headers = hpackDecoder.decode(ByteBuffer.wrap(headerBlock.toByteArray()));
+        headerBlock = null;
+
+        Http2Stream stream = streams.get(headerBlockStreamId);
+        if (stream == null) {
+            return;
+        }
+
+        if (!stream.isResponseStarted) {
+            String status = null;
+            Map<String, String> fields = new TreeMap<>();
+            for (Pair<String, String> header : headers) {
+                String name = header.getKey();
+                if (name.equals(":status")) {
+                    status = header.getValue();
+                } else if (!name.startsWith(":")) {
+                    String value = fields.get(name);
+                    fields.put(name, value == null ? header.getValue() : value + ", " + header.getValue());
+                }
+            }
+
+            int code;
+            try {
+                code = Integer.parseInt(status);
+            } catch (NumberFormatException e) {
+                resetStream(stream, Http2Exception.PROTOCOL_ERROR);
+                return;
+            }
+            if (code / 100 == 1) {
+                // an interim response is followed by the final one
+                return;
+            }
+
+            stream.isResponseStarted = true;
+            notifyResponse(stream.request.listener, code, fields);
+        }
+
+        // trailers aren't passed to the listener
+        if (headerBlockEndsStream) {
+            completeStream(stream);
+        }
+    }
+
+    private void processResetStream(ByteBuffer frame) throws Http2Exception {
+        int streamId = requireStreamId(frame);
+        requirePayloadLength(frame, 4);
+
+        Http2Stream stream = streams.remove(streamId);
+        if (stream == null) {
+            return;
+        }
+
+        int errorCode = frame.getInt(Http2Frame.HEADER_LENGTH);
+        if (errorCode == Http2Exception.REFUSED_STREAM && stream.canBeRetried()) {
+            // the server hasn't processed the request, so it's safe to send it again
+            waitingRequests.add(stream.request);
+        } else {
+            releaseBody(stream);
+            notifyFailure(stream.request.listener, Fault.Http2StreamIsReset.format(errorCode));
+        }
+        startWaitingRequests();
+    }
+
+    private void processSettings(ByteBuffer frame) throws Http2Exception {
+        if (Http2Frame.streamId(frame) != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS frame of a stream");
+        }
+
+        int length = Http2Frame.payloadLength(frame);
+        if ((Http2Frame.flags(frame) & Http2Frame.FLAG_ACK) != 0) {
+            if (length != 0) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with payload");
+            }
+            return;
+        }
+        if (length % 6 != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Bad SETTINGS frame length: " + length);
+        }
+
+        for (int offset = Http2Frame.HEADER_LENGTH; offset < Http2Frame.HEADER_LENGTH + length; offset += 6) {
+            int identifier = frame.getShort(offset) & 0xffff;
+            int value = frame.getInt(offset + 2);
+            applySetting(identifier, value);
+        }
+
+        ByteBuffer acknowledgement = Http2Frame.allocate(Http2Frame.SETTINGS, Http2Frame.FLAG_ACK, 0, 0);
+        acknowledgement.flip();
+        send(acknowledgement);
+
+        flushAllStreams();
+        startWaitingRequests();
+    }
+
+    private void applySetting(int identifier, int value) throws Http2Exception {
+        switch (identifier) {
+            case Http2Frame.SETTINGS_HEADER_TABLE_SIZE:
+                hpackEncoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                break;
+            case Http2Frame.SETTINGS_ENABLE_PUSH:
+                if (value != 0 && value != 1) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad SETTINGS_ENABLE_PUSH: " + value);
+                }
+                break;
+            case Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS:
+                maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                break;
+            case Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE:
+                if (value < 0) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Initial window is too large");
+                }
+                int delta = value - initialSendWindow;
+                for (Http2Stream stream : streams.values()) {
+                    stream.sendWindow = addToWindow(stream.sendWindow, delta);
+                }
+                initialSendWindow = value;
+                break;
+            case Http2Frame.SETTINGS_MAX_FRAME_SIZE:
+                if (value < Http2Frame.DEFAULT_MAX_FRAME_SIZE || value > Http2Frame.MAX_FRAME_SIZE_LIMIT) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad SETTINGS_MAX_FRAME_SIZE: " + value);
+                }
+                maxFrameSize = value;
+                break;
+            default:
+                // unknown settings are ignored
+        }
+    }
+
+    private void processPing(ByteBuffer frame) throws Http2Exception {
+        if (Http2Frame.streamId(frame) != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PING frame of a stream");
+        }
+        requirePayloadLength(frame, 8);
+
+        if ((Http2Frame.flags(frame) & Http2Frame.FLAG_ACK) == 0) {
+            ByteBuffer pong = Http2Frame.allocate(Http2Frame.PING, Http2Frame.FLAG_ACK, 0, 8);
+            pong.putLong(frame.getLong(Http2Frame.HEADER_LENGTH));
+            pong.flip();
+            send(pong);
+        }
+    }
+
+    private void processGoAway(ByteBuffer frame) throws Http2Exception {
+        if (Http2Frame.streamId(frame) != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "GOAWAY frame of a stream");
+        }
+        if (Http2Frame.payloadLength(frame) < 8) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "GOAWAY frame is too short");
+        }
+
+        int lastStreamId = frame.getInt(Http2Frame.HEADER_LENGTH) & Http2Frame.MAX_WINDOW_SIZE;
+        isGoingAway = true;
+
+        // streams above the last one haven't been processed by the server, they are retried over a new connection
+        List<Http2Stream> unprocessedStreams = new ArrayList<>();
+        Iterator<Http2Stream> iterator = streams.values().iterator();
+        while (iterator.hasNext()) {
+            Http2Stream stream = iterator.next();
+            if (stream.id > lastStreamId) {
+                iterator.remove();
+                unprocessedStreams.add(stream);
+            }
+        }
+        Collections.sort(unprocessedStreams, new Comparator<Http2Stream>() {
+            @Override
+            public int compare(Http2Stream first, Http2Stream second) {
+                return Integer.compare(first.id, second.id);
+            }
+        });
+
+        List<Http2Request> unsentRequests = new ArrayList<>();
+        List<Http2Request> failedRequests = new ArrayList<>();
+        for (Http2Stream stream : unprocessedStreams) {
+            if (stream.canBeRetried()) {
+                unsentRequests.add(stream.request);
+            } else {
+                // a streamed body cannot be read again
+                releaseBody(stream);
+                failedRequests.add(stream.request);
+            }
+        }
+        unsentRequests.addAll(waitingRequests);
+        waitingRequests.clear();
+
+        owner.sessionEnded(this, unsentRequests);
+        for (Http2Request request : failedRequests) {
+            notifyFailure(request.listener, Fault.Http2ConnectionIsClosed.getDescription());
+        }
+        closeIfDrained();
+    }
+
+    private void processWindowUpdate(ByteBuffer frame) throws Http2Exception {
+        requirePayloadLength(frame, 4);
+        int streamId = Http2Frame.streamId(frame);
+        int increment = frame.getInt(Http2Frame.HEADER_LENGTH) & Http2Frame.MAX_WINDOW_SIZE;
+
+        if (streamId == 0) {
+            if (increment == 0) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Zero window increment");
+            }
+            connectionSendWindow = addToWindow(connectionSendWindow, increment);
+            flushAllStreams();
+            return;
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        if (increment == 0 || (long) stream.sendWindow + increment > Http2Frame.MAX_WINDOW_SIZE) {
+            resetStream(stream, increment == 0 ? Http2Exception.PROTOCOL_ERROR : Http2Exception.FLOW_CONTROL_ERROR);
+            return;
+        }
+        stream.sendWindow += increment;
+        flushData(stream);
+    }
+
+    private void openStream(Http2Request request) {
+        int streamId = nextStreamId;
+        nextStreamId += 2;
+
+        Http2Stream stream = new Http2Stream(streamId, request, initialSendWindow);
+        streams.put(streamId, stream);
+        writeHeaders(streamId, hpackEncoder.encode(request.headers), !stream.hasPendingData());
+        flushData(stream);
+    }
+
+    private void writeHeaders(int streamId, byte[] block, boolean endsStream) {
+        int offset = 0;
+        do {
+            int length = Math.min(block.length - offset, maxFrameSize);
+            boolean isLast = offset + length == block.length;
+            int flags = isLast ? Http2Frame.FLAG_END_HEADERS : 0;
+            int type = Http2Frame.CONTINUATION;
+            if (offset == 0) {
+                type = Http2Frame.HEADERS;
+                flags |= endsStream ? Http2Frame.FLAG_END_STREAM : 0;
+            }
+
+            ByteBuffer frame = Http2Frame.allocate(type, flags, streamId, length);
+            frame.put(block, offset, length);
+            frame.flip();
+            send(frame);
+            offset += length;
+        } while (offset < block.length);
+    }
+
+    /**
+     * sends the request body as far as flow control windows allow,
+     * the next part of a streamed body is read once the current one is sent
+     */
+    private void flushData(Http2Stream stream) {
+        while (stream.hasPendingData()) {
+            ByteBuffer data = stream.pendingData;
+            if (!data.hasRemaining() && !stream.isBodyEnded) {
+                readBody(stream);
+                return;
+            }
+
+            int length = Math.min(Math.min(data.remaining(), maxFrameSize),
+                    Math.min(stream.sendWindow, connectionSendWindow));
+            if (length <= 0 && data.hasRemaining()) {
+                return;
+            }
+
+            boolean isLast = length == data.remaining() && stream.isBodyEnded;
+            ByteBuffer frame = Http2Frame.allocate(Http2Frame.DATA,
+                    isLast ? Http2Frame.FLAG_END_STREAM : 0, stream.id, length);
+            ByteBuffer part = data.duplicate();
+            part.limit(part.position() + length);
+            frame.put(part);
+            frame.flip();
+            send(frame);
+
+            data.position(data.position() + length);
+            stream.sendWindow -= length;
+            connectionSendWindow -= length;
+            if (isLast) {
+                stream.pendingData = null;
+            }
+        }
+    }
+
+    /**
+     * reads the next part of a streamed body by a pool thread, the read may block
+     */
+    private void readBody(Http2Stream stream) {
+        if (!stream.isReadingBody) {
+            stream.isReadingBody = true;
+            transport.getThreadPool().execute(bodyReader(stream));
+        }
+    }
+
+    private Runnable bodyReader(final Http2Stream stream) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer part = ByteBuffer.allocate(BODY_PART_SIZE);
+                try {
+                    int read = stream.request.publisher.read(part);
+                    part.flip();
+                    bodyPartRead(stream, read < 0 ? null : part, null);
+                } catch (IOException e) {
+                    bodyPartRead(stream, null, Fault.RequestBodyReadError.format(e.getMessage()));
+                }
+            }
+        };
+    }
+
+    /**
+     * @param part     the read part or null if the body has ended
+     * @param failure  a read error
+     */
+    private void bodyPartRead(Http2Stream stream, ByteBuffer part, String failure) {
+        synchronized (this) {
+            processBodyPart(stream, part, failure);
+        }
+
+        dispatchEvents();
+    }
+
+    private void processBodyPart(final Http2Stream stream, ByteBuffer part, String failure) {
+        stream.isReadingBody = false;
+        if (streams.get(stream.id) != stream) {
+            // the stream has been completed or reset meanwhile
+            closePublisher(stream.request);
+            return;
+        }
+
+        long length = stream.request.publisher.contentLength();
+        if (failure == null && part != null) {
+            stream.readBodySize += part.remaining();
+            if (length >= 0 && stream.readBodySize > length) {
+                failure = lengthMismatch(stream.readBodySize, length);
+            }
+        } else if (failure == null && length >= 0 && stream.readBodySize != length) {
+            failure = lengthMismatch(stream.readBodySize, length);
+        }
+        if (failure != null) {
+            resetStream(stream, Http2Exception.CANCEL, failure);
+            return;
+        }
+
+        if (part == null) {
+            stream.isBodyEnded = true;
+            closePublisher(stream.request);
+        } else if (!part.hasRemaining()) {
+            // a non-blocking source has nothing for now, it's polled again after a delay
+            long delay = stream.pollDelay;
+            stream.pollDelay = PollTimer.nextDelay(delay);
+            stream.isReadingBody = true;
+            PollTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    transport.getThreadPool().execute(bodyReader(stream));
+                }
+            }, delay);
+            return;
+        } else {
+            stream.pollDelay = PollTimer.MIN_DELAY_MILLIS;
+            stream.pendingData = part;
+        }
+        flushData(stream);
+    }
+
+    /**
+     * closes the publisher of a removed stream, a publisher being read is closed once the read is over
+     */
+    private static void releaseBody(Http2Stream stream) {
+        stream.pendingData = null;
+        if (!stream.isBodyEnded && !stream.isReadingBody) {
+            closePublisher(stream.request);
+        }
+    }
+
+    private static void closePublisher(Http2Request request) {
+        BodyPublisher publisher = request.publisher;
+        if (publisher == null) {
+            return;
+        }
+
+        try {
+            publisher.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String lengthMismatch(long size, long length) {
+        return Fault.RequestBodyReadError.format(size > length
+                ? String.format("the body is longer than its length %d", length)
+                : String.format("the body has ended after %d of %d bytes", size, length));
+    }
+
+    private void flushAllStreams() {
+        for (Http2Stream stream : new ArrayList<>(streams.values())) {
+            if (connectionSendWindow <= 0) {
+                return;
+            }
+            flushData(stream);
+        }
+    }
+
+    private void startWaitingRequests() {
+        while (channelId >= 0 && isAcceptingStreams()
+                && streams.size() < maxConcurrentStreams && !waitingRequests.isEmpty()) {
+            openStream(waitingRequests.poll());
+        }
+    }
+
+    private void completeStream(Http2Stream stream) {
+        streams.remove(stream.id);
+        releaseBody(stream);
+        notifyComplete(stream.request.listener);
+        startWaitingRequests();
+        closeIfDrained();
+    }
+
+    private void resetStream(Http2Stream stream, int errorCode) {
+        resetStream(stream, errorCode, Fault.Http2StreamIsReset.format(errorCode));
+    }
+
+    private void resetStream(Http2Stream stream, int errorCode, String message) {
+        send(Http2Frame.rstStream(stream.id, errorCode));
+        streams.remove(stream.id);
+        releaseBody(stream);
+        notifyFailure(stream.request.listener, message);
+        startWaitingRequests();
+        closeIfDrained();
+    }
+
+    private void closeIfDrained() {
+        if (isGoingAway && streams.isEmpty()) {
+            terminate(Fault.Http2ConnectionIsClosed.getDescription());
+        }
+    }
+
+    /**
+     * fails all the requests of the session and closes the connection
+     */
+    private void terminate(String message) {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+
+        List<Http2Request> failedRequests = new ArrayList<>();
+        for (Http2Stream stream : streams.values()) {
+            releaseBody(stream);
+            failedRequests.add(stream.request);
+        }
+        for (Http2Request request : waitingRequests) {
+            closePublisher(request);
+            failedRequests.add(request);
+        }
+        streams.clear();
+        waitingRequests.clear();
+
+        closeTransport();
+        owner.sessionEnded(this, Collections.<Http2Request>emptyList());
+        for (Http2Request request : failedRequests) {
+            notifyFailure(request.listener, message);
+        }
+    }
+
+    private void notifyResponse(final HttpListener listener, final int code, final Map<String, String> fields) {
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                listener.responseCode(code, HTTP_VERSION, "");
+                listener.respondHeaders(fields);
+            }
+        });
+    }
+
+    private void notifyChunk(final HttpListener listener, final byte[] chunk) {
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                listener.respond(chunk);
+            }
+        });
+    }
+
+    private void notifyComplete(final HttpListener listener) {
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                listener.complete();
+            }
+        });
+    }
+
+    private void notifyFailure(final HttpListener listener, final String message) {
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                listener.failure(message);
+            }
+        });
+    }
+
+    /**
+     * Runs the queued listener callbacks out of the monitor. Only one thread dispatches at a time, so callbacks
+     * keep their order, other threads just leave their callbacks to it. A call nested in the monitor leaves them
+     * to the outermost one.
+     */
+    private void dispatchEvents() {
+        if (Thread.holdsLock(this)) {
+            return;
+        }
+
+        while (isDispatching.compareAndSet(false, true)) {
+            try {
+                Runnable event;
+                while ((event = nextEvent()) != null) {
+                    event.run();
+                }
+            } finally {
+                isDispatching.set(false);
+            }
+
+            if (!hasEvents()) {
+                return;
+            }
+        }
+    }
+
+    private synchronized Runnable nextEvent() {
+        return events.poll();
+    }
+
+    private synchronized boolean hasEvents() {
+        return !events.isEmpty();
+    }
+
+    private void closeTransport() {
+        final int closedChannelId = channelId;
+        if (closedChannelId < 0) {
+            return;
+        }
+
+        // a channel cannot be closed synchronously within its own receiving routine
+        transport.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                transport.close(closedChannelId);
+            }
+        });
+    }
+
+    private void send(ByteBuffer frame) {
+        if (channelId >= 0) {
+            transport.send(frame, channelId);
+        }
+    }
+
+    private static int requireStreamId(ByteBuffer frame) throws Http2Exception {
+        int streamId = Http2Frame.streamId(frame);
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR,
+                    "Frame type " + Http2Frame.type(frame) + " requires a stream");
+        }
+        return streamId;
+    }
+
+    private static void requirePayloadLength(ByteBuffer frame, int length) throws Http2Exception {
+        if (Http2Frame.payloadLength(frame) != length) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR,
+                    "Frame type " + Http2Frame.type(frame) + " has a bad length");
+        }
+    }
+
+    private static int addToWindow(int window, int increment) throws Http2Exception {
+        long result = (long) window + increment;
+        if (result > Http2Frame.MAX_WINDOW_SIZE) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Flow control window overflow");
+        }
+        return (int) result;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.techlook.net.client.http.PollTimer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * State of a client-initiated stream, it's guarded by the session
+ */
+class Http2Stream {
+    final int id;
+    final Http2Request request;
+    ByteBuffer pendingData;
+    int sendWindow;
+    int unacknowledgedBytes;
+    boolean isResponseStarted;
+    // a streamed body is read part by part, pendingData holds the current part
+    boolean isBodyEnded;
+    boolean isReadingBody;
+    long readBodySize;
+    long pollDelay = PollTimer.MIN_DELAY_MILLIS;
+
+    Http2Stream(int id, Http2Request request, int sendWindow) {
+        this.id = id;
+        this.request = request;
+        this.sendWindow = sendWindow;
+        if (request.publisher != null) {
+            pendingData = ByteBuffer.allocate(0);
+        } else {
+            isBodyEnded = true;
+            if (request.body != null) {
+                pendingData = ByteBuffer.wrap(request.body);
+            }
+        }
+    }
+
+    boolean hasPendingData() {
+        return pendingData != null;
+    }
+
+    /**
+     * @return false if a part of the streamed body has been read already, so the request cannot be sent again
+     */
+    boolean canBeRetried() {
+        return request.publisher == null || readBodySize == 0 && !isReadingBody;
+    }
+}
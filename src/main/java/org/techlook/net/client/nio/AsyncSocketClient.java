@@ -24,6 +24,7 @@
 
 package org.techlook.net.client.nio;
 
+import org.techlook.net.client.BackpressuredListener;
 import org.techlook.net.client.ChannelListener;
 import org.techlook.net.client.Fault;
 import org.techlook.net.client.ResultedCompletion;
@@ -31,6 +32,7 @@ import org.techlook.net.client.SocketClient;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
@@ -48,7 +50,9 @@ public class AsyncSocketClient implements SocketClient {
     public final ForkJoinPool threadPool = new ForkJoinPool(PARALLELISM_LEVEL);
 
     private final Selector selector;
+    private final BandwidthScheduler scheduler;
     private final ConcurrentMap<Integer, ChannelBundle> channels = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<ChannelBundle> pendingChannels = new ConcurrentLinkedQueue<>();
     private final AtomicBoolean isRunning = new AtomicBoolean(true);
     private final ResultedCompletion<Void> completion = new ResultedCompletion<>();
 
@@ -56,12 +60,40 @@ public class AsyncSocketClient implements SocketClient {
     private volatile Future<?> await;
     private volatile boolean dispatched = false;
 
-    private AsyncSocketClient(Selector selector) {
+    private AsyncSocketClient(Selector selector, BandwidthScheduler scheduler) {
         this.selector = selector;
+        this.scheduler = scheduler;
     }
 
     public static AsyncSocketClient run() throws IOException {
-        return new AsyncSocketClient(Selector.open());
+        return new AsyncSocketClient(Selector.open(), null);
+    }
+
+    /**
+     * Client which outgoing traffic is shaped by the scheduler
+     * @param scheduler  bandwidth scheduler
+     * @return client instance
+     * @throws IOException if a selector cannot be opened
+     */
+    public static AsyncSocketClient run(BandwidthScheduler scheduler) throws IOException {
+        return new AsyncSocketClient(Selector.open(), scheduler);
+    }
+
+    /**
+     * Assigns a host group and a weight to the channel, by default a channel has weight 1 and belongs to no group
+     * @param channelId  the connection ID that is assigned when connecting
+     * @param group      host group which limit has been set by the scheduler, or null
+     * @param weight     relative share of the channel bandwidth
+     */
+    public void shape(int channelId, String group, int weight) {
+        if (scheduler == null) {
+            throw new IllegalStateException("The client has been run without a bandwidth scheduler");
+        }
+
+        ChannelBundle channelBundle = channels.get(channelId);
+        if (channelBundle != null) {
+            channelBundle.shape(scheduler.share(group, weight));
+        }
     }
 
     public ResultedCompletion<Void> completion() {
@@ -86,6 +118,12 @@ public class AsyncSocketClient implements SocketClient {
                 sequenceNumber,
                 this,
                 readBufferSize);
+        if (scheduler != null) {
+            channelBundle.shape(scheduler.share(null, 1));
+        }
+        if (listener instanceof BackpressuredListener) {
+            ((BackpressuredListener) listener).setDrainCallback(drainCallback(channelBundle));
+        }
 
         selector.wakeup();
         transportChannel.createAndConnect(selector, channelBundle, server);
@@ -111,6 +149,17 @@ public class AsyncSocketClient implements SocketClient {
         return true;
     }
 
+    @Override
+    public synchronized boolean send(ByteBuffer data, Integer channelId) {
+        ChannelBundle channelBundle = channels.get(channelId);
+        if (channelBundle == null) {
+            return false;
+        }
+
+        channelBundle.appendToWrite(data);
+        return true;
+    }
+
     @Override
     public void shutdown() {
         isRunning.set(false);
@@ -120,7 +169,14 @@ public class AsyncSocketClient implements SocketClient {
 
     @Override
     public synchronized void close(int channel) {
-        channels.remove(channel).close();
+        ChannelBundle channelBundle = channels.remove(channel);
+        if (channelBundle == null) {
+            // the channel has already been closed, e.g. by the remote host
+            return;
+        }
+
+        channelBundle.close();
+        pendingChannels.add(channelBundle);
         selector.wakeup();
     }
 
@@ -136,6 +192,31 @@ public class AsyncSocketClient implements SocketClient {
         return threadPool;
     }
 
+    /**
+     * interest operations of a channel are changed by the selector thread only,
+     * so resuming of a drained channel as well as closing of a channel is passed to it
+     */
+    private Runnable drainCallback(final ChannelBundle channelBundle) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                pendingChannels.add(channelBundle);
+                selector.wakeup();
+            }
+        };
+    }
+
+    private void processPendingChannels() {
+        ChannelBundle channelBundle;
+        while ((channelBundle = pendingChannels.poll()) != null) {
+            if (channelBundle.isClosing()) {
+                channelBundle.closeIfRequested();
+            } else {
+                channelBundle.resumeReading();
+            }
+        }
+    }
+
     private void dispatch() {
         Runnable scanning = new Runnable() {
             @Override
@@ -151,6 +232,11 @@ public class AsyncSocketClient implements SocketClient {
                             return;
                         }
 
+                        if (scheduler != null) {
+                            scheduler.releaseParked();
+                        }
+                        processPendingChannels();
+
                         if (numberOfChannelsReady <= 0) {
                             continue;
                         }
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.nio;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shapes outgoing traffic of all channels of a client.
+ *
+ * The aggregate throughput of the client and the throughput of each host group are capped by token buckets.
+ * A channel that runs out of tokens is parked: its data stays queued and it isn't selected for writing until
+ * the buckets are refilled, so the other channels aren't blocked by it.
+ *
+ * Channels are served by a weighted round-robin: a channel writes at most weight * {@link #QUANTUM} bytes per
+ * a selector round. Chunks are written partially, so the unused quantum is never carried over to the next round.
+ * Datagrams are never split, they are sent only if the buckets contain enough tokens.
+ */
+public class BandwidthScheduler {
+    /**
+     * the number of bytes a channel of weight 1 writes per a selector round
+     */
+    public static final int QUANTUM = 0x4000;
+
+    private final TokenBucket aggregate;
+    private final ConcurrentMap<String, TokenBucket> groups = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<ChannelBundle> parked = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Scheduler without an aggregate limit, only host groups are capped
+     */
+    public BandwidthScheduler() {
+        this.aggregate = null;
+    }
+
+    /**
+     * @param bytesPerSecond  aggregate throughput limit of the client
+     * @param burstSize       the maximum number of bytes sent at once by all channels after an idle period
+     */
+    public BandwidthScheduler(long bytesPerSecond, long burstSize) {
+        this.aggregate = new TokenBucket(bytesPerSecond, burstSize);
+    }
+
+    /**
+     * Caps the aggregate throughput of all channels belonging to the host group
+     * @param group           host group name
+     * @param bytesPerSecond  throughput limit of the group
+     * @param burstSize       the maximum number of bytes sent at once by the group after an idle period
+     */
+    public void limitGroup(String group, long bytesPerSecond, long burstSize) {
+        groups.put(group, new TokenBucket(bytesPerSecond, burstSize));
+    }
+
+    Share share(String group, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight should be positive: " + weight);
+        }
+
+        TokenBucket groupBucket = null;
+        if (group != null) {
+            groupBucket = groups.get(group);
+            if (groupBucket == null) {
+                throw new IllegalArgumentException("Unknown host group: " + group);
+            }
+        }
+
+        return new Share(groupBucket, weight);
+    }
+
+    /**
+     * Resumes writing of the parked channels which buckets have been refilled, it's called by the selector loop
+     */
+    void releaseParked() {
+        for (int count = parked.size(); count > 0; --count) {
+            ChannelBundle bundle = parked.poll();
+            if (bundle == null) {
+                return;
+            }
+
+            if (bundle.isClosing()) {
+                continue;
+            }
+
+            if (bundle.share().hasTokens()) {
+                bundle.resumeWriting();
+            } else {
+                parked.add(bundle);
+            }
+        }
+    }
+
+    /**
+     * Bandwidth share of a single channel
+     */
+    final class Share {
+        private final TokenBucket group;
+        private final long quantum;
+        private final AtomicBoolean isParked = new AtomicBoolean(false);
+        private long turnBudget;
+
+        private Share(TokenBucket group, int weight) {
+            this.group = group;
+            this.quantum = (long) weight * QUANTUM;
+        }
+
+        void beginTurn() {
+            turnBudget = quantum;
+        }
+
+        int acquire(int wanted, boolean whole) {
+            if (turnBudget <= 0) {
+                return 0;
+            }
+
+            if (whole) {
+                if (group != null && !group.takeWhole(wanted)) {
+                    return 0;
+                }
+                if (aggregate != null && !aggregate.takeWhole(wanted)) {
+                    if (group != null) {
+                        group.refund(wanted);
+                    }
+                    return 0;
+                }
+
+                turnBudget -= wanted;
+                return wanted;
+            }
+
+            long granted = Math.min(wanted, turnBudget);
+            if (group != null) {
+                granted = group.take(granted);
+            }
+            if (granted > 0 && aggregate != null) {
+                long aggregateGranted = aggregate.take(granted);
+                if (group != null) {
+                    group.refund(granted - aggregateGranted);
+                }
+                granted = aggregateGranted;
+            }
+
+            turnBudget -= granted;
+            return (int) granted;
+        }
+
+        void refund(int unused) {
+            if (unused <= 0) {
+                return;
+            }
+
+            if (group != null) {
+                group.refund(unused);
+            }
+            if (aggregate != null) {
+                aggregate.refund(unused);
+            }
+            turnBudget += unused;
+        }
+
+        boolean hasTokens() {
+            return (group == null || group.hasTokens()) && (aggregate == null || aggregate.hasTokens());
+        }
+
+        boolean isParked() {
+            return isParked.get();
+        }
+
+        void park(ChannelBundle bundle) {
+            if (isParked.compareAndSet(false, true)) {
+                parked.add(bundle);
+            }
+        }
+
+        void unpark() {
+            isParked.set(false);
+        }
+    }
+}
@@ -24,7 +24,11 @@
 
 package org.techlook.net.client.nio;
 
+import org.techlook.net.client.BackpressuredListener;
+import org.techlook.net.client.ByteBufferListener;
 import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.ConnectionAwareListener;
+import org.techlook.net.client.DrainAwareListener;
 import org.techlook.net.client.Fault;
 import org.techlook.net.client.SocketClient;
 
@@ -35,6 +39,8 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChannelBundle {
+    private static final int HANDOVER_FILL_RATIO = 4;
+
     private final TransportChannel transport;
     private final ChannelListener listener;
     private final Integer channelId;
@@ -45,6 +51,8 @@ public class ChannelBundle {
     private final ConcurrentLinkedQueue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
     private volatile SelectionKey selectionKey;
     private volatile ByteBuffer writtenResidueBuffer;
+    private volatile BandwidthScheduler.Share share;
+    private volatile boolean isReadingPaused;
 
 
     public ChannelBundle(TransportChannel transport,
@@ -60,14 +68,37 @@ public class ChannelBundle {
     }
 
     void appendToWrite(byte[] buffer, int offset, int length) {
+        appendToWrite(ByteBuffer.wrap(buffer, offset, length));
+    }
+
+    void appendToWrite(ByteBuffer buffer) {
         if (!shouldBeClosed.get()) {
-            chunks.add(ByteBuffer.wrap(buffer, offset, length));
+            chunks.add(buffer);
             acceptWritingMessages();
         }
     }
 
     boolean shouldWrite() {
-        return !chunks.isEmpty();
+        BandwidthScheduler.Share currentShare = share;
+        return (writtenResidueBuffer != null || !chunks.isEmpty())
+                && (currentShare == null || !currentShare.isParked());
+    }
+
+    void shape(BandwidthScheduler.Share share) {
+        this.share = share;
+    }
+
+    BandwidthScheduler.Share share() {
+        return share;
+    }
+
+    void resumeWriting() {
+        share.unpark();
+        acceptWritingMessages();
+    }
+
+    boolean isClosing() {
+        return shouldBeClosed.get() || hasBeenClosed.get();
     }
 
     void read(ReadableByteChannel channel) {
@@ -82,7 +113,10 @@ public class ChannelBundle {
                     closeChannel(channel);
                     return;
                 } else if (readBytesNumber > 0) {
-                    respond(readBuffer);
+                    readBuffer = respond(readBuffer);
+                    if (pauseReadingIfSaturated()) {
+                        return;
+                    }
                 }
             } catch (IOException e) {
                 hasBeenClosed.set(true);
@@ -93,13 +127,51 @@ public class ChannelBundle {
         } while (readBytesNumber > 0);
     }
 
+    /**
+     * @return true if the channel isn't read because its listener is saturated
+     */
+    boolean isReadingPaused() {
+        return isReadingPaused;
+    }
+
+    /**
+     * resumes reading of the channel paused by backpressure, it's called by the selector thread
+     */
+    void resumeReading() {
+        isReadingPaused = false;
+
+        SelectionKey key = selectionKey;
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * closes the channel which has been requested to close, it's called by the selector thread.
+     * A channel paused by backpressure isn't selected anymore, so its closing can't wait for a next selection
+     */
+    void closeIfRequested() {
+        SelectionKey key = selectionKey;
+        if (key != null && shouldBeClosed.get()) {
+            isReadingPaused = false;
+            hasThisChannelBeenClosed(key.channel());
+        }
+    }
+
     void write(WritableByteChannel channel) {
         if (hasThisChannelBeenClosed(channel)) return;
 
+        BandwidthScheduler.Share currentShare = share;
+        if (currentShare != null) {
+            currentShare.beginTurn();
+        }
+
         ByteBuffer chunk;
+        boolean hasWritten = false;
         if (writtenResidueBuffer != null) {
             if (writeChunkFully(channel, writtenResidueBuffer)) {
                 writtenResidueBuffer = null;
+                hasWritten = true;
             } else {
                 return;
             }
@@ -107,13 +179,29 @@ public class ChannelBundle {
         while ((chunk = chunks.poll()) != null) {
             if (!writeChunkFully(channel, chunk)) {
                 writtenResidueBuffer = chunk;
-                break;
+                return;
             }
+            hasWritten = true;
+        }
+
+        if (hasWritten) {
+            notifyDrained();
+        }
+    }
+
+    private void notifyDrained() {
+        if (listener instanceof DrainAwareListener && chunks.isEmpty()) {
+            ((DrainAwareListener) listener).channelDrained();
         }
     }
 
     private boolean writeChunkFully(WritableByteChannel channel, ByteBuffer chunk) {
         try {
+            BandwidthScheduler.Share currentShare = share;
+            if (currentShare != null) {
+                return writeShapedChunk(channel, chunk, currentShare);
+            }
+
             int size = chunk.remaining();
             return size == channel.write(chunk);
         } catch (IOException e) {
@@ -123,10 +211,48 @@ public class ChannelBundle {
         }
     }
 
+    private boolean writeShapedChunk(WritableByteChannel channel, ByteBuffer chunk,
+                                     BandwidthScheduler.Share currentShare) throws IOException {
+        int wanted = chunk.remaining();
+        if (wanted == 0) {
+            return true;
+        }
+
+        int granted = currentShare.acquire(wanted, transport == TransportChannel.UDP);
+        if (granted > 0) {
+            int limit = chunk.limit();
+            int written;
+            chunk.limit(chunk.position() + granted);
+            try {
+                written = channel.write(chunk);
+            } finally {
+                chunk.limit(limit);
+            }
+            currentShare.refund(granted - written);
+
+            if (written < granted) {
+                return false;
+            } else if (granted == wanted) {
+                return true;
+            }
+        }
+
+        if (!currentShare.hasTokens()) {
+            currentShare.park(this);
+        }
+        return false;
+    }
+
     void close() {
         shouldBeClosed.set(true);
     }
 
+    void connected() {
+        if (listener instanceof ConnectionAwareListener) {
+            ((ConnectionAwareListener) listener).channelConnected();
+        }
+    }
+
     ChannelListener listener() {
         return listener;
     }
@@ -161,19 +287,67 @@ public class ChannelBundle {
         this.selectionKey = selectionKey;
     }
 
-    private void respond(ByteBuffer buffer) {
-        if (buffer.position() > 0) {
-            buffer.flip();
+    /**
+     * passes received data to the listener, a buffer listener gets the read buffer itself when it's filled enough,
+     * otherwise the data are copied
+     * @return buffer for the next read
+     */
+    private ByteBuffer respond(ByteBuffer buffer) {
+        if (buffer.position() == 0) {
+            return buffer;
+        }
 
-            byte[] response = new byte[buffer.limit()];
-            buffer.get(response);
+        buffer.flip();
+        if (listener instanceof ByteBufferListener) {
+            ByteBufferListener bufferListener = (ByteBufferListener) listener;
+            if (buffer.limit() >= buffer.capacity() / HANDOVER_FILL_RATIO) {
+                bufferListener.chunkIsReceived(buffer);
+                return ByteBuffer.allocate(readBufferSize);
+            }
+
+            // a small chunk doesn't pin the whole read buffer
+            ByteBuffer chunk = ByteBuffer.allocate(buffer.limit());
+            chunk.put(buffer);
+            chunk.flip();
             buffer.clear();
+            bufferListener.chunkIsReceived(chunk);
+            return buffer;
+        }
+
+        byte[] response = new byte[buffer.limit()];
+        buffer.get(response);
+        buffer.clear();
+
+        listener.chunkIsReceived(response);
+        return buffer;
+    }
 
-            listener.chunkIsReceived(response);
+    private boolean pauseReadingIfSaturated() {
+        if (!(listener instanceof BackpressuredListener)) {
+            return false;
         }
+
+        BackpressuredListener backpressuredListener = (BackpressuredListener) listener;
+        if (!backpressuredListener.isSaturated()) {
+            return false;
+        }
+
+        isReadingPaused = true;
+        // the listener may have been drained before the pause, then its drain callback has already been called
+        if (backpressuredListener.isSaturated()) {
+            return true;
+        }
+
+        isReadingPaused = false;
+        return false;
     }
 
     private void acceptWritingMessages() {
+        BandwidthScheduler.Share currentShare = share;
+        if (currentShare != null && currentShare.isParked()) {
+            return;
+        }
+
         if (selectionKey != null) {
             if (!selectionKey.isValid()) {
                 close();
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.nio;
+
+/**
+ * Token bucket limiting a throughput in bytes per second.
+ *
+ * The bucket is refilled continuously at the given rate up to its capacity which is the maximum burst size.
+ * Whole datagrams may be taken in debt, then the bucket stays empty until the debt is paid off.
+ */
+public class TokenBucket {
+    private static final double NANOS_IN_SECOND = 1e9;
+
+    private final long bytesPerSecond;
+    private final long capacity;
+    private final double bytesPerNano;
+    private long tokens;
+    private long lastRefill;
+
+    /**
+     * @param bytesPerSecond  throughput limit
+     * @param burstSize       the maximum number of bytes which can be sent at once after an idle period
+     */
+    public TokenBucket(long bytesPerSecond, long burstSize) {
+        this(bytesPerSecond, burstSize, System.nanoTime());
+    }
+
+    TokenBucket(long bytesPerSecond, long burstSize, long now) {
+        if (bytesPerSecond <= 0 || burstSize <= 0) {
+            throw new IllegalArgumentException("Rate and burst size should be positive");
+        }
+
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = burstSize;
+        this.bytesPerNano = bytesPerSecond / NANOS_IN_SECOND;
+        this.tokens = burstSize;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes up to the requested number of tokens
+     * @param requested  the number of bytes to be sent
+     * @return the number of granted bytes which may be less than requested
+     */
+    public long take(long requested) {
+        return take(requested, System.nanoTime());
+    }
+
+    /**
+     * Takes tokens for a datagram that cannot be split
+     * @param requested  the datagram size
+     * @return true if the datagram can be sent, the bucket may run into debt in this case
+     */
+    public boolean takeWhole(long requested) {
+        return takeWhole(requested, System.nanoTime());
+    }
+
+    /**
+     * Returns tokens that were taken but haven't been used
+     * @param unused  the number of unsent bytes
+     */
+    public synchronized void refund(long unused) {
+        if (unused > 0) {
+            tokens = Math.min(capacity, tokens + unused);
+        }
+    }
+
+    /**
+     * @return true if at least one byte can be sent now
+     */
+    public boolean hasTokens() {
+        return hasTokens(System.nanoTime());
+    }
+
+    /**
+     * @return throughput limit in bytes per second
+     */
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return the maximum burst size
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    synchronized long take(long requested, long now) {
+        refill(now);
+
+        long granted = Math.max(0, Math.min(tokens, requested));
+        tokens -= granted;
+
+        return granted;
+    }
+
+    synchronized boolean takeWhole(long requested, long now) {
+        refill(now);
+
+        if (tokens <= 0 || tokens < Math.min(requested, capacity)) {
+            return false;
+        }
+        tokens -= requested;
+
+        return true;
+    }
+
+    synchronized boolean hasTokens(long now) {
+        refill(now);
+
+        return tokens > 0;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        double added = elapsed * bytesPerNano;
+        if (added < 1) {
+            // the elapsed time is accumulated until it's worth at least a byte
+            return;
+        }
+
+        tokens = added >= capacity - tokens ? capacity : tokens + (long) added;
+        lastRefill = now;
+    }
+}
@@ -51,6 +51,7 @@ public enum TransportChannel {
                 }
 
                 key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                bundle.connected();
                 return;
             }
 
@@ -98,7 +99,7 @@ public enum TransportChannel {
             bundle.write(channel);
         }
 
-        int interestOps = SelectionKey.OP_READ;
+        int interestOps = bundle.isReadingPaused() ? 0 : SelectionKey.OP_READ;
         if (bundle.shouldWrite()) {
             interestOps |= SelectionKey.OP_WRITE;
         }
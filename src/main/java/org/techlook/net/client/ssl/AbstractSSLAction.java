@@ -81,21 +81,42 @@ abstract class AbstractSSLAction extends AsyncAction {
     }
 
     /**
-     * increasing buffer size when BUFFER_OVERFLOW message did receive
+     * increasing buffer size when BUFFER_OVERFLOW message did receive. A direct buffer is leased from the shared pool
+     * and replaced by a pooled one, a heap buffer is replaced by a heap buffer since its array is handed to the listener
      * @param buffer the buffer to be enlarged
      * @param size   if new size is known and larger than old buffer size it is used
      *                 otherwise buffer will be increased in two times
      * @return       enlarged buffer
      */
     protected ByteBuffer enlargeBuffer(ByteBuffer buffer, int size) {
-        ByteBuffer newBuffer =
-                ByteBuffer.allocate(buffer.capacity() < size ? size : buffer.capacity() * 2);
+        int capacity = buffer.capacity() < size ? size : buffer.capacity() * 2;
+        boolean isPooled = buffer.isDirect();
+        ByteBuffer newBuffer = isPooled ? BufferPool.SHARED.acquire(capacity) : ByteBuffer.allocate(capacity);
         buffer.flip();
         newBuffer.put(buffer);
+        if (isPooled) {
+            BufferPool.SHARED.release(buffer);
+        }
 
         return newBuffer;
     }
 
+    /**
+     * returns the buffer to the shared pool if it contains no data, an empty heap buffer is just dropped
+     * @param buffer  leased buffer in the filling mode, or null
+     * @return null if the buffer has been released, otherwise the buffer itself
+     */
+    protected ByteBuffer releaseIfEmpty(ByteBuffer buffer) {
+        if (buffer != null && buffer.position() == 0) {
+            if (buffer.isDirect()) {
+                BufferPool.SHARED.release(buffer);
+            }
+            return null;
+        }
+
+        return buffer;
+    }
+
     void setChannelId(Integer channelId) {
         this.channelId = channelId;
     }
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Application-Layer Protocol Negotiation, the API appeared in Java 9 thus it's accessed by reflection
+ */
+final class Alpn {
+    private static final Method SET_APPLICATION_PROTOCOLS = method(SSLParameters.class,
+            "setApplicationProtocols", String[].class);
+    private static final Method GET_APPLICATION_PROTOCOL = method(SSLEngine.class, "getApplicationProtocol");
+
+    private Alpn() {
+    }
+
+    /**
+     * @return true if the platform supports ALPN
+     */
+    static boolean isSupported() {
+        return SET_APPLICATION_PROTOCOLS != null && GET_APPLICATION_PROTOCOL != null;
+    }
+
+    /**
+     * @param engine     engine to be configured before handshaking
+     * @param protocols  protocols offered to the server
+     */
+    static void offer(SSLEngine engine, String[] protocols) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("ALPN isn't supported by the platform");
+        }
+
+        SSLParameters parameters = engine.getSSLParameters();
+        invoke(SET_APPLICATION_PROTOCOLS, parameters, (Object) protocols);
+        engine.setSSLParameters(parameters);
+    }
+
+    /**
+     * @param engine engine which has completed handshaking
+     * @return the negotiated protocol or null
+     */
+    static String selectedProtocol(SSLEngine engine) {
+        if (GET_APPLICATION_PROTOCOL == null) {
+            return null;
+        }
+
+        String protocol = (String) invoke(GET_APPLICATION_PROTOCOL, engine);
+        return protocol == null || protocol.isEmpty() ? null : protocol;
+    }
+
+    private static Object invoke(Method method, Object target, Object... arguments) {
+        try {
+            return method.invoke(target, arguments);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers shared by all SSL connections.
+ *
+ * SSL actions lease buffers only while they have data in flight and return them when idle, so an idle connection
+ * holds no buffers at all. Capacities are rounded up to {@link #GRANULARITY}, thus buffers requested for slightly
+ * different session sizes are interchangeable. The pool retains at most {@link #MAX_POOLED_BYTES}, buffers returned
+ * beyond this limit are left to the garbage collector.
+ */
+class BufferPool {
+    static final int GRANULARITY = 0x400;
+    static final long MAX_POOLED_BYTES = 0x1000000;
+
+    static final BufferPool SHARED = new BufferPool(MAX_POOLED_BYTES);
+
+    private final long maxPooledBytes;
+    private final ConcurrentMap<Integer, ConcurrentLinkedQueue<ByteBuffer>> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong pooledBytes = new AtomicLong(0);
+
+    BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @param size  required capacity
+     * @return cleared buffer which capacity is not less than the required one
+     */
+    ByteBuffer acquire(int size) {
+        int capacity = (size + GRANULARITY - 1) / GRANULARITY * GRANULARITY;
+
+        ConcurrentLinkedQueue<ByteBuffer> queue = buffers.get(capacity);
+        ByteBuffer buffer = queue != null ? queue.poll() : null;
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(Math.max(capacity, GRANULARITY));
+        }
+
+        pooledBytes.addAndGet(-capacity);
+        buffer.clear();
+
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool, the caller must not use it afterwards
+     * @param buffer  a buffer acquired from the pool
+     */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity % GRANULARITY != 0) {
+            return;
+        }
+
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+
+        ConcurrentLinkedQueue<ByteBuffer> queue = buffers.get(capacity);
+        if (queue == null) {
+            ConcurrentLinkedQueue<ByteBuffer> created = new ConcurrentLinkedQueue<>();
+            queue = buffers.putIfAbsent(capacity, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        queue.add(buffer);
+    }
+
+    /**
+     * @return the total capacity of idle buffers kept by the pool
+     */
+    long pooledBytes() {
+        return pooledBytes.get();
+    }
+}
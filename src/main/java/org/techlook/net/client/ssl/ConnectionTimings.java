@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+/**
+ * Timestamps of a TLS connection setup. Timestamps are {@link System#nanoTime()} values,
+ * a stage which hasn't been reached is {@link #UNKNOWN}.
+ */
+public class ConnectionTimings {
+    public static final long UNKNOWN = -1;
+
+    private final String host;
+    private final int port;
+    private final long startedAt;
+    private final long tcpConnectedAt;
+    private final long clientHelloSentAt;
+    private final long handshakeFinishedAt;
+    private final long firstByteAt;
+    private final String protocol;
+    private final String cipherSuite;
+    private final boolean isResumed;
+
+    ConnectionTimings(String host, int port,
+                      long startedAt, long tcpConnectedAt, long clientHelloSentAt,
+                      long handshakeFinishedAt, long firstByteAt,
+                      String protocol, String cipherSuite, boolean isResumed) {
+        this.host = host;
+        this.port = port;
+        this.startedAt = startedAt;
+        this.tcpConnectedAt = tcpConnectedAt;
+        this.clientHelloSentAt = clientHelloSentAt;
+        this.handshakeFinishedAt = handshakeFinishedAt;
+        this.firstByteAt = firstByteAt;
+        this.protocol = protocol;
+        this.cipherSuite = cipherSuite;
+        this.isResumed = isResumed;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return when connecting has begun
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getTcpConnectedAt() {
+        return tcpConnectedAt;
+    }
+
+    /**
+     * @return when ClientHello has been passed to the transport
+     */
+    public long getClientHelloSentAt() {
+        return clientHelloSentAt;
+    }
+
+    public long getHandshakeFinishedAt() {
+        return handshakeFinishedAt;
+    }
+
+    /**
+     * @return when the first application data have been decrypted
+     */
+    public long getFirstByteAt() {
+        return firstByteAt;
+    }
+
+    /**
+     * @return TCP connection time or {@link #UNKNOWN}
+     */
+    public long getTcpConnectNanos() {
+        return between(startedAt, tcpConnectedAt);
+    }
+
+    /**
+     * @return time from ClientHello to the handshake completion or {@link #UNKNOWN}
+     */
+    public long getHandshakeNanos() {
+        return between(clientHelloSentAt, handshakeFinishedAt);
+    }
+
+    /**
+     * @return time from the beginning of connecting to the first application data or {@link #UNKNOWN}
+     */
+    public long getTimeToFirstByteNanos() {
+        return between(startedAt, firstByteAt);
+    }
+
+    /**
+     * @return negotiated protocol version, or null if the handshake hasn't been completed
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return negotiated cipher suite, or null if the handshake hasn't been completed
+     */
+    public String getCipherSuite() {
+        return cipherSuite;
+    }
+
+    /**
+     * @return true if a cached session has been resumed
+     */
+    public boolean isResumed() {
+        return isResumed;
+    }
+
+    private static long between(long from, long to) {
+        return from == UNKNOWN || to == UNKNOWN ? UNKNOWN : to - from;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionTimings{host=" + host + ':' + port
+                + ", tcpConnectNanos=" + getTcpConnectNanos()
+                + ", handshakeNanos=" + getHandshakeNanos()
+                + ", timeToFirstByteNanos=" + getTimeToFirstByteNanos()
+                + ", protocol=" + protocol
+                + ", cipherSuite=" + cipherSuite
+                + ", isResumed=" + isResumed + '}';
+    }
+}
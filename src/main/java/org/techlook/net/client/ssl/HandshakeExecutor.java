@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor of TLS handshake delegated tasks (certificate validation, key exchange computations).
+ *
+ * Handshakes are kept off the shared Fork-Join pool, so a connection storm doesn't starve processing of
+ * already established connections. New connections are not admitted while the queue is filled above
+ * the admission threshold, the rest of the queue is reserved for handshakes already in progress.
+ * If the queue is full anyway a task is run by the calling thread.
+ */
+public class HandshakeExecutor {
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private final int admissionThreshold;
+
+    private final AtomicLong completedTasks = new AtomicLong(0);
+    private final AtomicLong waitingNanos = new AtomicLong(0);
+    private final AtomicLong runningNanos = new AtomicLong(0);
+    private final AtomicLong maxWaitingNanos = new AtomicLong(0);
+    private final AtomicLong rejectedConnections = new AtomicLong(0);
+
+    /**
+     * Executor with a thread per processor and the default queue capacity
+     */
+    public HandshakeExecutor() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threads        the maximum number of threads performing handshake tasks, idle threads are stopped
+     * @param queueCapacity  the maximum number of queued tasks
+     */
+    public HandshakeExecutor(int threads, int queueCapacity) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Number of threads and queue capacity should be positive");
+        }
+
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new HandshakeThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        admissionThreshold = Math.max(1, queueCapacity * 3 / 4);
+    }
+
+    /**
+     * @return true if a new connection can be established
+     */
+    public boolean admits() {
+        return !executor.isShutdown() && executor.getQueue().size() < admissionThreshold;
+    }
+
+    /**
+     * @return the number of tasks waiting for execution
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of executed tasks
+     */
+    public long getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    /**
+     * @return average time a task spends in the queue, in milliseconds
+     */
+    public double getAverageWaitingMillis() {
+        return average(waitingNanos);
+    }
+
+    /**
+     * @return the longest time a task has spent in the queue, in milliseconds
+     */
+    public double getMaxWaitingMillis() {
+        return maxWaitingNanos.get() / 1e6;
+    }
+
+    /**
+     * @return average execution time of a task, in milliseconds
+     */
+    public double getAverageRunningMillis() {
+        return average(runningNanos);
+    }
+
+    /**
+     * @return the number of connections rejected by admission control
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    /**
+     * Stops the executor, the queued tasks are still completed
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    void connectionRejected() {
+        rejectedConnections.incrementAndGet();
+    }
+
+    /**
+     * @param task        delegated task
+     * @param completion  is run after the task
+     * @return false if the executor is saturated and the task hasn't been accepted
+     */
+    boolean execute(final Runnable task, final Runnable completion) {
+        final long queuedAt = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startedAt = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        record(startedAt - queuedAt, System.nanoTime() - startedAt);
+                        completion.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    private void record(long waiting, long running) {
+        waitingNanos.addAndGet(waiting);
+        runningNanos.addAndGet(running);
+        completedTasks.incrementAndGet();
+
+        long max;
+        while (waiting > (max = maxWaitingNanos.get()) && !maxWaitingNanos.compareAndSet(max, waiting)) ;
+    }
+
+    private double average(AtomicLong totalNanos) {
+        long count = completedTasks.get();
+        return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+    }
+
+    private static class HandshakeThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "tls-handshake-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import javax.net.ssl.SSLSession;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of full and abbreviated (resumed) TLS handshakes.
+ *
+ * SSLEngine doesn't tell whether a session has been resumed, but a resumed session (by a session ID or by
+ * a TLS 1.3 ticket) keeps the creation time of the session it has been resumed from, which precedes the handshake.
+ */
+public class HandshakeMetrics {
+    private final AtomicLong fullHandshakes = new AtomicLong(0);
+    private final AtomicLong resumedHandshakes = new AtomicLong(0);
+
+    void handshakeCompleted(SSLSession session, long startedAt) {
+        if (isResumed(session, startedAt)) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param session    the session of a completed handshake
+     * @param startedAt  the time when the handshake has begun, in milliseconds
+     * @return true if the session has been resumed
+     */
+    static boolean isResumed(SSLSession session, long startedAt) {
+        return session.getCreationTime() < startedAt;
+    }
+
+    /**
+     * @return the number of full handshakes
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * @return the number of handshakes resuming a cached session
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+}
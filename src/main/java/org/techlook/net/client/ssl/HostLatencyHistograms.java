@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates connection timings into latency histograms per host
+ */
+public class HostLatencyHistograms implements ConnectionTimingListener {
+    private final ConcurrentMap<String, Histograms> hosts = new ConcurrentHashMap<>();
+
+    @Override
+    public void connectionMeasured(ConnectionTimings timings) {
+        histograms(key(timings.getHost(), timings.getPort())).record(timings);
+    }
+
+    /**
+     * @return hosts in the "host:port" form which connections have been measured
+     */
+    public Set<String> getHosts() {
+        return Collections.unmodifiableSet(hosts.keySet());
+    }
+
+    /**
+     * @param host  the remote host
+     * @param port  the remote port
+     * @return histograms of the host, or null if no connection to it has been measured
+     */
+    public Histograms get(String host, int port) {
+        return hosts.get(key(host, port));
+    }
+
+    private Histograms histograms(String key) {
+        Histograms histograms = hosts.get(key);
+        if (histograms == null) {
+            Histograms created = new Histograms();
+            histograms = hosts.putIfAbsent(key, created);
+            if (histograms == null) {
+                histograms = created;
+            }
+        }
+
+        return histograms;
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    public static class Histograms {
+        private final LatencyHistogram tcpConnect = new LatencyHistogram();
+        private final LatencyHistogram fullHandshake = new LatencyHistogram();
+        private final LatencyHistogram resumedHandshake = new LatencyHistogram();
+        private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+        private final AtomicLong failedHandshakes = new AtomicLong(0);
+
+        void record(ConnectionTimings timings) {
+            tcpConnect.record(timings.getTcpConnectNanos());
+            timeToFirstByte.record(timings.getTimeToFirstByteNanos());
+
+            long handshake = timings.getHandshakeNanos();
+            if (handshake == ConnectionTimings.UNKNOWN) {
+                failedHandshakes.incrementAndGet();
+            } else if (timings.isResumed()) {
+                resumedHandshake.record(handshake);
+            } else {
+                fullHandshake.record(handshake);
+            }
+        }
+
+        public LatencyHistogram getTcpConnect() {
+            return tcpConnect;
+        }
+
+        public LatencyHistogram getFullHandshake() {
+            return fullHandshake;
+        }
+
+        public LatencyHistogram getResumedHandshake() {
+            return resumedHandshake;
+        }
+
+        public LatencyHistogram getTimeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        /**
+         * @return the number of connections closed before the handshake has been completed
+         */
+        public long getFailedHandshakes() {
+            return failedHandshakes.get();
+        }
+    }
+}
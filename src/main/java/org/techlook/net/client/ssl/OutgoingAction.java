@@ -32,22 +32,42 @@ import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Encrypts outgoing data.
+ *
+ * Queued chunks are wrapped in place by a gathering wrap, so each record is filled as much as possible regardless
+ * of chunk boundaries. Records are produced into a heap slab and passed to the transport as its slices without
+ * copying. SSLEngine requires the room of a whole packet for every wrap, therefore a slab holds a few records and
+ * a new one is allocated when the rest doesn't fit a packet. The slab is dropped when there are no pending data.
+ *
+ * With a {@link RecordSizer} the amount of data gathered into a record is limited by clipping the last chunk
+ * for the time of wrapping.
+ */
 class OutgoingAction extends AbstractSSLAction {
+    protected static final ByteBuffer[] NO_DATA = {ByteBuffer.allocate(0)};
+
+    private static final int MAX_GATHERED_CHUNKS = 16;
+    private static final int MAX_RECORDS_PER_SLAB = 4;
+
     protected final SSLEngine engine;
-    protected ByteBuffer outgoingAppData;
 
-    protected volatile ByteBuffer outgoingNetData;
-    protected volatile ByteBuffer residueChunk;
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_CHUNKS];
+    private long pendingBytes;
+    private volatile ByteBuffer slab;
+    private volatile RecordSizer recordSizer;
+    private ByteBuffer clippedChunk;
+    private int clippedLimit;
 
     public OutgoingAction(SSLEngine engine,
                           ChannelListener listener, ForkJoinPool threadPool, SocketClient transport, AsyncAction hostAction) {
         super(engine, listener, threadPool, transport, hostAction);
         this.engine = engine;
-        outgoingAppData = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
-        outgoingNetData = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
-        residueChunk = ByteBuffer.allocate(0);
     }
 
     @Override
@@ -61,96 +81,151 @@ class OutgoingAction extends AbstractSSLAction {
     }
 
     void reset() {
-        outgoingAppData.clear();
-        outgoingNetData.clear();
+        slab = null;
+    }
+
+    void setRecordSizer(RecordSizer recordSizer) {
+        this.recordSizer = recordSizer;
+    }
+
+    boolean holdsNoBuffers() {
+        return slab == null;
     }
 
     void processOutgoing() {
-        fillAppBuffer();
-        outgoingAppData.flip();
-        while (outgoingAppData.hasRemaining()) {
-            if (!isHandshakingDone()) {
-                outgoingAppData.compact();
-                return;
+        try {
+            pullChunks();
+            while (!pending.isEmpty()) {
+                if (!isHandshakingDone()) {
+                    return;
+                }
+
+                RecordSizer sizer = recordSizer;
+                int count = gather(sizer != null ? sizer.recordLimit() : Integer.MAX_VALUE);
+                long consumed;
+                try {
+                    consumed = wrapRecord(gathered, count);
+                } finally {
+                    Arrays.fill(gathered, 0, count, null);
+                    unclip();
+                }
+                if (consumed < 0) {
+                    return;
+                }
+                if (sizer != null) {
+                    sizer.recordSent(consumed);
+                }
+
+                releaseConsumed(consumed);
+                pullChunks();
             }
-            try {
-                handleWrap(engine.wrap(outgoingAppData, outgoingNetData));
-            } catch (SSLException e) {
-                closeOnError(e);
-                return;
+        } catch (SSLException e) {
+            closeOnError(e);
+        } finally {
+            if (pending.isEmpty()) {
+                slab = null;
             }
         }
-        outgoingAppData.compact();
     }
 
     void send(byte[] data, int offset, int length) {
-        this.chunks.add(ByteBuffer.wrap(data, offset, length));
+        send(ByteBuffer.wrap(data, offset, length));
+    }
+
+    void send(ByteBuffer data) {
+        enqueue(data);
         shakeUp();
     }
 
-    protected void handleWrap(SSLEngineResult result) {
+    /**
+     * wraps the sources into a single record and passes it to the transport
+     * @param sources  application data
+     * @param count    the number of sources used
+     * @return the number of consumed bytes of application data, or -1 if wrapping cannot be continued
+     * @throws SSLException if the engine fails
+     */
+    protected long wrapRecord(ByteBuffer[] sources, int count) throws SSLException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        ByteBuffer output = outputSlab(packetSize);
+        int start = output.position();
+
+        SSLEngineResult result = engine.wrap(sources, 0, count, output);
         switch (result.getStatus()) {
-            case BUFFER_UNDERFLOW:
-                fillAppBuffer();
-                break;
             case BUFFER_OVERFLOW:
-                enlargeOutgoingNetBuffer();
-                break;
+                slab = ByteBuffer.allocate(2 * Math.max(packetSize, output.remaining()));
+                return 0;
             case OK:
-                if (outgoingNetData.position() == 0) {
-                    break;
+                if (result.bytesProduced() > 0) {
+                    ByteBuffer record = output.duplicate();
+                    record.limit(output.position());
+                    record.position(start);
+                    transport.send(record.slice(), channelId);
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    return -1;
                 }
-                outgoingNetData.flip();
-                byte[] chunk = new byte[outgoingNetData.limit()];
-                outgoingNetData.get(chunk);
-                outgoingNetData.clear();
-                transport.send(chunk, 0, chunk.length, channelId);
-                fillAppBuffer();
-                break;
-            case CLOSED:
-                break;
+                return result.bytesConsumed();
+            default:
+                return -1;
         }
     }
 
-    private void fillAppBuffer() {
-        if (residueChunk.position() > 0) {
-            residueChunk.flip();
-            if (hasResidueEnoughToProcessChunk(residueChunk)) {
-                return;
-            }
+    private ByteBuffer outputSlab(int packetSize) {
+        ByteBuffer current = slab;
+        if (current == null || current.remaining() < packetSize) {
+            int applicationSize = Math.max(1, engine.getSession().getApplicationBufferSize());
+            long records = Math.min(MAX_RECORDS_PER_SLAB, pendingBytes / applicationSize + 1);
+            current = ByteBuffer.allocate((int) records * packetSize);
+            slab = current;
         }
 
+        return current;
+    }
+
+    private void pullChunks() {
+        int applicationSize = engine.getSession().getApplicationBufferSize();
+
         ByteBuffer chunk;
-        while ((chunk = this.chunks.poll()) != null && !hasResidueEnoughToProcessChunk(chunk)) ;
+        while (pendingBytes < applicationSize && pending.size() < MAX_GATHERED_CHUNKS
+                && (chunk = dequeue()) != null) {
+            if (chunk.hasRemaining()) {
+                pending.add(chunk);
+                pendingBytes += chunk.remaining();
+            }
+        }
     }
 
-    private boolean hasResidueEnoughToProcessChunk(ByteBuffer chunk) {
-        int remaining = outgoingAppData.remaining();
-        if (remaining < chunk.remaining()) {
-            byte[] data = new byte[remaining];
-            chunk.get(data);
-            outgoingAppData.put(data);
-            data = new byte[chunk.remaining()];
-            chunk.get(data);
-            chunk.clear();
-            putResidue(data);
-            return true;
+    private int gather(int recordLimit) {
+        int count = 0;
+        long gatheredBytes = 0;
+        Iterator<ByteBuffer> iterator = pending.iterator();
+        while (count < MAX_GATHERED_CHUNKS && gatheredBytes < recordLimit && iterator.hasNext()) {
+            ByteBuffer chunk = iterator.next();
+            long rest = recordLimit - gatheredBytes;
+            if (chunk.remaining() > rest) {
+                clippedChunk = chunk;
+                clippedLimit = chunk.limit();
+                chunk.limit(chunk.position() + (int) rest);
+            }
+
+            gathered[count++] = chunk;
+            gatheredBytes += chunk.remaining();
         }
-        outgoingAppData.put(chunk);
-        return false;
+
+        return count;
     }
 
-    private void putResidue(byte[] block) {
-        if (block.length > residueChunk.remaining()) {
-            residueChunk.flip();
-            ByteBuffer newResidue = ByteBuffer.allocate(residueChunk.position() + block.length);
-            newResidue.put(residueChunk);
-            newResidue.put(block);
-            residueChunk = newResidue;
+    private void unclip() {
+        if (clippedChunk != null) {
+            clippedChunk.limit(clippedLimit);
+            clippedChunk = null;
         }
     }
 
-    protected void enlargeOutgoingNetBuffer() {
-        outgoingNetData = enlargeBuffer(outgoingNetData, engine.getSession().getPacketBufferSize());
+    private void releaseConsumed(long consumed) {
+        pendingBytes -= consumed;
+        while (!pending.isEmpty() && !pending.peekFirst().hasRemaining()) {
+            pending.pollFirst();
+        }
     }
 }
@@ -29,48 +29,21 @@ import org.techlook.net.client.ChannelListener;
 import org.techlook.net.client.SocketClient;
 
 import javax.net.ssl.SSLEngine;
-import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
-import java.nio.ByteBuffer;
 import java.util.concurrent.ForkJoinPool;
 
 class OutgoingHandshakingAction extends OutgoingAction {
     OutgoingHandshakingAction(SSLEngine engine,
                               ChannelListener listener, ForkJoinPool threadPool, SocketClient transport, AsyncAction hostAction) {
         super(engine, listener, threadPool, transport, hostAction);
-        outgoingAppData = ByteBuffer.allocate(0);
     }
 
     @Override
     void processOutgoing() {
         try {
-            handleWrap(engine.wrap(outgoingAppData, outgoingNetData));
+            wrapRecord(NO_DATA, NO_DATA.length);
         } catch (SSLException e) {
             closeOnError(e);
         }
     }
-
-    @Override
-    protected void handleWrap(SSLEngineResult result) {
-        switch (result.getStatus()) {
-            case BUFFER_UNDERFLOW:
-                throw new IllegalStateException("Unreachable point");
-            case BUFFER_OVERFLOW:
-                enlargeOutgoingNetBuffer();
-                break;
-            case OK:
-                if (outgoingNetData.position() == 0) {
-                    break;
-                }
-                outgoingNetData.flip();
-                byte[] chunk = new byte[outgoingNetData.limit()];
-                outgoingNetData.get(chunk);
-                outgoingNetData.position(0);
-                outgoingNetData.limit(outgoingNetData.capacity());
-                transport.send(chunk, 0, chunk.length, channelId);
-                break;
-            case CLOSED:
-                break;
-        }
-    }
 }
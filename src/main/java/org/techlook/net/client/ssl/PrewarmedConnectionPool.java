@@ -0,0 +1,515 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.techlook.net.client.BackpressuredListener;
+import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.DrainAwareListener;
+import org.techlook.net.client.ResultedCompletion;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.nio.TransportChannel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a number of connected and handshaken TLS connections per host, so a request doesn't wait for a full
+ * handshake.
+ *
+ * The pool is a {@link SocketClient} itself, a connection to a known host is taken from the pool and replenished
+ * in background. Hosts are registered by {@link #prewarm(SocketAddress)} or by the first connection to them.
+ * Connections which have been idle longer than the max idle time are closed and replaced by fresh ones.
+ * The HTTP connections use the pool as a transport:
+ *
+ *   PrewarmedConnectionPool pool = new PrewarmedConnectionPool(sslClient, 4, 30000);
+ *   pool.prewarm(new InetSocketAddress("example.com", 443));
+ *   HttpConnection connection = new SequentialConnection("example.com", 443, pool);
+ */
+public class PrewarmedConnectionPool implements SocketClient {
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 30000;
+    private static final long MIN_MAINTENANCE_PERIOD_MILLIS = 100;
+    private static final long NANOS_IN_MILLISECOND = 1000000L;
+
+    private final SSLSocketClient client;
+    private final int connectionsPerHost;
+    private final long maxIdleNanos;
+    private final ScheduledExecutorService maintenance;
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private volatile boolean isRunning = true;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong expiredConnections = new AtomicLong(0);
+    private final AtomicLong failedConnections = new AtomicLong(0);
+
+    /**
+     * @param client              TLS client establishing connections
+     * @param connectionsPerHost  the number of handshaken connections kept for every host
+     * @param maxIdleMillis       the maximum time a connection is kept in the pool
+     */
+    public PrewarmedConnectionPool(SSLSocketClient client, int connectionsPerHost, long maxIdleMillis) {
+        this(client, connectionsPerHost, maxIdleMillis,
+                new ScheduledThreadPoolExecutor(1, new MaintenanceThreadFactory()));
+
+        long period = Math.max(MIN_MAINTENANCE_PERIOD_MILLIS, maxIdleMillis / 2);
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictExpired(System.nanoTime());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    PrewarmedConnectionPool(SSLSocketClient client, int connectionsPerHost, long maxIdleMillis,
+                            ScheduledExecutorService maintenance) {
+        if (connectionsPerHost <= 0 || maxIdleMillis <= 0) {
+            throw new IllegalArgumentException("Number of connections and max idle time should be positive");
+        }
+
+        this.client = client;
+        this.connectionsPerHost = connectionsPerHost;
+        this.maxIdleNanos = maxIdleMillis * NANOS_IN_MILLISECOND;
+        this.maintenance = maintenance;
+    }
+
+    /**
+     * Starts keeping handshaken connections to the host
+     * @param server  the remote host
+     */
+    public void prewarm(SocketAddress server) {
+        scheduleRefill(host(server));
+    }
+
+    /**
+     * Takes a handshaken connection to the host if there is one, otherwise establishes a new connection.
+     * A {@link HandshakeListener} is notified of the completed handshake before the method returns
+     * if a pooled connection is taken.
+     * @param server    the remote host to connect to
+     * @param listener  event listener
+     * @return connection ID
+     * @throws IOException something went wrong in an underlying nio layer
+     */
+    @Override
+    public int connect(SocketAddress server, ChannelListener listener) throws IOException {
+        Host host = host(server);
+        long now = System.nanoTime();
+
+        WarmConnection connection;
+        while ((connection = host.idle.pollLast()) != null) {
+            if (connection.isExpired(now)) {
+                expiredConnections.incrementAndGet();
+                connection.retire();
+                scheduleClose(connection);
+            } else if (connection.bind(listener)) {
+                hits.incrementAndGet();
+                scheduleRefill(host);
+                return connection.id;
+            }
+        }
+
+        misses.incrementAndGet();
+        scheduleRefill(host);
+        return client.connect(server, listener);
+    }
+
+    /**
+     * Connections with a custom transport channel or read buffer size are not pooled
+     */
+    @Override
+    public int connect(SocketAddress server, ChannelListener listener, TransportChannel transportChannel,
+                       int readBufferSize) throws IOException {
+        return client.connect(server, listener, transportChannel, readBufferSize);
+    }
+
+    @Override
+    public boolean send(byte[] data, int offset, int length, Integer channelId) {
+        return client.send(data, offset, length, channelId);
+    }
+
+    @Override
+    public boolean send(ByteBuffer data, Integer channelId) {
+        return client.send(data, channelId);
+    }
+
+    /**
+     * Closes pooled connections and shuts the underlying client down
+     */
+    @Override
+    public void shutdown() {
+        isRunning = false;
+        maintenance.shutdownNow();
+        for (Host host : hosts.values()) {
+            WarmConnection connection;
+            while ((connection = host.idle.pollFirst()) != null) {
+                connection.retire();
+                client.close(connection.id);
+            }
+        }
+        client.shutdown();
+    }
+
+    @Override
+    public void close(int channel) {
+        client.close(channel);
+    }
+
+    @Override
+    public void awaitTerminating() throws ExecutionException, InterruptedException {
+        client.awaitTerminating();
+    }
+
+    @Override
+    public ForkJoinPool getThreadPool() {
+        return client.getThreadPool();
+    }
+
+    @Override
+    public ResultedCompletion<Void> completion() {
+        return client.completion();
+    }
+
+    /**
+     * @param server  the remote host
+     * @return the number of handshaken connections ready to be taken
+     */
+    public int getIdleConnections(SocketAddress server) {
+        Host host = hosts.get(key(server));
+        return host == null ? 0 : host.idle.size();
+    }
+
+    /**
+     * @return the number of connections taken from the pool
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of connections established on demand since the pool had no ready ones
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of pooled connections closed because of the max idle time
+     */
+    public long getExpiredConnections() {
+        return expiredConnections.get();
+    }
+
+    /**
+     * @return the number of pooled connections which couldn't be established
+     */
+    public long getFailedConnections() {
+        return failedConnections.get();
+    }
+
+    void evictExpired(long now) {
+        for (Host host : hosts.values()) {
+            Iterator<WarmConnection> iterator = host.idle.iterator();
+            while (iterator.hasNext()) {
+                WarmConnection connection = iterator.next();
+                if (connection.isExpired(now) && host.idle.remove(connection)) {
+                    expiredConnections.incrementAndGet();
+                    connection.retire();
+                    client.close(connection.id);
+                }
+            }
+            refill(host);
+        }
+    }
+
+    private Host host(SocketAddress server) {
+        String key = key(server);
+        Host host = hosts.get(key);
+        if (host == null) {
+            Host created = new Host(server);
+            host = hosts.putIfAbsent(key, created);
+            if (host == null) {
+                host = created;
+            }
+        }
+
+        return host;
+    }
+
+    private static String key(SocketAddress server) {
+        if (server instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) server;
+            return address.getHostString() + ":" + address.getPort();
+        }
+
+        return server.toString();
+    }
+
+    /**
+     * runs by the maintenance thread only, so the number of connections doesn't exceed the target
+     */
+    private void refill(Host host) {
+        int missing = connectionsPerHost - host.idle.size() - host.warming.get();
+        for (int i = 0; i < missing && isRunning; i++) {
+            WarmConnection connection = new WarmConnection(host);
+            host.warming.incrementAndGet();
+            try {
+                connection.id = client.connect(host.address, connection);
+                client.startHandshake(connection.id);
+            } catch (IOException e) {
+                host.warming.decrementAndGet();
+                failedConnections.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void scheduleRefill(final Host host) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                refill(host);
+            }
+        });
+    }
+
+    private void scheduleClose(final WarmConnection connection) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                client.close(connection.id);
+            }
+        });
+    }
+
+    private void submit(Runnable task) {
+        if (!isRunning) {
+            return;
+        }
+
+        try {
+            maintenance.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // the pool is being shut down
+        }
+    }
+
+    private static class Host {
+        final SocketAddress address;
+        final ConcurrentLinkedDeque<WarmConnection> idle = new ConcurrentLinkedDeque<>();
+        final AtomicInteger warming = new AtomicInteger(0);
+
+        Host(SocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * Listener of a pooled connection, events are passed to the listener of a user that has taken the connection.
+     * The drain callback of the channel is kept until the connection is taken.
+     */
+    private class WarmConnection implements HandshakeListener, BackpressuredListener, DrainAwareListener {
+        final Host host;
+        volatile int id;
+        private ChannelListener delegate;
+        private Runnable drainCallback;
+        private boolean isReady;
+        private boolean isBroken;
+        private String applicationProtocol;
+        private long idleSince;
+
+        WarmConnection(Host host) {
+            this.host = host;
+        }
+
+        @Override
+        public void handshakeCompleted(String applicationProtocol) {
+            ChannelListener listener;
+            synchronized (this) {
+                listener = delegate;
+                if (listener == null) {
+                    if (isReady || isBroken) {
+                        return;
+                    }
+
+                    this.applicationProtocol = applicationProtocol;
+                    isReady = true;
+                    idleSince = System.nanoTime();
+                    host.warming.decrementAndGet();
+                    host.idle.addLast(this);
+                    return;
+                }
+            }
+
+            if (listener instanceof HandshakeListener) {
+                ((HandshakeListener) listener).handshakeCompleted(applicationProtocol);
+            }
+        }
+
+        @Override
+        public void chunkIsReceived(byte[] chunk) {
+            ChannelListener listener;
+            synchronized (this) {
+                listener = delegate;
+            }
+
+            if (listener != null) {
+                listener.chunkIsReceived(chunk);
+            }
+        }
+
+        @Override
+        public void channelDrained() {
+            ChannelListener listener;
+            synchronized (this) {
+                listener = delegate;
+            }
+
+            if (listener instanceof DrainAwareListener) {
+                ((DrainAwareListener) listener).channelDrained();
+            }
+        }
+
+        @Override
+        public boolean isSaturated() {
+            ChannelListener listener;
+            synchronized (this) {
+                listener = delegate;
+            }
+
+            return listener instanceof BackpressuredListener && ((BackpressuredListener) listener).isSaturated();
+        }
+
+        @Override
+        public void setDrainCallback(Runnable drainCallback) {
+            ChannelListener listener;
+            synchronized (this) {
+                this.drainCallback = drainCallback;
+                listener = delegate;
+            }
+
+            if (listener instanceof BackpressuredListener) {
+                ((BackpressuredListener) listener).setDrainCallback(drainCallback);
+            }
+        }
+
+        @Override
+        public void channelError(String message) {
+            ChannelListener listener = drop();
+            if (listener != null) {
+                listener.channelError(message);
+            }
+        }
+
+        @Override
+        public void close() {
+            ChannelListener listener = drop();
+            if (listener != null) {
+                listener.close();
+            }
+        }
+
+        /**
+         * marks the connection closed by the pool, so its closing isn't regarded as a failure
+         */
+        synchronized void retire() {
+            isBroken = true;
+        }
+
+        synchronized boolean isExpired(long now) {
+            return now - idleSince > maxIdleNanos;
+        }
+
+        boolean bind(ChannelListener listener) {
+            String protocol;
+            Runnable callback;
+            synchronized (this) {
+                if (isBroken) {
+                    return false;
+                }
+                delegate = listener;
+                protocol = applicationProtocol;
+                callback = drainCallback;
+            }
+
+            if (callback != null && listener instanceof BackpressuredListener) {
+                ((BackpressuredListener) listener).setDrainCallback(callback);
+            }
+            if (listener instanceof HandshakeListener) {
+                ((HandshakeListener) listener).handshakeCompleted(protocol);
+            }
+            return true;
+        }
+
+        /**
+         * @return the listener of a user, or null if the connection hasn't been taken from the pool
+         */
+        private ChannelListener drop() {
+            synchronized (this) {
+                if (delegate != null) {
+                    return delegate;
+                }
+                if (isBroken) {
+                    return null;
+                }
+
+                isBroken = true;
+                if (isReady) {
+                    host.idle.remove(this);
+                } else {
+                    host.warming.decrementAndGet();
+                }
+            }
+
+            scheduleClose(this);
+            scheduleRefill(host);
+            return null;
+        }
+    }
+
+    private static class MaintenanceThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "tls-prewarm-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
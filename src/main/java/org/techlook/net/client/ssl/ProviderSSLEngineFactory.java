@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+
+/**
+ * Engine factory based on a JSSE provider. The default one uses the system provider,
+ * an alternative provider may be loaded from the classpath:
+ *
+ *   SSLEngineFactory conscrypt = ProviderSSLEngineFactory.forProviderClass("org.conscrypt.OpenSSLProvider", "TLS");
+ *   SSLSocketClient sslClient = new SSLSocketClient(transport, null, null, null, conscrypt);
+ */
+public class ProviderSSLEngineFactory implements SSLEngineFactory {
+    public static final String DEFAULT_PROTOCOL = "TLS";
+
+    private final String protocol;
+    private final Provider provider;
+
+    /**
+     * Factory using the system provider
+     */
+    public ProviderSSLEngineFactory() {
+        this(DEFAULT_PROTOCOL, null);
+    }
+
+    /**
+     * @param protocol  context protocol, e.g. "TLS", "TLSv1.3"
+     * @param provider  JSSE provider, or null to use the system one
+     */
+    public ProviderSSLEngineFactory(String protocol, Provider provider) {
+        if (protocol == null) {
+            throw new IllegalArgumentException("Protocol cannot be null");
+        }
+
+        this.protocol = protocol;
+        this.provider = provider;
+    }
+
+    /**
+     * Instantiates a provider by its class name, the provider doesn't have to be registered in the system
+     * @param providerClassName  the name of a Provider subclass with a public no-arg constructor
+     * @param protocol           context protocol
+     * @return factory using the provider
+     * @throws IllegalArgumentException if the provider cannot be loaded
+     */
+    public static ProviderSSLEngineFactory forProviderClass(String providerClassName, String protocol) {
+        try {
+            Class<?> providerClass = Class.forName(providerClassName);
+            if (!Provider.class.isAssignableFrom(providerClass)) {
+                throw new IllegalArgumentException(providerClassName + " is not a security provider");
+            }
+
+            Provider provider = providerClass.asSubclass(Provider.class).getDeclaredConstructor().newInstance();
+            return new ProviderSSLEngineFactory(protocol, provider);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot load security provider " + providerClassName, e);
+        }
+    }
+
+    @Override
+    public SSLContext createContext(KeyManager[] keyManagers, TrustManager[] trustManagers)
+            throws GeneralSecurityException {
+        SSLContext context = provider != null
+                ? SSLContext.getInstance(protocol, provider)
+                : SSLContext.getInstance(protocol);
+        context.init(keyManagers, trustManagers, null);
+
+        return context;
+    }
+
+    @Override
+    public SSLEngine createEngine(SSLContext context, String host, int port) {
+        return context.createSSLEngine(host, port);
+    }
+
+    /**
+     * @return the provider name, "default" for the system one
+     */
+    public String getProviderName() {
+        return provider != null ? provider.getName() : "default";
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderSSLEngineFactory{protocol=" + protocol + ", provider=" + getProviderName() + '}';
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+/**
+ * Dynamic TLS record sizing.
+ *
+ * A record can't be decrypted by the peer until all its TCP segments have arrived, so small records that fit
+ * a single segment are sent on a fresh connection and after an idle period. Once the threshold has been sent
+ * records are filled up to the maximum size to minimize the framing overhead.
+ */
+class RecordSizer {
+    private static final long NANOS_IN_MILLISECOND = 1000000L;
+
+    private final int initialRecordSize;
+    private final long rampUpThreshold;
+    private final long idleTimeout;
+    private long sentSinceIdle;
+    private long lastSentAt;
+
+    /**
+     * @param initialRecordSize  the maximum amount of application data in a record until the connection warms up
+     * @param rampUpThreshold    the number of bytes sent before records get full-sized
+     * @param idleTimeoutMillis  an idle period after which records get small again
+     */
+    RecordSizer(int initialRecordSize, long rampUpThreshold, long idleTimeoutMillis) {
+        if (initialRecordSize <= 0 || rampUpThreshold <= 0 || idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Record size, threshold and idle timeout should be positive");
+        }
+
+        this.initialRecordSize = initialRecordSize;
+        this.rampUpThreshold = rampUpThreshold;
+        this.idleTimeout = idleTimeoutMillis * NANOS_IN_MILLISECOND;
+    }
+
+    /**
+     * @return the maximum amount of application data to be put in the next record
+     */
+    int recordLimit() {
+        return recordLimit(System.nanoTime());
+    }
+
+    /**
+     * @param bytes  the amount of application data that has been wrapped
+     */
+    void recordSent(long bytes) {
+        recordSent(bytes, System.nanoTime());
+    }
+
+    int recordLimit(long now) {
+        if (sentSinceIdle > 0 && now - lastSentAt > idleTimeout) {
+            sentSinceIdle = 0;
+        }
+
+        return sentSinceIdle < rampUpThreshold ? initialRecordSize : Integer.MAX_VALUE;
+    }
+
+    void recordSent(long bytes, long now) {
+        if (bytes > 0) {
+            sentSinceIdle += bytes;
+            lastSentAt = now;
+        }
+    }
+}
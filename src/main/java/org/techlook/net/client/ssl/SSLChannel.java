@@ -24,7 +24,11 @@
 
 package org.techlook.net.client.ssl;
 
+import org.techlook.net.client.BackpressuredListener;
+import org.techlook.net.client.ByteBufferListener;
 import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.ConnectionAwareListener;
+import org.techlook.net.client.DrainAwareListener;
 import org.techlook.net.client.Fault;
 import org.techlook.net.client.SocketClient;
 
@@ -33,23 +37,60 @@ import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SSLChannel extends AbstractSSLAction
+        implements BackpressuredListener, ByteBufferListener, ConnectionAwareListener, DrainAwareListener {
+    private static final ByteBuffer NO_DATA = ByteBuffer.allocate(0);
+
+    private enum Unwrapping { NEXT_CHUNK, HANDSHAKE, STALLED, CLOSED }
 
-class SSLChannel extends AbstractSSLAction implements ChannelListener {
     private final OutgoingAction outgoing;
     private final OutgoingAction outgoingHandshakingAction;
     private volatile ByteBuffer incomingNetData;
     private volatile ByteBuffer incomingAppData;
     private volatile ByteBuffer residueChunk;
+    private volatile HandshakeObserver handshakeObserver;
+    private volatile long handshakeStartedAt;
+    private volatile HandshakeExecutor handshakeExecutor;
+    private volatile ConnectionTimingListener timingListener;
+    private final long startedAt = System.nanoTime();
+    private volatile long tcpConnectedAt = ConnectionTimings.UNKNOWN;
+    private volatile long clientHelloSentAt = ConnectionTimings.UNKNOWN;
+    private volatile long handshakeFinishedAt = ConnectionTimings.UNKNOWN;
+    private volatile boolean isResumed;
+    private final AtomicBoolean timingsReported = new AtomicBoolean(false);
+    private volatile boolean isClosePending;
+    private final AtomicBoolean isCloseForwarded = new AtomicBoolean(false);
+    private final AtomicInteger pendingTasks = new AtomicInteger(0);
+    private final Runnable taskCompletion = new Runnable() {
+        @Override
+        public void run() {
+            if (pendingTasks.decrementAndGet() == 0) {
+                shakeUp();
+            }
+        }
+    };
 
 
     public SSLChannel(final SSLEngine engine,
                       final ChannelListener listener, final ForkJoinPool threadPool, final SocketClient transport) {
         super(engine, listener, threadPool, transport, null);
 
-        incomingNetData = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
-        incomingAppData = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
         outgoing = new OutgoingAction(engine, this, threadPool, transport, this);
         outgoingHandshakingAction = new OutgoingHandshakingAction(engine, this, threadPool, transport, this);
+
+        if (listener instanceof BackpressuredListener) {
+            // the received records wait in the queue while the listener is saturated, so the queue fills up
+            // and the transport stops reading, decrypting is resumed once the listener accepts data again
+            ((BackpressuredListener) listener).setDrainCallback(new Runnable() {
+                @Override
+                public void run() {
+                    shakeUp();
+                }
+            });
+        }
     }
 
     @Override
@@ -58,42 +99,204 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
         super.waitFinishing();
     }
 
+    @Override
+    public void channelConnected() {
+        tcpConnectedAt = System.nanoTime();
+        if (listener instanceof ConnectionAwareListener) {
+            ((ConnectionAwareListener) listener).channelConnected();
+        }
+    }
+
+    @Override
+    public void channelDrained() {
+        // records of the data still being encrypted will be written and drained later
+        if (listener instanceof DrainAwareListener && outgoing.getQueueSize() == 0) {
+            ((DrainAwareListener) listener).channelDrained();
+        }
+    }
+
     @Override
     public void channelError(String message) {
+        reportTimings(ConnectionTimings.UNKNOWN);
         listener.channelError(message);
     }
 
     @Override
     public void chunkIsReceived(byte[] chunk) {
-        chunks.add(ByteBuffer.wrap(chunk));
+        chunkIsReceived(ByteBuffer.wrap(chunk));
+    }
+
+    @Override
+    public void chunkIsReceived(ByteBuffer chunk) {
+        enqueue(chunk);
         shakeUp();
     }
 
+    /**
+     * the transport is closed, but the records received before are still being decrypted, so the listener
+     * is closed by the processing task when the last of them has been delivered
+     */
     @Override
     public void close() {
-        listener.close();
+        reportTimings(ConnectionTimings.UNKNOWN);
+        isClosePending = true;
+        shakeUp();
     }
 
     @Override
     protected void processAction() {
-        do {
-            if (!processHandshake()) {
-                return;
-            }
+        // the chunks received before closing are already queued once the pending close is seen
+        boolean isClosing = isClosePending;
+        boolean isDrained;
+        leaseBuffers();
+        try {
+            isDrained = processIncoming();
+        } finally {
+            releaseIdleBuffers();
+        }
 
-            pullIncomingChunks();
-            if (incomingNetData.position() > 0) {
-                incomingNetData.flip();
+        if (isClosing && isDrained && isCloseForwarded.compareAndSet(false, true)) {
+            listener.close();
+        }
+    }
+
+    /**
+     * @return true if no more received data can be delivered, false if the listener is saturated
+     *         or a chunk has been queued meanwhile
+     */
+    private boolean processIncoming() {
+        try {
+            while (processHandshake()) {
+                ByteBuffer chunk = residueChunk;
+                residueChunk = null;
+                if (chunk == null) {
+                    if (isListenerSaturated()) {
+                        return false;
+                    }
+                    chunk = dequeue();
+                }
+
+                Unwrapping unwrapping;
                 try {
-                    while (handleUnwrap(engine.unwrap(incomingNetData, incomingAppData))) ;
-                } catch (SSLException e) {
-                    closeOnError(e);
-                    break;
+                    unwrapping = unwrapRecords(chunk != null ? chunk : NO_DATA);
                 } finally {
-                    incomingNetData.compact();
+                    deliverAppData();
+                }
+                if (unwrapping == Unwrapping.NEXT_CHUNK && chunk == null) {
+                    return getQueueSize() == 0;
+                }
+                if (unwrapping == Unwrapping.STALLED || unwrapping == Unwrapping.CLOSED) {
+                    return true;
                 }
             }
-        } while (!chunks.isEmpty() || residueChunk != null);
+            return true;
+        } catch (SSLException e) {
+            closeOnError(e);
+            return false;
+        }
+    }
+
+    @Override
+    protected void closeOnError(Exception e) {
+        // the listener is closed once, either on error or after the pending close
+        if (isCloseForwarded.compareAndSet(false, true)) {
+            super.closeOnError(e);
+        }
+    }
+
+    private boolean isListenerSaturated() {
+        return listener instanceof BackpressuredListener && ((BackpressuredListener) listener).isSaturated();
+    }
+
+    /**
+     * decrypts records right from the received chunk, only a record spanning chunks is assembled
+     * in incomingNetData
+     * @param chunk  received chunk, its unprocessed rest becomes the residue chunk if a handshake is required
+     */
+    private Unwrapping unwrapRecords(ByteBuffer chunk) throws SSLException {
+        while (true) {
+            SSLEngineResult result;
+            if (incomingNetData.position() > 0) {
+                result = unwrapSpanningRecord(chunk);
+            } else if (chunk.hasRemaining()) {
+                result = engine.unwrap(chunk, incomingAppData);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    keepPartialRecord(chunk);
+                }
+            } else {
+                return Unwrapping.NEXT_CHUNK;
+            }
+
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (!chunk.hasRemaining()) {
+                        return Unwrapping.NEXT_CHUNK;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    if (!deliverAppData()) {
+                        enlargeAppBuffer();
+                    }
+                    break;
+                case OK:
+                    boolean isHandshakeRequired = result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.FINISHED
+                            && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+                    if (isHandshakeRequired || result.bytesConsumed() == 0) {
+                        if (chunk.hasRemaining()) {
+                            residueChunk = chunk;
+                        }
+                        return isHandshakeRequired ? Unwrapping.HANDSHAKE : Unwrapping.STALLED;
+                    }
+                    break;
+                case CLOSED:
+                    engine.closeOutbound();
+                    return Unwrapping.CLOSED;
+            }
+        }
+    }
+
+    /**
+     * completes the partial record kept in incomingNetData by the beginning of the chunk and unwraps it,
+     * bytes copied beyond the record are given back to the chunk
+     */
+    private SSLEngineResult unwrapSpanningRecord(ByteBuffer chunk) throws SSLException {
+        int pendingSize = incomingNetData.position();
+        int copiedSize = Math.min(chunk.remaining(), incomingNetData.remaining());
+        ByteBuffer copied = chunk.duplicate();
+        copied.limit(copied.position() + copiedSize);
+        incomingNetData.put(copied);
+        chunk.position(copied.position());
+
+        incomingNetData.flip();
+        SSLEngineResult result = engine.unwrap(incomingNetData, incomingAppData);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+            incomingNetData.position(incomingNetData.limit());
+            incomingNetData.limit(incomingNetData.capacity());
+            if (!incomingNetData.hasRemaining()) {
+                enlargeNetBuffer();
+            }
+            return result;
+        }
+
+        int leftSize = incomingNetData.remaining();
+        if (leftSize <= copiedSize) {
+            chunk.position(chunk.position() - leftSize);
+            incomingNetData.clear();
+        } else {
+            chunk.position(chunk.position() - copiedSize);
+            incomingNetData.limit(pendingSize);
+            incomingNetData.compact();
+        }
+
+        return result;
+    }
+
+    private void keepPartialRecord(ByteBuffer chunk) {
+        int packetBufferSize = engine.getSession().getPacketBufferSize();
+        while (incomingNetData.capacity() < packetBufferSize || incomingNetData.remaining() < chunk.remaining()) {
+            enlargeNetBuffer();
+        }
+        incomingNetData.put(chunk);
     }
 
     @Override
@@ -103,10 +306,30 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
         outgoingHandshakingAction.setChannelId(channelId);
     }
 
+    void setHandshakeExecutor(HandshakeExecutor handshakeExecutor) {
+        this.handshakeExecutor = handshakeExecutor;
+    }
+
+    void setRecordSizer(RecordSizer recordSizer) {
+        outgoing.setRecordSizer(recordSizer);
+    }
+
+    void setTimingListener(ConnectionTimingListener timingListener) {
+        this.timingListener = timingListener;
+    }
+
+    void setHandshakeObserver(HandshakeObserver handshakeObserver) {
+        this.handshakeObserver = handshakeObserver;
+    }
+
     public void send(final byte[] data, final int offset, final int length) {
         outgoing.send(data, offset, length);
     }
 
+    public void send(final ByteBuffer data) {
+        outgoing.send(data);
+    }
+
     private void reset() {
         incomingAppData.clear();
         outgoingHandshakingAction.reset();
@@ -142,11 +365,17 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
                         }
                         break;
                     case NEED_TASK:
-                        dispatchBlockingTasks();
+                        if (!dispatchDelegatedTasks()) {
+                            return false;
+                        }
                         break;
                     case NOT_HANDSHAKING:
+                        handshakeStartedAt = System.currentTimeMillis();
                         engine.beginHandshake();
                         outgoingHandshakingAction.processOutgoing();
+                        if (clientHelloSentAt == ConnectionTimings.UNKNOWN) {
+                            clientHelloSentAt = System.nanoTime();
+                        }
                         break;
                     default:
                         throw new IllegalStateException(
@@ -155,7 +384,19 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
                 status = engine.getHandshakeStatus();
             }
             if (isHandshakingDone()) {
+                if (handshakeFinishedAt == ConnectionTimings.UNKNOWN) {
+                    handshakeFinishedAt = System.nanoTime();
+                    isResumed = HandshakeMetrics.isResumed(engine.getSession(), handshakeStartedAt);
+                }
                 reset();
+
+                HandshakeObserver observer = handshakeObserver;
+                if (observer != null) {
+                    observer.handshakeCompleted(engine, handshakeStartedAt);
+                }
+                if (listener instanceof HandshakeListener) {
+                    ((HandshakeListener) listener).handshakeCompleted(Alpn.selectedProtocol(engine));
+                }
             }
         } catch (Exception e) {
             closeOnError(e);
@@ -176,14 +417,16 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
                 incomingNetData.flip();
                 return incomingNetData.hasRemaining();
             case BUFFER_OVERFLOW:
-                tryToSendAlreadyReceivedAppData();
+                deliverAppData();
                 enlargeAppBuffer();
                 return true;
             case OK:
                 incomingNetData.compact();
                 pullIncomingChunks();
                 incomingNetData.flip();
-                return tryToSendAlreadyReceivedAppData() && incomingNetData.hasRemaining();
+                deliverAppData();
+                // a record without application data (e.g. a TLS 1.3 session ticket) may be followed by other ones
+                return result.bytesConsumed() > 0 && incomingNetData.hasRemaining();
             case CLOSED:
                 engine.closeOutbound();
                 break;
@@ -191,17 +434,27 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
         return false;
     }
 
-    private boolean tryToSendAlreadyReceivedAppData() {
+    /**
+     * passes decrypted data to the listener, the leased application buffer is reused, so the listener gets
+     * a copy of the data only, a buffer listener gets it as a buffer of its own
+     * @return false if there are no data
+     */
+    private boolean deliverAppData() {
         if (incomingAppData.position() == 0) {
             return false;
         }
+        reportTimings(System.nanoTime());
+
         incomingAppData.flip();
         byte[] chunk = new byte[incomingAppData.limit()];
         incomingAppData.get(chunk);
-        incomingAppData.limit(incomingAppData.capacity());
-        incomingAppData.position(0);
+        incomingAppData.clear();
 
-        listener.chunkIsReceived(chunk);
+        if (listener instanceof ByteBufferListener) {
+            ((ByteBufferListener) listener).chunkIsReceived(ByteBuffer.wrap(chunk));
+        } else {
+            listener.chunkIsReceived(chunk);
+        }
         return true;
     }
 
@@ -217,9 +470,10 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
         if (residueChunk != null) {
             int incomingRemaining = incomingNetData.remaining();
             if (residueChunk.remaining() > incomingRemaining) {
-                byte[] buffer = new byte[incomingRemaining];
-                residueChunk.get(buffer);
-                incomingNetData.put(buffer);
+                ByteBuffer head = residueChunk.duplicate();
+                head.limit(head.position() + incomingRemaining);
+                incomingNetData.put(head);
+                residueChunk.position(head.position());
                 return;
             }
 
@@ -233,7 +487,7 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
 
         ByteBuffer chunk;
         int filledSize = incomingNetData.position();
-        while (filledSize < packetBufferSize && (chunk = chunks.poll()) != null) {
+        while (filledSize < packetBufferSize && (chunk = dequeue()) != null) {
             filledSize += chunk.limit();
             if (incomingNetData.remaining() < chunk.limit()) {
                 residueChunk = chunk;
@@ -244,39 +498,109 @@ class SSLChannel extends AbstractSSLAction implements ChannelListener {
         }
     }
 
+    private synchronized void enlargeNetBuffer() {
+        incomingNetData = enlargeBuffer(incomingNetData, engine.getSession().getPacketBufferSize());
+    }
+
     private synchronized void enlargeAppBuffer() {
         incomingAppData = enlargeBuffer(incomingAppData, engine.getSession().getApplicationBufferSize());
     }
 
+    /**
+     * @return true if all delegated tasks have been completed, otherwise the channel is woken up on their completion
+     */
+    private boolean dispatchDelegatedTasks() {
+        HandshakeExecutor executor = handshakeExecutor;
+        if (executor == null) {
+            dispatchBlockingTasks();
+            return true;
+        }
+
+        if (pendingTasks.get() > 0) {
+            return false;
+        }
+
+        Runnable task;
+        pendingTasks.incrementAndGet();
+        while ((task = engine.getDelegatedTask()) != null) {
+            pendingTasks.incrementAndGet();
+            if (!executor.execute(task, taskCompletion)) {
+                pendingTasks.decrementAndGet();
+                runBlockingTask(task);
+            }
+        }
+
+        // the extra count guards against waking up before all tasks have been dispatched
+        return pendingTasks.decrementAndGet() == 0;
+    }
+
     private void dispatchBlockingTasks() {
         Runnable task;
         while ((task = engine.getDelegatedTask()) != null) {
-            final Runnable blockingTask = task;
-            try {
-                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
-                    boolean hasFinished = false;
-
-                    @Override
-                    public boolean block() {
-                        blockingTask.run();
-                        hasFinished = true;
-
-                        SSLChannel.this.shakeUp();
-                        return true;
-                    }
+            runBlockingTask(task);
+        }
+    }
 
-                    @Override
-                    public boolean isReleasable() {
-                        return hasFinished;
-                    }
-                });
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    private void runBlockingTask(final Runnable task) {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                boolean hasFinished = false;
+
+                @Override
+                public boolean block() {
+                    task.run();
+                    hasFinished = true;
+
+                    SSLChannel.this.shakeUp();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return hasFinished;
+                }
+            });
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void reportTimings(long firstByteAt) {
+        ConnectionTimingListener currentListener = timingListener;
+        if (currentListener == null || !timingsReported.compareAndSet(false, true)) {
+            return;
         }
+
+        boolean isHandshaken = handshakeFinishedAt != ConnectionTimings.UNKNOWN;
+        currentListener.connectionMeasured(new ConnectionTimings(engine.getPeerHost(), engine.getPeerPort(),
+                startedAt, tcpConnectedAt, clientHelloSentAt, handshakeFinishedAt, firstByteAt,
+                isHandshaken ? engine.getSession().getProtocol() : null,
+                isHandshaken ? engine.getSession().getCipherSuite() : null,
+                isResumed));
     }
 
     boolean hasNoUnprocessedData() {
         return chunks.isEmpty() && residueChunk == null;
     }
+
+    boolean holdsNoBuffers() {
+        return incomingNetData == null && incomingAppData == null && outgoing.holdsNoBuffers()
+                && outgoingHandshakingAction.holdsNoBuffers();
+    }
+
+    private synchronized void leaseBuffers() {
+        if (incomingNetData == null) {
+            incomingNetData = BufferPool.SHARED.acquire(engine.getSession().getPacketBufferSize());
+        }
+        if (incomingAppData == null) {
+            incomingAppData = BufferPool.SHARED.acquire(engine.getSession().getApplicationBufferSize());
+        }
+    }
+
+    private synchronized void releaseIdleBuffers() {
+        if (residueChunk == null) {
+            incomingNetData = releaseIfEmpty(incomingNetData);
+        }
+        incomingAppData = releaseIfEmpty(incomingAppData);
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import java.security.GeneralSecurityException;
+
+/**
+ * Creates TLS contexts and engines used by {@link SSLSocketClient}, so an alternative JSSE provider
+ * (e.g. Conscrypt) can be plugged in.
+ *
+ * @see ProviderSSLEngineFactory
+ */
+public interface SSLEngineFactory {
+    /**
+     * Creates and initializes a context shared by connections of a client
+     * @param keyManagers    key managers, or null
+     * @param trustManagers  trust managers
+     * @return initialized context
+     * @throws GeneralSecurityException if the provider doesn't support the protocol or fails to initialize
+     */
+    SSLContext createContext(KeyManager[] keyManagers, TrustManager[] trustManagers) throws GeneralSecurityException;
+
+    /**
+     * Creates an engine of a connection, the client mode and per-connection options are set by the client
+     * @param context  the context previously created by this factory
+     * @param host     the remote host
+     * @param port     the remote port
+     * @return new engine
+     */
+    SSLEngine createEngine(SSLContext context, String host, int port);
+}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import javax.net.ssl.SSLEngine;
+import java.util.Arrays;
+
+/**
+ * Per-connection TLS settings
+ *
+ *   SSLOptions options = new SSLOptions()
+ *           .applicationProtocols("h2", "http/1.1")
+ *           .protocols("TLSv1.3", "TLSv1.2");
+ *   int channel = sslClient.connect(server, handshakeListener, options);
+ */
+public class SSLOptions {
+    /**
+     * Application data of a small record, it fits a 1460 bytes MSS together with the record and TCP/IP overheads
+     */
+    public static final int DEFAULT_INITIAL_RECORD_SIZE = 1360;
+    public static final long DEFAULT_RAMP_UP_THRESHOLD = 1024 * 1024;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 1000;
+
+    private String[] applicationProtocols;
+    private String[] protocols;
+    private String[] cipherSuites;
+    private String identity;
+    private int initialRecordSize = DEFAULT_INITIAL_RECORD_SIZE;
+    private long rampUpThreshold = DEFAULT_RAMP_UP_THRESHOLD;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    /**
+     * Protocols offered by ALPN in the order of preference, the selected one is reported
+     * to a {@link HandshakeListener}. ALPN requires Java 9+ (Android 10+).
+     * @param protocols  protocol names, e.g. "h2", "http/1.1"
+     * @return these options
+     */
+    public SSLOptions applicationProtocols(String... protocols) {
+        applicationProtocols = protocols == null || protocols.length == 0 ? null : protocols.clone();
+        return this;
+    }
+
+    /**
+     * @return protocols offered by ALPN or null if ALPN isn't used
+     */
+    public String[] getApplicationProtocols() {
+        return applicationProtocols == null ? null : applicationProtocols.clone();
+    }
+
+    /**
+     * Protocol versions enabled for the connection, the engine defaults are used if they aren't set
+     * @param protocols  protocol names supported by the provider, e.g. "TLSv1.3", "TLSv1.2"
+     * @return these options
+     */
+    public SSLOptions protocols(String... protocols) {
+        this.protocols = protocols == null || protocols.length == 0 ? null : protocols.clone();
+        return this;
+    }
+
+    /**
+     * @return enabled protocol versions or null if the engine defaults are used
+     */
+    public String[] getProtocols() {
+        return protocols == null ? null : protocols.clone();
+    }
+
+    /**
+     * Cipher suites enabled for the connection, the engine defaults are used if they aren't set
+     * @param cipherSuites  suite names supported by the provider, e.g. "TLS_AES_128_GCM_SHA256"
+     * @return these options
+     */
+    public SSLOptions cipherSuites(String... cipherSuites) {
+        this.cipherSuites = cipherSuites == null || cipherSuites.length == 0 ? null : cipherSuites.clone();
+        return this;
+    }
+
+    /**
+     * @return enabled cipher suites or null if the engine defaults are used
+     */
+    public String[] getCipherSuites() {
+        return cipherSuites == null ? null : cipherSuites.clone();
+    }
+
+    /**
+     * Client identity used by the connection regardless of the identity bound to the host
+     * @param identity  a name of the identity added to the client
+     * @return these options
+     * @see SSLSocketClient#addIdentity(String, javax.net.ssl.KeyManager[])
+     */
+    public SSLOptions identity(String identity) {
+        this.identity = identity;
+        return this;
+    }
+
+    /**
+     * @return the name of the client identity, or null if it's selected by the host
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Dynamic record sizing: records fitting a single TCP segment are sent after the handshake and after an idle
+     * period, so the peer is able to decrypt the first bytes of a response early. Records get full-sized
+     * once the threshold has been sent.
+     * @param initialRecordSize  the maximum amount of application data in a small record
+     * @param rampUpThreshold    the number of bytes sent in small records
+     * @param idleTimeoutMillis  an idle period after which records get small again
+     * @return these options
+     */
+    public SSLOptions recordSizing(int initialRecordSize, long rampUpThreshold, long idleTimeoutMillis) {
+        if (initialRecordSize <= 0 || rampUpThreshold < 0 || idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Record size and idle timeout should be positive");
+        }
+
+        this.initialRecordSize = initialRecordSize;
+        this.rampUpThreshold = rampUpThreshold;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Disables dynamic record sizing, records are always filled up to the maximum size
+     * @return these options
+     */
+    public SSLOptions fullSizeRecords() {
+        rampUpThreshold = 0;
+        return this;
+    }
+
+    public int getInitialRecordSize() {
+        return initialRecordSize;
+    }
+
+    /**
+     * @return the number of bytes sent in small records, 0 if dynamic record sizing is disabled
+     */
+    public long getRampUpThreshold() {
+        return rampUpThreshold;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * applies the options to a client engine
+     * @throws IllegalArgumentException if a protocol or a cipher suite isn't supported by the engine
+     */
+    void configure(SSLEngine engine) {
+        if (protocols != null) {
+            engine.setEnabledProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            engine.setEnabledCipherSuites(cipherSuites);
+        }
+        if (applicationProtocols != null) {
+            Alpn.offer(engine, applicationProtocols);
+        }
+    }
+
+    RecordSizer newRecordSizer() {
+        return rampUpThreshold > 0 ? new RecordSizer(initialRecordSize, rampUpThreshold, idleTimeoutMillis) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "SSLOptions{applicationProtocols=" + Arrays.toString(applicationProtocols)
+                + ", protocols=" + Arrays.toString(protocols)
+                + ", cipherSuites=" + Arrays.toString(cipherSuites)
+                + ", identity=" + identity
+                + ", initialRecordSize=" + initialRecordSize
+                + ", rampUpThreshold=" + rampUpThreshold
+                + ", idleTimeoutMillis=" + idleTimeoutMillis + '}';
+    }
+}
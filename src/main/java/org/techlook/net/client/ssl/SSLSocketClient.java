@@ -25,6 +25,7 @@
 package org.techlook.net.client.ssl;
 
 import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.Fault;
 import org.techlook.net.client.ResultedCompletion;
 import org.techlook.net.client.SocketClient;
 import org.techlook.net.client.nio.TransportChannel;
@@ -33,8 +34,10 @@ import javax.net.ssl.*;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -43,23 +46,101 @@ import java.util.concurrent.ForkJoinPool;
 
 public class SSLSocketClient implements SocketClient {
     private final SocketClient transport;
-    private final KeyManager[] keyManagers;
-    private final TrustManager[] specifiedTrustManagers;
     private final ConcurrentMap<Integer, SSLChannel> sslChannels = new ConcurrentHashMap<>();
+    private final Object contextLock = new Object();
+    private final HandshakeMetrics handshakeMetrics = new HandshakeMetrics();
+    private final HostLatencyHistograms latencyHistograms = new HostLatencyHistograms();
+    private volatile ConnectionTimingListener timingListener;
+    private final ConnectionTimingListener timingRecorder = new ConnectionTimingListener() {
+        @Override
+        public void connectionMeasured(ConnectionTimings timings) {
+            latencyHistograms.connectionMeasured(timings);
+
+            ConnectionTimingListener listener = timingListener;
+            if (listener != null) {
+                listener.connectionMeasured(timings);
+            }
+        }
+    };
+    private final HandshakeExecutor handshakeExecutor;
+    private final boolean ownsHandshakeExecutor;
+    private final SSLEngineFactory engineFactory;
+    private final HandshakeObserver handshakeObserver = new HandshakeObserver() {
+        @Override
+        public void handshakeCompleted(SSLEngine engine, long startedAt) {
+            handshakeMetrics.handshakeCompleted(engine.getSession(), startedAt);
+        }
+    };
+    private volatile KeyManager[] keyManagers;
+    private volatile TrustManager[] specifiedTrustManagers;
+
+    /**
+     * the context is built once and shared by all connections, so TLS sessions are resumed between them
+     */
+    private volatile SSLContext context;
+
+    /**
+     * client identities (key managers) by their names, a context is cached per identity
+     */
+    private final ConcurrentMap<String, KeyManager[]> identities = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SSLContext> identityContexts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> hostIdentities = new ConcurrentHashMap<>();
+    private volatile int sessionCacheSize = -1;
+    private volatile int sessionTimeout = -1;
 
     public SSLSocketClient(SocketClient client) {
         this(client, null, null);
     }
 
     public SSLSocketClient(SocketClient client, KeyManager[] keyManagers, TrustManager[] trustManagers) {
+        this(client, keyManagers, trustManagers, null);
+    }
+
+    /**
+     * @param client             transport
+     * @param keyManagers        key managers, or null
+     * @param trustManagers      trust managers appended to the system ones, or null
+     * @param handshakeExecutor  executor of handshake delegated tasks which may be shared by several clients,
+     *                           if it's null the client creates its own one
+     */
+    public SSLSocketClient(SocketClient client, KeyManager[] keyManagers, TrustManager[] trustManagers,
+                           HandshakeExecutor handshakeExecutor) {
+        this(client, keyManagers, trustManagers, handshakeExecutor, null);
+    }
+
+    /**
+     * @param client             transport
+     * @param keyManagers        key managers, or null
+     * @param trustManagers      trust managers appended to the system ones, or null
+     * @param handshakeExecutor  executor of handshake delegated tasks which may be shared by several clients,
+     *                           if it's null the client creates its own one
+     * @param engineFactory      factory of contexts and engines, if it's null the system JSSE provider is used
+     */
+    public SSLSocketClient(SocketClient client, KeyManager[] keyManagers, TrustManager[] trustManagers,
+                           HandshakeExecutor handshakeExecutor, SSLEngineFactory engineFactory) {
         this.transport = client;
+        this.engineFactory = engineFactory != null ? engineFactory : new ProviderSSLEngineFactory();
+        this.ownsHandshakeExecutor = handshakeExecutor == null;
+        this.handshakeExecutor = handshakeExecutor != null ? handshakeExecutor : new HandshakeExecutor();
         this.keyManagers = keyManagers;
         this.specifiedTrustManagers = trustManagers;
     }
 
     @Override
     public int connect(final SocketAddress server, final ChannelListener listener) throws IOException {
-        SSLChannel sslChannel = configureSSLEngine(server, listener);
+        return connect(server, listener, (SSLOptions) null);
+    }
+
+    /**
+     * Establishes TLS connection to a remote host
+     * @param server    the remote host to connect to
+     * @param listener  event listener, a {@link HandshakeListener} is notified of the handshake completion
+     * @param options   TLS settings of the connection, or null
+     * @return connection ID
+     * @throws IOException something went wrong in an underlying nio layer
+     */
+    public int connect(SocketAddress server, ChannelListener listener, SSLOptions options) throws IOException {
+        SSLChannel sslChannel = configureSSLEngine(server, listener, options);
 
         int id = transport.connect(server, sslChannel);
         sslChannels.put(id, sslChannel);
@@ -70,7 +151,22 @@ public class SSLSocketClient implements SocketClient {
     @Override
     public int connect(SocketAddress server, ChannelListener listener, TransportChannel transportChannel,
                        int readBufferSize) throws IOException {
-        SSLChannel sslChannel = configureSSLEngine(server, listener);
+        return connect(server, listener, transportChannel, readBufferSize, null);
+    }
+
+    /**
+     * Establishes TLS connection to a remote host
+     * @param server            the remote host to connect to
+     * @param listener          event listener, a {@link HandshakeListener} is notified of the handshake completion
+     * @param transportChannel  TCP or UDP
+     * @param readBufferSize    buffer size
+     * @param options           TLS settings of the connection, or null
+     * @return connection ID
+     * @throws IOException something went wrong in an underlying nio layer
+     */
+    public int connect(SocketAddress server, ChannelListener listener, TransportChannel transportChannel,
+                       int readBufferSize, SSLOptions options) throws IOException {
+        SSLChannel sslChannel = configureSSLEngine(server, listener, options);
 
         int id = transport.connect(server, sslChannel, transportChannel, readBufferSize);
         sslChannels.put(id, sslChannel);
@@ -87,17 +183,49 @@ public class SSLSocketClient implements SocketClient {
         return false;
     }
 
+    @Override
+    public synchronized boolean send(ByteBuffer data, Integer channelId) {
+        SSLChannel sslChannel = sslChannels.get(channelId);
+        if (sslChannel == null) {
+            return false;
+        }
+
+        sslChannel.send(data);
+        return true;
+    }
+
     @Override
     public void shutdown() {
+        if (ownsHandshakeExecutor) {
+            handshakeExecutor.shutdown();
+        }
         transport.shutdown();
     }
 
     @Override
     public synchronized void close(int channel) {
-        sslChannels.remove(channel).waitFinishing();
+        SSLChannel sslChannel = sslChannels.remove(channel);
+        if (sslChannel != null) {
+            sslChannel.waitFinishing();
+        }
         transport.close(channel);
     }
 
+    /**
+     * Starts the handshake without waiting for application data to be sent
+     * @param channelId  the connection ID
+     * @return false if there is no such connection
+     */
+    boolean startHandshake(int channelId) {
+        SSLChannel sslChannel = sslChannels.get(channelId);
+        if (sslChannel == null) {
+            return false;
+        }
+
+        sslChannel.shakeUp();
+        return true;
+    }
+
     @Override
     public void awaitTerminating() throws ExecutionException, InterruptedException {
         transport.awaitTerminating();
@@ -113,12 +241,250 @@ public class SSLSocketClient implements SocketClient {
         return transport.getThreadPool();
     }
 
-    private SSLChannel configureSSLEngine(SocketAddress server, ChannelListener listener) {
+    /**
+     * Configures the client session cache of the context, sessions are resumed by connections to the same host and port
+     * @param cacheSize       the maximum number of cached sessions, 0 means no limit
+     * @param timeoutSeconds  session lifetime in seconds, 0 means no limit
+     */
+    public void configureSessionCache(int cacheSize, int timeoutSeconds) {
+        if (cacheSize < 0 || timeoutSeconds < 0) {
+            throw new IllegalArgumentException("Session cache size and timeout cannot be negative");
+        }
+
+        synchronized (contextLock) {
+            sessionCacheSize = cacheSize;
+            sessionTimeout = timeoutSeconds;
+            if (context != null) {
+                configureSessionCache(context);
+            }
+            for (SSLContext identityContext : identityContexts.values()) {
+                configureSessionCache(identityContext);
+            }
+        }
+    }
+
+    /**
+     * @return executor of handshake delegated tasks providing its queue and latency metrics
+     */
+    public HandshakeExecutor handshakeExecutor() {
+        return handshakeExecutor;
+    }
+
+    /**
+     * @return latencies of TCP connecting, handshakes and the first application data per host
+     */
+    public HostLatencyHistograms latencyHistograms() {
+        return latencyHistograms;
+    }
+
+    /**
+     * @param timingListener  receives timings of every connection in addition to the latency histograms,
+     *                        it's called by a processing thread and shouldn't block; null to remove the listener
+     */
+    public void setTimingListener(ConnectionTimingListener timingListener) {
+        this.timingListener = timingListener;
+    }
+
+    /**
+     * @return counters of full and resumed handshakes of this client
+     */
+    public HandshakeMetrics handshakeMetrics() {
+        return handshakeMetrics;
+    }
+
+    /**
+     * Replaces key and trust managers, connections established afterwards use the new credentials
+     * while the already established ones are left intact
+     * @param keyManagers    new key managers, or null
+     * @param trustManagers  new trust managers appended to the system ones, or null
+     */
+    public void rotateCredentials(KeyManager[] keyManagers, TrustManager[] trustManagers) {
+        synchronized (contextLock) {
+            SSLContext rebuilt = configureSessionCache(buildContext(engineFactory, keyManagers, trustManagers));
+            this.keyManagers = keyManagers;
+            this.specifiedTrustManagers = trustManagers;
+            this.context = rebuilt;
+            // identity contexts share the trust managers, they are rebuilt on demand
+            identityContexts.clear();
+        }
+    }
+
+    /**
+     * Registers a client identity used for mutual TLS, or replaces its key managers. The connections established
+     * afterwards use the new key managers while the already established ones are left intact
+     * @param identity     identity name
+     * @param keyManagers  key managers providing the client certificate
+     */
+    public void addIdentity(String identity, KeyManager[] keyManagers) {
+        if (identity == null || keyManagers == null) {
+            throw new IllegalArgumentException("Identity name and key managers cannot be null");
+        }
+
+        synchronized (contextLock) {
+            identities.put(identity, keyManagers.clone());
+            identityContexts.remove(identity);
+        }
+    }
+
+    /**
+     * Removes the identity, the hosts bound to it are connected with the default key managers afterwards
+     * @param identity  identity name
+     */
+    public void removeIdentity(String identity) {
+        synchronized (contextLock) {
+            identities.remove(identity);
+            identityContexts.remove(identity);
+        }
+    }
+
+    /**
+     * Selects the client identity by the host name sent in SNI
+     * @param host      host name, or a wildcard like "*.internal.example.com" matching all its subdomains
+     * @param identity  a name of the identity previously added
+     */
+    public void bindHost(String host, String identity) {
+        if (host == null || identity == null) {
+            throw new IllegalArgumentException("Host and identity cannot be null");
+        }
+
+        hostIdentities.put(host.toLowerCase(Locale.ROOT), identity);
+    }
+
+    /**
+     * @param host  the host name or the wildcard previously bound
+     */
+    public void unbindHost(String host) {
+        hostIdentities.remove(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param host  host name
+     * @return the name of the identity bound to the host either directly or by the most specific wildcard,
+     * or null if the default key managers are used
+     */
+    public String identityOf(String host) {
+        String name = host.toLowerCase(Locale.ROOT);
+        String identity = hostIdentities.get(name);
+        if (identity != null) {
+            return identity;
+        }
+
+        int dot = name.indexOf('.');
+        while (dot >= 0) {
+            identity = hostIdentities.get("*" + name.substring(dot));
+            if (identity != null) {
+                return identity;
+            }
+            dot = name.indexOf('.', dot + 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Rebuilds the context with the current credentials, e.g. when the system trust store has been changed,
+     * the cached TLS sessions are discarded
+     */
+    public void rebuildContext() {
+        synchronized (contextLock) {
+            context = configureSessionCache(buildContext(engineFactory, keyManagers, specifiedTrustManagers));
+            identityContexts.clear();
+        }
+    }
+
+    SSLContext context() {
+        SSLContext current = context;
+        if (current == null) {
+            synchronized (contextLock) {
+                current = context;
+                if (current == null) {
+                    current = configureSessionCache(
+                            buildContext(engineFactory, keyManagers, specifiedTrustManagers));
+                    context = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * @param host     the remote host
+     * @param options  connection options which may specify an identity, or null
+     * @return the context of the identity selected for the connection
+     */
+    SSLContext contextFor(String host, SSLOptions options) {
+        String identity = options != null && options.getIdentity() != null ? options.getIdentity() : identityOf(host);
+        if (identity == null) {
+            return context();
+        }
+
+        SSLContext current = identityContexts.get(identity);
+        if (current == null) {
+            synchronized (contextLock) {
+                current = identityContexts.get(identity);
+                if (current == null) {
+                    KeyManager[] identityKeyManagers = identities.get(identity);
+                    if (identityKeyManagers == null) {
+                        throw new IllegalArgumentException("Unknown client identity: " + identity);
+                    }
+
+                    current = configureSessionCache(
+                            buildContext(engineFactory, identityKeyManagers, specifiedTrustManagers));
+                    identityContexts.put(identity, current);
+                }
+            }
+        }
+
+        return current;
+    }
+
+    private SSLChannel configureSSLEngine(SocketAddress server, ChannelListener listener, SSLOptions options)
+            throws IOException {
         if (!(server instanceof InetSocketAddress)) {
             throw new IllegalArgumentException("Server address should be an InetSocketAddress");
         }
 
-        SSLContext context;
+        if (!handshakeExecutor.admits()) {
+            handshakeExecutor.connectionRejected();
+            throw new IOException(Fault.HandshakeExecutorIsSaturated.getDescription());
+        }
+
+        InetSocketAddress inetAddress = (InetSocketAddress) server;
+
+        if (options == null) {
+            options = new SSLOptions();
+        }
+        String host = inetAddress.getHostString();
+        SSLEngine engine = engineFactory.createEngine(contextFor(host, options), host, inetAddress.getPort());
+        engine.setUseClientMode(true);
+        options.configure(engine);
+
+        SSLChannel sslChannel = new SSLChannel(engine, listener, transport.getThreadPool(), transport);
+        sslChannel.setHandshakeObserver(handshakeObserver);
+        sslChannel.setTimingListener(timingRecorder);
+        sslChannel.setHandshakeExecutor(handshakeExecutor);
+        sslChannel.setRecordSizer(options.newRecordSizer());
+
+        return sslChannel;
+    }
+
+    private SSLContext configureSessionCache(SSLContext context) {
+        SSLSessionContext sessionContext = context.getClientSessionContext();
+        if (sessionContext != null) {
+            if (sessionCacheSize >= 0) {
+                sessionContext.setSessionCacheSize(sessionCacheSize);
+            }
+            if (sessionTimeout >= 0) {
+                sessionContext.setSessionTimeout(sessionTimeout);
+            }
+        }
+
+        return context;
+    }
+
+    static SSLContext buildContext(SSLEngineFactory engineFactory,
+                                   KeyManager[] keyManagers, TrustManager[] specifiedTrustManagers) {
         try {
             KeyStore keyStore = null;
             if ("Dalvik".equals(System.getProperty("java.vm.name"))) {
@@ -142,17 +508,9 @@ public class SSLSocketClient implements SocketClient {
                 allTrustManagers = androidTrustManagers;
             }
 
-            context = SSLContext.getInstance("TLS");
-            context.init(keyManagers, allTrustManagers, null);
+            return engineFactory.createContext(keyManagers, allTrustManagers);
         } catch (Exception e) {
-            throw new IllegalStateException("Cannot create ssl context");
+            throw new IllegalStateException("Cannot create ssl context", e);
         }
-
-        InetSocketAddress inetAddress = (InetSocketAddress) server;
-
-        SSLEngine engine = context.createSSLEngine(inetAddress.getHostString(), inetAddress.getPort());
-        engine.setUseClientMode(true);
-
-        return new SSLChannel(engine, listener, transport.getThreadPool(), transport);
     }
 }
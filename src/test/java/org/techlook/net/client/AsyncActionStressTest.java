@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client;
+
+import org.junit.After;
+import org.junit.Test;
+import org.techlook.net.client.nio.AsyncSocketClient;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class AsyncActionStressTest {
+    private static final int PRODUCERS = 8;
+    private static final int CHUNKS_PER_PRODUCER = 20000;
+
+    private final ForkJoinPool pool = new ForkJoinPool(PRODUCERS);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void everyChunkIsProcessedOnceBySingleTask() throws InterruptedException {
+        final CountingAction action = new CountingAction(pool);
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            producers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < CHUNKS_PER_PRODUCER; j++) {
+                        action.enqueue(ByteBuffer.allocate(1));
+                        action.shakeUp();
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        action.waitFinishing();
+
+        assertEquals(PRODUCERS * CHUNKS_PER_PRODUCER, action.processed.get());
+        assertEquals(0, action.getQueueSize());
+        assertFalse("processAction has been run concurrently", action.hasOverlapped.get());
+    }
+
+    @Test
+    public void shakeUpDoesntBlockWhenActionIsSaturated() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger drained = new AtomicInteger(0);
+        CountingAction action = new CountingAction(pool) {
+            @Override
+            protected void processAction() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.processAction();
+            }
+        };
+        action.setDrainCallback(new Runnable() {
+            @Override
+            public void run() {
+                drained.incrementAndGet();
+            }
+        });
+
+        long start = System.nanoTime();
+        int chunks = 10 * AsyncSocketClient.PARALLELISM_LEVEL;
+        for (int i = 0; i < chunks; i++) {
+            action.enqueue(ByteBuffer.allocate(1));
+            action.shakeUp();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(action.isSaturated());
+        assertEquals(0, drained.get());
+
+        release.countDown();
+        action.waitFinishing();
+
+        assertEquals(chunks, action.processed.get());
+        assertEquals(1, drained.get());
+        assertFalse(action.isSaturated());
+    }
+
+    private static class CountingAction extends AsyncAction {
+        private final AtomicLong processed = new AtomicLong(0);
+        private final AtomicInteger running = new AtomicInteger(0);
+        private final AtomicBoolean hasOverlapped = new AtomicBoolean(false);
+
+        CountingAction(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected void processAction() {
+            if (running.incrementAndGet() > 1) {
+                hasOverlapped.set(true);
+            }
+
+            while (dequeue() != null) {
+                processed.incrementAndGet();
+            }
+
+            running.decrementAndGet();
+        }
+    }
+}
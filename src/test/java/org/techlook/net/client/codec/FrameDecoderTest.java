@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.codec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private CollectingListener listener;
+
+    @Before
+    public void setUp() {
+        listener = new CollectingListener();
+    }
+
+    @Test
+    public void lengthFieldIsSplitBetweenChunks() {
+        FrameDecoder decoder = new LengthFieldFrameDecoder(1024, 2);
+
+        assertTrue(decoder.decode(new byte[]{0}, listener));
+        assertTrue(listener.frames.isEmpty());
+        assertTrue(decoder.decode(new byte[]{5, 'h', 'e'}, listener));
+        assertTrue(listener.frames.isEmpty());
+        assertEquals(4, decoder.pendingBytes());
+        assertTrue(decoder.decode(new byte[]{'l', 'l', 'o'}, listener));
+
+        assertEquals(1, listener.frames.size());
+        assertEquals("hello", listener.text(0));
+        assertEquals(0, decoder.pendingBytes());
+    }
+
+    @Test
+    public void severalFramesInChunkAreNotCopied() {
+        FrameDecoder decoder = new LengthFieldFrameDecoder(1024, 1);
+        byte[] chunk = {3, 'o', 'n', 'e', 3, 't', 'w', 'o', 5, 't', 'h'};
+
+        assertTrue(decoder.decode(chunk, listener));
+        assertEquals(2, listener.frames.size());
+        assertEquals("one", listener.text(0));
+        assertEquals("two", listener.text(1));
+        assertSame(chunk, listener.frames.get(0).array());
+        assertSame(chunk, listener.frames.get(1).array());
+
+        assertTrue(decoder.decode(new byte[]{'r', 'e', 'e'}, listener));
+        assertEquals(3, listener.frames.size());
+        assertEquals("three", listener.text(2));
+    }
+
+    @Test
+    public void receivedBufferIsDecodedInPlace() {
+        FrameDecoder decoder = new LengthFieldFrameDecoder(1024, 1);
+        ByteBuffer chunk = ByteBuffer.allocate(16);
+        chunk.put(new byte[]{'x', 3, 'o', 'n', 'e', 3, 't'});
+        chunk.flip();
+        chunk.position(1);
+
+        assertTrue(decoder.decode(chunk, listener));
+        assertEquals(1, listener.frames.size());
+        assertEquals("one", listener.text(0));
+        assertSame(chunk.array(), listener.frames.get(0).array());
+
+        assertTrue(decoder.decode(ByteBuffer.wrap(new byte[]{'w', 'o'}), listener));
+        assertEquals(2, listener.frames.size());
+        assertEquals("two", listener.text(1));
+        assertSame(chunk.array(), listener.frames.get(1).array());
+    }
+
+    @Test
+    public void tooLargeFrameCorruptsStream() {
+        FrameDecoder decoder = new LengthFieldFrameDecoder(16, 4);
+
+        assertFalse(decoder.decode(new byte[]{0, 0, 1, 0, 1, 2}, listener));
+        assertTrue(listener.frames.isEmpty());
+        assertEquals(1, listener.errors.size());
+        assertEquals(0, decoder.pendingBytes());
+    }
+
+    @Test
+    public void delimiterIsSplitBetweenChunks() {
+        FrameDecoder decoder = new DelimiterFrameDecoder(64, "\r\n".getBytes(ASCII), true);
+
+        assertTrue(decoder.decode("first\r\nsec".getBytes(ASCII), listener));
+        assertTrue(decoder.decode("ond\r".getBytes(ASCII), listener));
+        assertEquals(1, listener.frames.size());
+        assertTrue(decoder.decode("\nthird\r\n".getBytes(ASCII), listener));
+
+        assertEquals(3, listener.frames.size());
+        assertEquals("first", listener.text(0));
+        assertEquals("second", listener.text(1));
+        assertEquals("third", listener.text(2));
+        assertEquals(0, decoder.pendingBytes());
+    }
+
+    @Test
+    public void missingDelimiterCorruptsStream() {
+        FrameDecoder decoder = new DelimiterFrameDecoder(4, "\n".getBytes(ASCII), false);
+
+        assertTrue(decoder.decode("abc".getBytes(ASCII), listener));
+        assertFalse(decoder.decode("defg".getBytes(ASCII), listener));
+        assertEquals(1, listener.errors.size());
+    }
+
+    @Test
+    public void encodedFramesAreDecoded() {
+        FrameEncoder encoder = new LengthFieldFrameEncoder(3);
+        FrameDecoder decoder = new LengthFieldFrameDecoder(1024, 0, 3, 0, 3, ByteOrder.BIG_ENDIAN);
+
+        ByteBuffer[] parts = encoder.encode(ByteBuffer.wrap("payload".getBytes(ASCII)));
+        for (ByteBuffer part : parts) {
+            byte[] bytes = new byte[part.remaining()];
+            part.get(bytes);
+            assertTrue(decoder.decode(bytes, listener));
+        }
+
+        assertEquals(1, listener.frames.size());
+        assertEquals("payload", listener.text(0));
+    }
+
+    private static class CollectingListener implements FrameListener {
+        private final List<ByteBuffer> frames = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void frameIsReceived(ByteBuffer frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void channelError(String message) {
+            errors.add(message);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private String text(int index) {
+            ByteBuffer frame = frames.get(index).duplicate();
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+
+            return new String(bytes, ASCII);
+        }
+    }
+}
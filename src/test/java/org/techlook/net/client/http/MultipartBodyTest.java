@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MultipartBodyTest {
+    private static final String BOUNDARY = "b0undary";
+
+    private Path file;
+    private byte[] fileContent;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("upload", ".bin");
+        fileContent = new byte[100000];
+        new Random(1).nextBytes(fileContent);
+        Files.write(file, fileContent);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void fileIsStreamedWithPrecomputedLength() throws IOException {
+        FormRequestData form = new FormRequestData();
+        form.addInputField("name", "value", "text/plain", StandardCharsets.UTF_8);
+        form.addFileField("upload", file, "application/octet-stream", null);
+
+        MultipartBody body = new MultipartBody(form, BOUNDARY);
+        assertTrue(body.hasFiles());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"name\"\r\n" +
+                "Content-Type: text/plain; charset=UTF-8\r\n\r\n" +
+                "value\r\n" +
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"upload\"; filename=\"" + file.getFileName() + "\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        expected.write(fileContent);
+        expected.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(expected.size(), body.contentLength());
+        assertArrayEquals(expected.toByteArray(), readByParts(body, 4096));
+    }
+
+    @Test
+    public void inMemoryFieldsAreEncodedAtOnce() throws IOException {
+        FormRequestData form = new FormRequestData();
+        form.addFileField("upload", "data.bin", new byte[]{1, 2, 3}, null, null);
+
+        MultipartBody body = new MultipartBody(form, BOUNDARY);
+        assertFalse(body.hasFiles());
+
+        byte[] encoded = body.toByteArray();
+        assertEquals(body.contentLength(), encoded.length);
+        assertTrue(new String(encoded, StandardCharsets.ISO_8859_1).endsWith("\u0001\u0002\u0003\r\n--" + BOUNDARY + "--\r\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFileFailsReading() throws IOException {
+        FormRequestData form = new FormRequestData();
+        form.addFileField("upload", file, null, null);
+        MultipartBody body = new MultipartBody(form, BOUNDARY);
+
+        Files.write(file, new byte[10]);
+        readByParts(body, 4096);
+    }
+
+    private static byte[] readByParts(MultipartBody body, int partSize) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteBuffer part = ByteBuffer.allocate(partSize);
+        while (body.read(part) >= 0) {
+            part.flip();
+            result.write(part.array(), 0, part.limit());
+            part.clear();
+        }
+        body.close();
+
+        return result.toByteArray();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.Fault;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PipeliningConnectionTest {
+    private static final String SERVER = "server";
+    private static final int PORT = 80;
+    private static final long TIMEOUT = 1000;
+    private static final byte[] RESPONSE =
+            "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.UTF_8);
+    private static final ForkJoinPool threadPool = new ForkJoinPool();
+
+    private final List<ChannelListener> channels = new ArrayList<>();
+    private final List<String> requestLines = new ArrayList<>();
+    private SocketClient transport;
+
+    @AfterClass
+    public static void afterAllTests() {
+        threadPool.shutdown();
+    }
+
+    @Before
+    public void standUp() throws IOException {
+        transport = mock(SocketClient.class);
+        when(transport.getThreadPool()).thenReturn(threadPool);
+        when(transport.connect(any(SocketAddress.class), any(ChannelListener.class))).then(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                synchronized (channels) {
+                    channels.add(invocation.<ChannelListener>getArgument(1));
+                    return channels.size();
+                }
+            }
+        });
+        when(transport.send(any(byte[].class), anyInt(), anyInt(), anyInt())).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                byte[] data = invocation.getArgument(0);
+                String head = new String(data, StandardCharsets.UTF_8);
+                int requestLineEnd = head.indexOf(" HTTP/1.1");
+                if (requestLineEnd > 0) {
+                    synchronized (requestLines) {
+                        requestLines.add(head.substring(0, requestLineEnd));
+                        requestLines.notifyAll();
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void requestsBeyondPipelineDepthWait() throws InterruptedException {
+        PipeliningConnection connection = PipeliningConnection.withPipelineDepth(SERVER, PORT, transport, 2);
+        HttpListener first = mock(HttpListener.class);
+
+        connection.get("/1", null, null, first);
+        connection.get("/2", null, null, mock(HttpListener.class));
+        connection.get("/3", null, null, mock(HttpListener.class));
+        assertRequestLines("GET /1", "GET /2");
+        assertEquals(2, connection.requestsInFlight());
+        assertEquals(1, connection.waitingRequests());
+
+        channel(0).chunkIsReceived(RESPONSE);
+        verify(first).complete();
+        assertRequestLines("GET /1", "GET /2", "GET /3");
+        assertEquals(2, connection.requestsInFlight());
+        assertEquals(0, connection.waitingRequests());
+    }
+
+    @Test
+    public void unansweredIdempotentRequestsAreReplayedOnNewConnection() throws IOException, InterruptedException {
+        PipeliningConnection connection = PipeliningConnection.withPipelineDepth(SERVER, PORT, transport, 4);
+        HttpListener answered = mock(HttpListener.class);
+        HttpListener replayed = mock(HttpListener.class);
+        HttpListener patch = mock(HttpListener.class);
+
+        connection.get("/answered", null, null, answered);
+        connection.get("/replayed", null, null, replayed);
+        connection.patch("/patch", null, null, "text/plain", null, new byte[]{1}, patch);
+        assertRequestLines("GET /answered", "GET /replayed", "PATCH /patch");
+
+        channel(0).chunkIsReceived(RESPONSE);
+        verify(answered).complete();
+
+        channel(0).close();
+        verify(patch).failure(Fault.RequiredSessionHasBeenClosed.getDescription());
+        verify(transport, timeout(TIMEOUT).times(2)).connect(any(SocketAddress.class), any(ChannelListener.class));
+        assertRequestLines("GET /answered", "GET /replayed", "PATCH /patch", "GET /replayed");
+        verify(replayed, never()).failure(anyString());
+
+        channel(1).chunkIsReceived(RESPONSE);
+        verify(replayed).complete();
+        verify(answered).complete();
+        assertEquals(0, connection.requestsInFlight());
+    }
+
+    @Test
+    public void requestIsFailedAfterReplayLimit() throws IOException {
+        PipeliningConnection connection = PipeliningConnection.withPipelineDepth(SERVER, PORT, transport, 1);
+        HttpListener listener = mock(HttpListener.class);
+
+        connection.head("/", null, null, listener);
+        for (int k = 0; k <= PipeliningConnection.MAX_REPLAYS; ++k) {
+            verify(transport, timeout(TIMEOUT).times(k + 1))
+                    .connect(any(SocketAddress.class), any(ChannelListener.class));
+            verify(transport, timeout(TIMEOUT).times(k + 1)).send(any(byte[].class), anyInt(), anyInt(), anyInt());
+            channel(k).close();
+        }
+
+        verify(listener, timeout(TIMEOUT)).failure(Fault.RequiredSessionHasBeenClosed.getDescription());
+        assertEquals(0, connection.requestsInFlight());
+    }
+
+    @Test
+    public void malformedResponseIsNotReplayed() throws IOException, InterruptedException {
+        PipeliningConnection connection = PipeliningConnection.withPipelineDepth(SERVER, PORT, transport, 1);
+        HttpListener listener = mock(HttpListener.class);
+
+        connection.get("/", null, null, listener);
+        assertRequestLines("GET /");
+        channel(0).chunkIsReceived("garbage\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+
+        verify(listener).failure(anyString());
+        verify(transport, times(1)).connect(any(SocketAddress.class), any(ChannelListener.class));
+        assertEquals(0, connection.requestsInFlight());
+        assertEquals(0, connection.waitingRequests());
+    }
+
+    @Test
+    public void streamedContentIsRefusedThroughListener() throws IOException {
+        PipeliningConnection connection = PipeliningConnection.withPipelineDepth(SERVER, PORT, transport, 1);
+        HttpListener listener = mock(HttpListener.class);
+        BodyPublisher content = mock(BodyPublisher.class);
+
+        connection.streamContent("PUT", "/", null, null, "text/plain", null, content, listener);
+
+        verify(content).close();
+        verify(listener).failure(Fault.StreamedContentIsNotPipelined.getDescription());
+        verify(transport, never()).connect(any(SocketAddress.class), any(ChannelListener.class));
+        assertEquals(0, connection.requestsInFlight());
+    }
+
+    private ChannelListener channel(int index) {
+        synchronized (channels) {
+            return channels.get(index);
+        }
+    }
+
+    private void assertRequestLines(String... expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        synchronized (requestLines) {
+            long now;
+            while (requestLines.size() < expected.length && (now = System.currentTimeMillis()) < deadline) {
+                requestLines.wait(deadline - now);
+            }
+            assertEquals(Arrays.asList(expected), requestLines);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.client.HttpAsyncClient;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class PooledConnectionTest {
+    private static final String PATH = "/path";
+    private static final long IDLE_TIMEOUT = 1000;
+
+    private final List<HttpAsyncClient> clients = new ArrayList<>();
+    private PooledConnection connection;
+    private volatile boolean isDisconnectedUnderMonitor;
+
+    @Before
+    public void standUp() {
+        connection = pool(2, 1);
+    }
+
+    @Test
+    public void connectionIsReusedAfterResponseCompletion() {
+        HttpListener first = mock(HttpListener.class);
+        connection.get(PATH, null, null, first);
+        requestListener(clients.get(0), 1).complete();
+        verify(first).complete();
+        assertEquals(1, connection.idleConnections());
+
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(1, clients.size());
+        assertEquals(0, connection.idleConnections());
+        verify(clients.get(0), times(2)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+    }
+
+    @Test
+    public void requestsWaitWhenConnectionLimitIsReached() {
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(2, clients.size());
+        assertEquals(2, connection.openConnections());
+
+        requestListener(clients.get(1), 1).complete();
+        verify(clients.get(1), times(2)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+        verify(clients.get(0), times(1)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+    }
+
+    @Test
+    public void connectionClosedByServerIsntReused() {
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        HttpListener listener = requestListener(clients.get(0), 1);
+        listener.respondHeaders(Collections.singletonMap("connection", "close"));
+        listener.complete();
+
+        verify(clients.get(0)).disconnect();
+        assertEquals(0, connection.openConnections());
+        assertEquals(0, connection.idleConnections());
+    }
+
+    @Test
+    public void failedConnectionIsReplacedForWaitingRequest() {
+        connection = pool(1, 1);
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(1, clients.size());
+
+        requestListener(clients.get(0), 1).failure("error");
+        verify(clients.get(0)).disconnect();
+        assertEquals(2, clients.size());
+        assertEquals(1, connection.openConnections());
+        verify(clients.get(1)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+    }
+
+    @Test
+    public void connectionEndingResponseIsReleasedOnce() {
+        HttpListener first = mock(HttpListener.class);
+        connection.get(PATH, null, null, first);
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        HttpListener listener = requestListener(clients.get(0), 1);
+        listener.connectionClosed();
+        listener.failure("error");
+
+        verify(first).connectionClosed();
+        verify(first, never()).failure(anyString());
+        verify(clients.get(0)).disconnect();
+        assertEquals(3, clients.size());
+        assertEquals(2, connection.openConnections());
+        verify(clients.get(2)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+    }
+
+    @Test
+    public void surplusAndExpiredIdleConnectionsAreClosed() {
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        requestListener(clients.get(0), 1).complete();
+        requestListener(clients.get(1), 1).complete();
+
+        verify(clients.get(1)).disconnect();
+        assertEquals(1, connection.idleConnections());
+
+        connection.evictExpired(System.currentTimeMillis() + IDLE_TIMEOUT);
+        verify(clients.get(0)).disconnect();
+        assertEquals(0, connection.idleConnections());
+        assertEquals(0, connection.openConnections());
+    }
+
+    @Test
+    public void connectionsAreDisconnectedOutOfPoolMonitor() {
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        requestListener(clients.get(0), 1).failure("error");
+        requestListener(clients.get(1), 1).complete();
+        connection.closeIdleConnections();
+
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        requestListener(clients.get(2), 1).complete();
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        requestListener(clients.get(2), 2).complete();
+        connection.evictExpired(System.currentTimeMillis() + IDLE_TIMEOUT);
+
+        for (HttpAsyncClient client : clients) {
+            verify(client).disconnect();
+        }
+        assertFalse(isDisconnectedUnderMonitor);
+        assertEquals(0, connection.openConnections());
+    }
+
+    private PooledConnection pool(int maxConnections, int maxIdleConnections) {
+        return new PooledConnection("server", 80, mock(SocketClient.class),
+                maxConnections, maxIdleConnections, IDLE_TIMEOUT) {
+            @Override
+            HttpAsyncClient createClient() {
+                HttpAsyncClient client = mock(HttpAsyncClient.class);
+                doAnswer(new Answer<Void>() {
+                    @Override
+                    public Void answer(InvocationOnMock invocation) {
+                        isDisconnectedUnderMonitor |= Thread.holdsLock(connection);
+                        return null;
+                    }
+                }).when(client).disconnect();
+                clients.add(client);
+                return client;
+            }
+        };
+    }
+
+    private static HttpListener requestListener(HttpAsyncClient client, int requests) {
+        ArgumentCaptor<HttpListener> captor = ArgumentCaptor.forClass(HttpListener.class);
+        verify(client, times(requests)).get(eq(PATH), nullSet(), nullSet(), captor.capture());
+
+        return captor.getValue();
+    }
+
+    private static Set<Pair<String, String>> nullSet() {
+        return isNull();
+    }
+}
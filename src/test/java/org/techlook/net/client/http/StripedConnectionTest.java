@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class StripedConnectionTest {
+    private static final String PATH = "/path";
+    private static final long IDLE_TIMEOUT = 1000;
+
+    private final List<PipeliningConnection> stripes = new ArrayList<>();
+    private StripedConnection connection;
+    private volatile boolean isDisconnectedUnderMonitor;
+
+    @Before
+    public void standUp() {
+        connection = new StripedConnection("server", 80, mock(SocketClient.class), 3, 4, IDLE_TIMEOUT) {
+            @Override
+            PipeliningConnection createConnection() {
+                PipeliningConnection stripe = mock(PipeliningConnection.class);
+                doAnswer(new Answer<Void>() {
+                    @Override
+                    public Void answer(InvocationOnMock invocation) {
+                        isDisconnectedUnderMonitor |= Thread.holdsLock(connection);
+                        return null;
+                    }
+                }).when(stripe).disconnect();
+                stripes.add(stripe);
+                return stripe;
+            }
+        };
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroIdleTimeoutIsRejected() {
+        new StripedConnection("server", 80, mock(SocketClient.class), 3, 4, 0);
+    }
+
+    @Test
+    public void requestsGoToLeastLoadedConnection() {
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(1, stripes.size());
+
+        when(stripes.get(0).outstandingRequests()).thenReturn(1);
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(2, stripes.size());
+
+        when(stripes.get(0).outstandingRequests()).thenReturn(2);
+        when(stripes.get(1).outstandingRequests()).thenReturn(1);
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(3, stripes.size());
+        assertEquals(3, connection.openConnections());
+
+        when(stripes.get(2).outstandingRequests()).thenReturn(3);
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(3, stripes.size());
+        verify(stripes.get(0), times(1)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+        verify(stripes.get(1), times(2)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+        verify(stripes.get(2), times(1)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+    }
+
+    @Test
+    public void idleConnectionIsReusedInsteadOfOpeningNewOne() {
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        connection.get(PATH, null, null, mock(HttpListener.class));
+
+        assertEquals(1, stripes.size());
+        verify(stripes.get(0), times(2)).get(eq(PATH), nullSet(), nullSet(), any(HttpListener.class));
+    }
+
+    @Test
+    public void onlyConnectionsIdleForTimeoutAreClosed() {
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        when(stripes.get(0).outstandingRequests()).thenReturn(1);
+        connection.get(PATH, null, null, mock(HttpListener.class));
+        assertEquals(2, connection.openConnections());
+
+        long expired = System.currentTimeMillis() + IDLE_TIMEOUT;
+        connection.evictIdle(expired);
+        verify(stripes.get(0), never()).disconnect();
+        verify(stripes.get(1)).disconnect();
+        assertEquals(1, connection.openConnections());
+
+        when(stripes.get(0).outstandingRequests()).thenReturn(0);
+        connection.evictIdle(expired);
+        verify(stripes.get(0)).disconnect();
+        assertEquals(0, connection.openConnections());
+        assertFalse(isDisconnectedUnderMonitor);
+    }
+
+    private static Set<Pair<String, String>> nullSet() {
+        return isNull();
+    }
+}
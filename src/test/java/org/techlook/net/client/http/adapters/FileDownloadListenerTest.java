@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.adapters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.techlook.net.client.Consumer;
+import org.techlook.net.client.Either;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileDownloadListenerTest {
+    private static final int CHUNK_SIZE = 1000;
+
+    private Path file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("download", ".bin");
+        content = new byte[10 * CHUNK_SIZE + 123];
+        new Random(5).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void contentOfKnownLengthIsWrittenToFile() throws IOException {
+        RecordingListener listener = new RecordingListener(file);
+        listener.responseCode(200, "HTTP/1.1", "OK");
+        listener.respondHeaders(Collections.singletonMap("content-length", String.valueOf(content.length)));
+        receive(listener);
+        listener.complete();
+
+        assertEquals(200, listener.response.getCode());
+        assertNull(listener.error);
+        assertEquals(content.length, listener.lastReceived);
+        assertEquals(content.length, listener.lastTotal);
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void contentOfUnknownLengthIsWrittenToFile() throws IOException {
+        Files.write(file, new byte[2 * content.length]);
+
+        RecordingListener listener = new RecordingListener(file);
+        listener.responseCode(200, "HTTP/1.1", "OK");
+        Map<String, String> headers = new HashMap<>();
+        headers.put("transfer-encoding", "chunked");
+        listener.respondHeaders(headers);
+        receive(listener);
+        listener.complete();
+
+        assertNotNull(listener.response);
+        assertEquals(FileDownloadListener.UNKNOWN_SIZE, listener.lastTotal);
+        assertArrayEquals("The previous file content is replaced", content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void truncatedContentFailsDownload() throws IOException {
+        RecordingListener listener = new RecordingListener(file);
+        listener.responseCode(200, "HTTP/1.1", "OK");
+        listener.respondHeaders(Collections.singletonMap("content-length", String.valueOf(2 * content.length)));
+        receive(listener);
+        listener.connectionClosed();
+
+        assertNull(listener.response);
+        assertNotNull(listener.error);
+    }
+
+    private void receive(FileDownloadListener listener) {
+        for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+            listener.respond(Arrays.copyOfRange(content, offset, Math.min(offset + CHUNK_SIZE, content.length)));
+        }
+    }
+
+    private static class RecordingListener extends FileDownloadListener {
+        private Response response;
+        private String error;
+        private long lastReceived;
+        private long lastTotal;
+
+        RecordingListener(Path file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        protected void progress(long received, long total) {
+            assertTrue(received > lastReceived);
+            lastReceived = received;
+            lastTotal = total;
+        }
+
+        @Override
+        public void downloaded(Either<String, Response> result) {
+            result.right().apply(new Consumer<Response>() {
+                @Override
+                public void consume(Response value) {
+                    response = value;
+                }
+            });
+            result.left().apply(new Consumer<String>() {
+                @Override
+                public void consume(String message) {
+                    error = message;
+                }
+            });
+        }
+    }
+}
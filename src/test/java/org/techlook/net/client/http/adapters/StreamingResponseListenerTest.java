@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.adapters;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.client.HttpAsyncClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StreamingResponseListenerTest {
+    private static final long TIMEOUT = 5000;
+    private static final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @AfterClass
+    public static void releaseTestResources() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void chunksArePassedOnDemand() {
+        CollectingListener listener = new CollectingListener();
+        CountingCallback callback = new CountingCallback();
+        listener.setDrainCallback(callback);
+
+        listener.respond(new byte[]{1});
+        listener.respond(new byte[]{2});
+        listener.respond(new byte[]{3});
+        assertTrue(listener.chunks.isEmpty());
+        assertTrue("Chunks beyond the demand stop reading", listener.isSaturated());
+
+        listener.request(2);
+        assertEquals(2, listener.chunks.size());
+        assertTrue(listener.isSaturated());
+        assertEquals(0, callback.calls.get());
+
+        listener.request(1);
+        assertEquals(3, listener.chunks.size());
+        assertFalse(listener.isSaturated());
+        assertEquals("Reading is resumed once", 1, callback.calls.get());
+
+        listener.complete();
+        assertTrue(listener.isCompleted);
+    }
+
+    @Test
+    public void completionFollowsPendingChunks() {
+        CollectingListener listener = new CollectingListener();
+        listener.respond(new byte[]{1});
+        listener.complete();
+        assertFalse(listener.isCompleted);
+
+        listener.request(Long.MAX_VALUE);
+        listener.request(Long.MAX_VALUE);
+        assertEquals(1, listener.chunks.size());
+        assertTrue(listener.isCompleted);
+    }
+
+    @Test
+    public void failureDropsPendingChunksAndResumesReading() {
+        CollectingListener listener = new CollectingListener();
+        CountingCallback callback = new CountingCallback();
+        listener.setDrainCallback(callback);
+
+        listener.respond(new byte[]{1});
+        assertTrue(listener.isSaturated());
+        listener.failure("broken");
+
+        assertEquals("broken", listener.error);
+        assertEquals(0, listener.pendingChunks());
+        assertFalse(listener.isSaturated());
+        assertEquals(1, callback.calls.get());
+        assertTrue(listener.chunks.isEmpty());
+    }
+
+    @Test
+    public void streamIsFedWithoutBlocking() throws IOException {
+        InputStreamListener listener = new InputStreamListener() {
+            @Override
+            public void responseCode(int code, String httpVersion, String description) {
+            }
+        };
+
+        byte[] content = new byte[100 * 1024];
+        new Random(3).nextBytes(content);
+        for (int offset = 0; offset < content.length; offset += 1000) {
+            listener.respond(Arrays.copyOfRange(content, offset, Math.min(offset + 1000, content.length)));
+        }
+        listener.complete();
+        assertTrue(listener.isSaturated());
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        InputStream input = listener.toInputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            received.write(buffer, 0, read);
+        }
+
+        assertArrayEquals(content, received.toByteArray());
+        assertFalse(listener.isSaturated());
+    }
+
+    @Test
+    public void failureEndsStreamWithError() throws IOException {
+        final AtomicReference<String> failure = new AtomicReference<>();
+        InputStreamListener listener = new InputStreamListener() {
+            @Override
+            public void responseCode(int code, String httpVersion, String description) {
+            }
+
+            @Override
+            protected void onFailure(String message) {
+                failure.set(message);
+            }
+        };
+
+        listener.respond(new byte[]{1});
+        listener.failure("error");
+        assertEquals("error", failure.get());
+
+        InputStream input = listener.toInputStream();
+        try {
+            while (input.read() >= 0) {
+                // the received byte may precede the failure
+            }
+            fail("The failure has been taken for the end of the content");
+        } catch (IOException e) {
+            assertEquals("error", e.getMessage());
+        }
+    }
+
+    @Test
+    public void connectionIsNotReadWhileListenerIsSaturated() throws Exception {
+        SocketClient socketClient = mock(SocketClient.class);
+        when(socketClient.getThreadPool()).thenReturn(pool);
+        when(socketClient.send(any(byte[].class), anyInt(), anyInt(), any(Integer.class))).thenReturn(true);
+
+        HttpAsyncClient http = new HttpAsyncClient("server", 80, true, socketClient);
+        CountingCallback callback = new CountingCallback();
+        http.setDrainCallback(callback);
+
+        CollectingListener listener = new CollectingListener();
+        http.get("/", null, null, listener);
+        http.chunkIsReceived("HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nab".getBytes(StandardCharsets.US_ASCII));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (listener.pendingChunks() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertTrue(http.isSaturated());
+
+        listener.request(1);
+        assertFalse(http.isSaturated());
+        assertEquals(1, callback.calls.get());
+    }
+
+    private static class CollectingListener extends StreamingResponseListener {
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private volatile boolean isCompleted;
+        private volatile String error;
+
+        @Override
+        public void responseCode(int code, String httpVersion, String description) {
+        }
+
+        @Override
+        protected void onNext(ByteBuffer chunk) {
+            chunks.add(chunk);
+        }
+
+        @Override
+        protected void onComplete() {
+            isCompleted = true;
+        }
+
+        @Override
+        protected void onError(String message) {
+            error = message;
+        }
+    }
+
+    private static class CountingCallback implements Runnable {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void run() {
+            calls.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.client;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.mockito.stubbing.Answer;
+import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.Fault;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.http.BodyPublisher;
+import org.techlook.net.client.http.BodyPublishers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+public class BodyTransferTest {
+    private static final String SERVER = "server";
+    private static final int PORT = 1234;
+    private static final int CHANNEL_ID = 7;
+    private static final long TIMEOUT = 5000;
+    private static final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule().strictness(Strictness.LENIENT);
+
+    @Mock
+    private SocketClient socketClient;
+
+    @Mock
+    private HttpListener listener;
+
+    private final List<byte[]> heads = Collections.synchronizedList(new ArrayList<byte[]>());
+    private final List<byte[]> parts = Collections.synchronizedList(new ArrayList<byte[]>());
+    private HttpAsyncClient http;
+
+    @Before
+    public void setUp() throws IOException {
+        when(socketClient.getThreadPool()).thenReturn(pool);
+        when(socketClient.connect(eq(new InetSocketAddress(SERVER, PORT)), any(ChannelListener.class)))
+                .thenReturn(CHANNEL_ID);
+        when(socketClient.send(any(byte[].class), anyInt(), anyInt(), eq(CHANNEL_ID))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                byte[] data = invocation.getArgument(0);
+                int offset = invocation.getArgument(1);
+                int length = invocation.getArgument(2);
+                heads.add(Arrays.copyOfRange(data, offset, offset + length));
+                return true;
+            }
+        });
+        when(socketClient.send(any(ByteBuffer.class), eq(CHANNEL_ID))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ByteBuffer data = invocation.getArgument(0);
+                byte[] part = new byte[data.remaining()];
+                data.get(part);
+                parts.add(part);
+                return true;
+            }
+        });
+
+        http = new HttpAsyncClient(SERVER, PORT, true, socketClient);
+    }
+
+    @AfterClass
+    public static void releaseTestResources() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void bodyOfUnknownLengthIsChunkedAndPacedByDrains() throws InterruptedException {
+        byte[] body = randomBody(6 * BodyTransfer.PART_SIZE + 100);
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                BodyPublishers.ofInputStream(new ByteArrayInputStream(body), BodyPublishers.UNKNOWN_LENGTH), listener);
+
+        awaitParts(BodyTransfer.PARTS_PER_RUN);
+        Thread.sleep(100);
+        assertEquals("Parts are read only when the transport drains", BodyTransfer.PARTS_PER_RUN, parts.size());
+
+        while (!isLastChunkSent()) {
+            http.channelDrained();
+            Thread.sleep(10);
+        }
+
+        String head = new String(heads.get(0), StandardCharsets.US_ASCII);
+        assertTrue(head.startsWith("PUT /upload HTTP/1.1\n"));
+        assertTrue(head.contains("Transfer-Encoding: chunked\n"));
+        assertFalse(head.contains("Content-Length"));
+        assertArrayEquals(body, dechunk(concatenate(parts)));
+        verify(listener, never()).failure(any(String.class));
+    }
+
+    @Test
+    public void bodyOfKnownLengthIsSentAsIs() throws InterruptedException {
+        byte[] first = randomBody(1000);
+        byte[] second = randomBody(3000);
+        http.streamContent(HttpAsyncClient.Method.POST, "/upload", null, null, "text/plain", StandardCharsets.UTF_8,
+                BodyPublishers.ofBuffers(Arrays.asList(ByteBuffer.wrap(first), ByteBuffer.wrap(second)).iterator(),
+                        first.length + second.length), listener);
+
+        awaitParts(2);
+
+        String head = new String(heads.get(0), StandardCharsets.US_ASCII);
+        assertTrue(head.contains("Content-type: text/plain; charset=UTF-8\nContent-Length: 4000\n"));
+        assertFalse(head.contains("Transfer-Encoding"));
+        byte[] sent = concatenate(parts);
+        assertArrayEquals(first, Arrays.copyOfRange(sent, 0, first.length));
+        assertArrayEquals(second, Arrays.copyOfRange(sent, first.length, sent.length));
+    }
+
+    @Test
+    public void truncatedBodyFailsRequestAndClosesConnection() {
+        byte[] body = randomBody(100);
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                BodyPublishers.ofInputStream(new ByteArrayInputStream(body), 200), listener);
+
+        verify(listener, timeout(TIMEOUT)).failure(startsWith(
+                Fault.RequestBodyReadError.format("").trim()));
+        verify(socketClient, timeout(TIMEOUT)).close(CHANNEL_ID);
+    }
+
+    @Test
+    public void bodyShorterThanItsLengthFailsRequest() {
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                BodyPublishers.ofBuffers(Collections.singletonList(ByteBuffer.wrap(randomBody(100))).iterator(), 200),
+                listener);
+
+        verify(listener, timeout(TIMEOUT)).failure(
+                Fault.RequestBodyReadError.format("the body has ended after 100 of 200 bytes"));
+        verify(socketClient, timeout(TIMEOUT)).close(CHANNEL_ID);
+    }
+
+    @Test
+    public void bodyLongerThanItsLengthFailsRequest() {
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                BodyPublishers.ofBuffers(Collections.singletonList(ByteBuffer.wrap(randomBody(300))).iterator(), 200),
+                listener);
+
+        verify(listener, timeout(TIMEOUT)).failure(
+                Fault.RequestBodyReadError.format("the body is longer than its length 200"));
+        verify(socketClient, timeout(TIMEOUT)).close(CHANNEL_ID);
+        assertTrue(parts.isEmpty());
+    }
+
+    @Test
+    public void idleNonBlockingSourceIsPolledWithDelay() throws InterruptedException {
+        final byte[] body = randomBody(1000);
+        final AtomicInteger reads = new AtomicInteger();
+        final long readyAt = System.currentTimeMillis() + 200;
+        BodyPublisher publisher = new BodyPublisher() {
+            private boolean isSent;
+
+            @Override
+            public long contentLength() {
+                return body.length;
+            }
+
+            @Override
+            public int read(ByteBuffer destination) {
+                reads.incrementAndGet();
+                if (isSent) {
+                    return -1;
+                } else if (System.currentTimeMillis() < readyAt) {
+                    return 0;
+                }
+                isSent = true;
+                destination.put(body);
+                return body.length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                publisher, listener);
+
+        awaitParts(1);
+        assertArrayEquals(body, concatenate(parts));
+        assertTrue("The source is polled with a delay, reads: " + reads.get(), reads.get() < 50);
+        verify(listener, never()).failure(any(String.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void anotherBodyCannotBeStreamedConcurrently() {
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                BodyPublishers.ofInputStream(new ByteArrayInputStream(randomBody(10 * BodyTransfer.PART_SIZE)),
+                        BodyPublishers.UNKNOWN_LENGTH), listener);
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                BodyPublishers.ofInputStream(new ByteArrayInputStream(randomBody(10)), 10), listener);
+    }
+
+    private void awaitParts(int number) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (parts.size() < number) {
+            assertTrue("Parts aren't sent in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private boolean isLastChunkSent() {
+        synchronized (parts) {
+            return !parts.isEmpty()
+                    && "0\r\n\r\n".equals(new String(parts.get(parts.size() - 1), StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static byte[] randomBody(int size) {
+        byte[] body = new byte[size];
+        new Random(size).nextBytes(body);
+        return body;
+    }
+
+    private static byte[] concatenate(List<byte[]> chunks) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        synchronized (chunks) {
+            for (byte[] chunk : chunks) {
+                result.write(chunk, 0, chunk.length);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] dechunk(byte[] chunked) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int position = 0;
+        while (true) {
+            int lineEnd = position;
+            while (chunked[lineEnd] != '\r') {
+                ++lineEnd;
+            }
+            int size = Integer.parseInt(new String(chunked, position, lineEnd - position, StandardCharsets.US_ASCII), 16);
+            position = lineEnd + 2;
+            if (size == 0) {
+                assertEquals("Nothing follows the last chunk", chunked.length, position + 2);
+                return result.toByteArray();
+            }
+            result.write(chunked, position, size);
+            position += size;
+            assertEquals('\r', chunked[position]);
+            assertEquals('\n', chunked[position + 1]);
+            position += 2;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.client;
+
+import org.junit.Test;
+import org.techlook.net.client.http.Pair;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class RequestHeadTemplateTest {
+    @Test
+    public void headIsAssembledFromParts() {
+        RequestHeadTemplate template = new RequestHeadTemplate("example.com", false);
+        Set<Pair<String, String>> headers = new LinkedHashSet<>(Arrays.asList(
+                new Pair<>("User-Agent", "agent"),
+                new Pair<>("Accept", "*/*")
+        ));
+
+        byte[] head = template.encode(HttpAsyncClient.Method.POST, "/path?a=b", headers,
+                "Content-Length: 3\n", false);
+
+        assertEquals("POST /path?a=b HTTP/1.1\n" +
+                "Host: example.com\n" +
+                "Connection: close\n" +
+                "User-Agent: agent\n" +
+                "Accept: */*\n" +
+                "Content-Length: 3\n" +
+                "\n", new String(head, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void headerLinesAreCachedUpToLimit() {
+        RequestHeadTemplate template = new RequestHeadTemplate("example.com", true);
+        Set<Pair<String, String>> common = Collections.singleton(new Pair<>("Authorization", "Bearer token"));
+
+        template.encode(HttpAsyncClient.Method.GET, "/", common, null, true);
+        template.encode(HttpAsyncClient.Method.GET, "/", common, null, true);
+        assertEquals(1, template.cachedHeaders());
+
+        for (int k = 0; k < 2 * RequestHeadTemplate.MAX_CACHED_HEADERS; ++k) {
+            byte[] head = template.encode("PROPFIND", "/" + k,
+                    Collections.singleton(new Pair<>("X-Request", String.valueOf(k))), null, false);
+            assertEquals("PROPFIND /" + k + " HTTP/1.1\n" +
+                    "Host: example.com\n" +
+                    "Connection: keep-alive\n" +
+                    "X-Request: " + k + "\n" +
+                    "\n", new String(head, StandardCharsets.UTF_8));
+        }
+        assertEquals(RequestHeadTemplate.MAX_CACHED_HEADERS, template.cachedHeaders());
+    }
+}
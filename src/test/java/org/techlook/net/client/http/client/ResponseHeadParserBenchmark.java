@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the byte-level {@link ResponseHeadParser} with the former string-based parsing of HttpSession
+ * on a typical response head. The former parser is reproduced here, it only works when the whole head
+ * is in a single chunk, so the split case is measured for the byte-level parser only.
+ *
+ * Run: java -cp target/classes:target/test-classes org.techlook.net.client.http.client.ResponseHeadParserBenchmark
+ *          [seconds]
+ */
+public class ResponseHeadParserBenchmark {
+    private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n"
+            + "Date: Mon, 19 Oct 2026 10:00:00 GMT\r\n"
+            + "Server: Apache/2.4.41 (Ubuntu)\r\n"
+            + "Last-Modified: Fri, 16 Oct 2026 08:30:00 GMT\r\n"
+            + "ETag: \"2aa6-5b1c9a3e0c1c0\"\r\n"
+            + "Accept-Ranges: bytes\r\n"
+            + "Cache-Control: max-age=3600, public\r\n"
+            + "Vary: Accept-Encoding\r\n"
+            + "Content-Encoding: gzip\r\n"
+            + "Content-Length: 10918\r\n"
+            + "Keep-Alive: timeout=5, max=100\r\n"
+            + "Connection: Keep-Alive\r\n"
+            + "Content-Type: text/html; charset=UTF-8\r\n"
+            + "\r\n"
+            + "<!DOCTYPE html>").getBytes(StandardCharsets.ISO_8859_1);
+    private static final int SPLIT_CHUNKS = 4;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+
+        // warming up
+        measureStringParser(1);
+        measureByteParser(1, 1);
+        measureByteParser(1, SPLIT_CHUNKS);
+
+        System.out.printf("string parser, whole head:    %12.1f heads/s%n", measureStringParser(seconds));
+        System.out.printf("byte parser, whole head:      %12.1f heads/s%n", measureByteParser(seconds, 1));
+        System.out.printf("byte parser, head in %d chunks: %12.1f heads/s%n",
+                SPLIT_CHUNKS, measureByteParser(seconds, SPLIT_CHUNKS));
+    }
+
+    private static double measureStringParser(long seconds) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        long heads = 0;
+
+        while (System.nanoTime() < deadline) {
+            StringParser parser = new StringParser();
+            parser.read(RESPONSE);
+            sink = parser.headers;
+            ++heads;
+        }
+
+        return heads * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static double measureByteParser(long seconds, int chunks) {
+        int chunkLength = (RESPONSE.length + chunks - 1) / chunks;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        long heads = 0;
+
+        while (System.nanoTime() < deadline) {
+            ResponseHeadParser parser = new ResponseHeadParser();
+            for (int offset = 0; offset < RESPONSE.length; offset += chunkLength) {
+                ByteBuffer chunk = ByteBuffer.wrap(RESPONSE, offset, Math.min(chunkLength, RESPONSE.length - offset));
+                if (parser.parse(chunk)) {
+                    break;
+                }
+            }
+            sink = parser.getHeaders();
+            ++heads;
+        }
+
+        return heads * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * The status line and headers parsing as HttpSession did it before ResponseHeadParser.
+     */
+    private static class StringParser {
+        private static final Pattern RESPONSE_HEAD = Pattern.compile("^(\\S+)\\s+(\\d+)\\s+(.+)$");
+
+        private final StringBuilder responseBuilder = new StringBuilder();
+        private final Map<String, String> headers = new TreeMap<>();
+        private boolean isResponseCodeParsed;
+        private int position;
+        private int bodyStart = -1;
+
+        void read(byte[] chunk) {
+            responseBuilder.append(new String(chunk));
+            int index;
+
+            while ((index = responseBuilder.indexOf("\n", position)) > 0) {
+                int residueIndex = index + 1;
+                if (responseBuilder.charAt(index - 1) == '\r') {
+                    --index;
+                }
+
+                String line = responseBuilder.substring(position, index).trim();
+                if (!isResponseCodeParsed) {
+                    isResponseCodeParsed = true;
+                    Matcher matcher = RESPONSE_HEAD.matcher(line);
+                    if (matcher.matches()) {
+                        sink = Integer.parseInt(matcher.group(2));
+                    }
+                }
+
+                if (line.isEmpty()) {
+                    for (int k = 3; k < chunk.length; ++k) {
+                        if (chunk[k - 3] == '\r' && chunk[k - 2] == '\n' && chunk[k - 1] == '\r' && chunk[k] == '\n') {
+                            bodyStart = k + 1;
+                            break;
+                        }
+                    }
+                    break;
+                }
+
+                int colon = line.indexOf(':');
+                if (colon >= 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+                position = residueIndex;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.client;
+
+import org.junit.Test;
+import org.techlook.net.client.Fault;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ResponseHeadParserTest {
+    private static final String HEAD = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/html; charset=UTF-8\r\n"
+            + "Content-Length:   5  \r\n"
+            + "X-Custom-Header: a:b\r\n"
+            + "\r\n";
+    private static final String BODY = "hello";
+
+    @Test
+    public void headInSingleChunkIsParsed() {
+        ResponseHeadParser parser = new ResponseHeadParser();
+        ByteBuffer buffer = bytes(HEAD + BODY);
+
+        assertTrue(parser.parse(buffer));
+        assertHead(parser);
+        assertEquals(HEAD.length(), buffer.position());
+    }
+
+    @Test
+    public void headSplitAtEveryByteIsParsed() {
+        ResponseHeadParser parser = new ResponseHeadParser();
+        byte[] response = (HEAD + BODY).getBytes(StandardCharsets.ISO_8859_1);
+
+        int offset = 0;
+        boolean isComplete = false;
+        while (!isComplete) {
+            ByteBuffer buffer = ByteBuffer.wrap(response, offset, 1);
+            isComplete = parser.parse(buffer);
+            offset = buffer.position();
+        }
+
+        assertHead(parser);
+        assertEquals(HEAD.length(), offset);
+    }
+
+    @Test
+    public void bareLineFeedsAndFoldedLinesAreAccepted() {
+        ResponseHeadParser parser = new ResponseHeadParser();
+
+        assertTrue(parser.parse(bytes("HTTP/1.0 404 Not Found\nServer: test\nWarning: first\n\t second\n" +
+                "no colon line\n\nbody")));
+        assertEquals("HTTP/1.0", parser.getHttpVersion());
+        assertEquals(404, parser.getStatusCode());
+        assertEquals("Not Found", parser.getReasonPhrase());
+        assertEquals("test", parser.getHeaders().get("server"));
+        assertEquals("first second", parser.getHeaders().get("warning"));
+        assertEquals(2, parser.getHeaders().size());
+    }
+
+    @Test
+    public void emptyReasonPhraseIsAccepted() {
+        ResponseHeadParser parser = new ResponseHeadParser();
+
+        assertTrue(parser.parse(bytes("HTTP/1.1 204\r\n\r\n")));
+        assertEquals(204, parser.getStatusCode());
+        assertEquals("", parser.getReasonPhrase());
+    }
+
+    @Test
+    public void malformedStatusLineIsRejected() {
+        ResponseHeadParser parser = new ResponseHeadParser();
+
+        assertFalse(parser.parse(bytes("HTTP/1.1 2x0 OK\r\n\r\n")));
+        assertFalse(parser.isStatusLineParsed());
+        assertEquals(Fault.BAD_RESPONSE_HEAD.format("HTTP/1.1 2"), parser.getFault());
+    }
+
+    @Test
+    public void tooLargeHeadIsRejected() {
+        ResponseHeadParser parser = new ResponseHeadParser(32);
+
+        assertFalse(parser.parse(bytes("HTTP/1.1 200 OK\r\nServer: a very long server name\r\n\r\n")));
+        assertEquals(Fault.ResponseHeadIsTooLarge.format(32), parser.getFault());
+    }
+
+    @Test
+    public void sessionDeliversContentOfHeadSplitAcrossChunks() {
+        HttpListener listener = mock(HttpListener.class);
+        HttpSession session = new HttpSession(listener, ForkJoinPool.commonPool());
+        byte[] response = (HEAD + BODY).getBytes(StandardCharsets.ISO_8859_1);
+        int split = HEAD.length() - 2;
+
+        session.read(Arrays.copyOfRange(response, 0, split));
+        verify(listener).responseCode(200, "HTTP/1.1", "OK");
+        verify(listener, never()).respondHttpHeaders(anyMapOfStrings());
+
+        session.read(Arrays.copyOfRange(response, split, response.length));
+        verify(listener).respondHttpHeaders(anyMapOfStrings());
+        verify(listener, timeout(1000)).respond(BODY.getBytes(StandardCharsets.ISO_8859_1));
+        verify(listener, timeout(1000)).complete();
+        verify(listener, never()).failure(anyString());
+        assertEquals(BODY.length(), session.getContentLength());
+    }
+
+    private static Map<String, String> anyMapOfStrings() {
+        return anyMap();
+    }
+
+    private static void assertHead(ResponseHeadParser parser) {
+        assertTrue(parser.isStatusLineParsed());
+        assertEquals("HTTP/1.1", parser.getHttpVersion());
+        assertEquals(200, parser.getStatusCode());
+        assertEquals("OK", parser.getReasonPhrase());
+        assertEquals("text/html; charset=UTF-8", parser.getHeaders().get("content-type"));
+        assertEquals("5", parser.getHeaders().get("content-length"));
+        assertEquals("a:b", parser.getHeaders().get("x-custom-header"));
+        assertEquals(3, parser.getHeaders().size());
+        assertNull(parser.getFault());
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
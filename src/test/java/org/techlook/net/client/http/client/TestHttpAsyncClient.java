@@ -37,11 +37,13 @@ import org.techlook.net.client.nio.AsyncSocketClient;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.*;
 
 public class TestHttpAsyncClient {
@@ -114,6 +116,20 @@ public class TestHttpAsyncClient {
                 "Host: " + SERVER + "\n" + headerPart + "\n\n").getBytes(StandardCharsets.UTF_8);
     }
 
+    /**
+     * the data are placed in the middle of a larger buffer as a transport read buffer holds them
+     */
+    private static ByteBuffer receivedBuffer(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 8);
+        buffer.position(4);
+        buffer.put(bytes);
+        buffer.limit(buffer.position());
+        buffer.position(4);
+
+        return buffer;
+    }
+
     private HttpAsyncClient http;
 
     @Rule
@@ -155,6 +171,46 @@ public class TestHttpAsyncClient {
         socketClient.checkBuffer(data);
     }
 
+    @Test
+    public void emptyResponseEndedByCloseIsNotFailed() {
+        http.get(PATH, HEADERS, PARAMETERS, httpListener);
+        socketClient.checkBuffer(requestHeader(HttpAsyncClient.Method.GET));
+        http.chunkIsReceived(("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        http.close();
+
+        verify(httpListener).responseCode(200, "HTTP/1.1", "OK");
+        verify(httpListener).connectionClosed();
+        verify(httpListener, never()).connectionLost(anyString());
+        verify(httpListener, never()).failure(anyString());
+        verify(httpListener, never()).complete();
+    }
+
+    @Test
+    public void responseIsReadFromReceivedBuffers() {
+        http.get(PATH, HEADERS, PARAMETERS, httpListener);
+        socketClient.checkBuffer(requestHeader(HttpAsyncClient.Method.GET));
+        http.chunkIsReceived(receivedBuffer("HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nbo"));
+        http.chunkIsReceived(receivedBuffer("dy"));
+
+        verify(httpListener).responseCode(200, "HTTP/1.1", "OK");
+        verify(httpListener).respond(aryEq("bo".getBytes(StandardCharsets.US_ASCII)));
+        verify(httpListener).respond(aryEq("dy".getBytes(StandardCharsets.US_ASCII)));
+        verify(httpListener).complete();
+        verify(httpListener, never()).failure(anyString());
+    }
+
+    @Test
+    public void testGetRequestWithoutHeaders() {
+        http.get(PATH, null, null, httpListener);
+
+        byte[] data = (HttpAsyncClient.Method.GET + " " + PATH + " HTTP/1.1\n" +
+                "Host: " + SERVER + "\n" +
+                "Connection: " + KEEPALIVE + "\n" +
+                "Accept-Encoding: gzip, deflate\n\n").getBytes(StandardCharsets.UTF_8);
+        socketClient.checkBuffer(data);
+    }
+
     @Test
     public void testHeadRequest() {
         http.head(PATH, HEADERS, PARAMETERS, httpListener);
@@ -247,26 +303,26 @@ public class TestHttpAsyncClient {
         Set<Pair<String, String>> headers = new LinkedHashSet<>(HEADERS);
         headers.add(new Pair<>("Content-Type", "multipart/form-data;boundary=\"" + boundary + "\""));
 
-        byte[] stringPartContent = ("--" + boundary + "\n" +
-                "Content-Disposition: form-data; name=\"" + stringField + "\"\n" +
-                "Content-Type: " + CONTENT_TYPE + "; charset=UTF-8" + "\n\n" +
-                stringData + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] stringPartContent = ("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"" + stringField + "\"\r\n" +
+                "Content-Type: " + CONTENT_TYPE + "; charset=UTF-8" + "\r\n\r\n" +
+                stringData + "\r\n").getBytes(StandardCharsets.UTF_8);
 
-        byte[] binaryPartContent = concat(("--" + boundary + "\n" +
-                        "Content-Disposition: form-data; name=\"" + binaryField + "\"\n" +
-                        "Content-Type: " + BINARY_CONTENT_TYPE + "\n\n").getBytes(StandardCharsets.UTF_8),
-                concat(binaryData, "\n".getBytes(StandardCharsets.UTF_8)));
+        byte[] binaryPartContent = concat(("--" + boundary + "\r\n" +
+                        "Content-Disposition: form-data; name=\"" + binaryField + "\"\r\n" +
+                        "Content-Type: " + BINARY_CONTENT_TYPE + "\r\n\r\n").getBytes(StandardCharsets.UTF_8),
+                concat(binaryData, "\r\n".getBytes(StandardCharsets.UTF_8)));
 
-        byte[] filePartContent = concat(("--" + boundary + "\n" +
+        byte[] filePartContent = concat(("--" + boundary + "\r\n" +
                         "Content-Disposition: form-data; name=\"" + fileField + "\"" +
-                        "; filename=\"" + fileName + "\"\n" +
-                        "Content-Type: " + BINARY_CONTENT_TYPE + "\n\n").getBytes(StandardCharsets.UTF_8),
-                concat(fileData, ("\n--" + boundary + "\n").getBytes(StandardCharsets.UTF_8)));
+                        "; filename=\"" + fileName + "\"\r\n" +
+                        "Content-Type: " + BINARY_CONTENT_TYPE + "\r\n\r\n").getBytes(StandardCharsets.UTF_8),
+                concat(fileData, ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8)));
 
         byte[] content = concat(concat(stringPartContent, binaryPartContent), filePartContent);
 
         byte[] data = concat(requestHeader(HttpAsyncClient.Method.POST, content, headers,
-                false, false), content);
+                false, true), content);
         socketClient.checkBuffer(data);
     }
 
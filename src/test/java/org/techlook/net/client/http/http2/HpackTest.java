@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.junit.Test;
+import org.techlook.net.client.http.Pair;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Examples of RFC 7541, Appendix C
+ */
+public class HpackTest {
+    private static final List<Pair<String, String>> FIRST_REQUEST = headers(
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+    private static final List<Pair<String, String>> SECOND_REQUEST = headers(
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+            "cache-control", "no-cache");
+    private static final List<Pair<String, String>> THIRD_REQUEST = headers(
+            ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+            "custom-key", "custom-value");
+
+    @Test
+    public void integerRepresentation() throws Http2Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HpackEncoder.encodeInteger(out, 0, 5, 10);
+        HpackEncoder.encodeInteger(out, 0, 5, 1337);
+        HpackEncoder.encodeInteger(out, 0, 8, 42);
+        assertArrayEquals(bytes("0a 1f9a0a 2a"), out.toByteArray());
+
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        assertEquals(10, HpackDecoder.decodeInteger(buffer, 5));
+        assertEquals(1337, HpackDecoder.decodeInteger(buffer, 5));
+        assertEquals(42, HpackDecoder.decodeInteger(buffer, 8));
+    }
+
+    @Test
+    public void requestsWithoutHuffmanCoding() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(HeaderTable.DEFAULT_SIZE);
+        assertEquals(FIRST_REQUEST, decoder.decode(ByteBuffer.wrap(bytes(
+                "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d"))));
+        assertEquals(57, decoder.tableSize());
+        assertEquals(SECOND_REQUEST, decoder.decode(ByteBuffer.wrap(bytes(
+                "8286 84be 5808 6e6f 2d63 6163 6865"))));
+        assertEquals(110, decoder.tableSize());
+        assertEquals(THIRD_REQUEST, decoder.decode(ByteBuffer.wrap(bytes(
+                "8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65"))));
+        assertEquals(164, decoder.tableSize());
+    }
+
+    @Test
+    public void requestsWithHuffmanCoding() throws Http2Exception {
+        byte[][] blocks = {
+                bytes("8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"),
+                bytes("8286 84be 5886 a8eb 1064 9cbf"),
+                bytes("8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf")
+        };
+        List<List<Pair<String, String>>> requests = Arrays.asList(FIRST_REQUEST, SECOND_REQUEST, THIRD_REQUEST);
+
+        HpackDecoder decoder = new HpackDecoder(HeaderTable.DEFAULT_SIZE);
+        HpackEncoder encoder = new HpackEncoder();
+        for (int k = 0; k < blocks.length; ++k) {
+            assertEquals(requests.get(k), decoder.decode(ByteBuffer.wrap(blocks[k])));
+            assertArrayEquals(blocks[k], encoder.encode(requests.get(k)));
+        }
+        assertEquals(164, encoder.tableSize());
+    }
+
+    @Test
+    public void responsesEvictEntries() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertEquals(headers(":status", "302", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"),
+                decoder.decode(ByteBuffer.wrap(bytes(
+                        "4882 6402 5885 aec3 771a 4b61 96d0 7abe 9410 54d4 44a8 2005 9504 0b81 66e0 82a6"
+                                + "2d1b ff6e 919d 29ad 1718 63c7 8f0b 97c8 e9ae 82ae 43d3"))));
+        assertEquals(222, decoder.tableSize());
+
+        assertEquals(headers(":status", "307", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"),
+                decoder.decode(ByteBuffer.wrap(bytes("4883 640e ffc1 c0bf"))));
+        assertEquals(222, decoder.tableSize());
+
+        assertEquals(headers(":status", "200", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:22 GMT", "location", "https://www.example.com",
+                "content-encoding", "gzip",
+                "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"),
+                decoder.decode(ByteBuffer.wrap(bytes(
+                        "88c1 6196 d07a be94 1054 d444 a820 0595 040b 8166 e084 a62d 1bff c05a 839b d9ab"
+                                + "77ad 94e7 821d d7f2 e6c7 b335 dfdf cd5b 3960 d5af 2708 7f36 72c1 ab27 0fb5"
+                                + "291f 9587 3160 65c0 03ed 4ee5 b106 3d50 07"))));
+        assertEquals(215, decoder.tableSize());
+    }
+
+    @Test
+    public void credentialsAreNeverIndexed() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        List<Pair<String, String>> headers = headers("authorization", "secret");
+        byte[] block = encoder.encode(headers);
+
+        assertEquals(0x10, block[0] & 0xf0);
+        assertEquals(0, encoder.tableSize());
+        assertEquals(headers, new HpackDecoder(HeaderTable.DEFAULT_SIZE).decode(ByteBuffer.wrap(block)));
+    }
+
+    @Test
+    public void tableSizeUpdateIsSignalled() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(HeaderTable.DEFAULT_SIZE);
+        decoder.decode(ByteBuffer.wrap(encoder.encode(FIRST_REQUEST)));
+
+        encoder.setMaxTableSize(0);
+        byte[] block = encoder.encode(SECOND_REQUEST);
+        assertEquals(0x20, block[0] & 0xff);
+        assertEquals(SECOND_REQUEST, decoder.decode(ByteBuffer.wrap(block)));
+        assertEquals(0, decoder.tableSize());
+    }
+
+    @Test
+    public void corruptedBlocksAreRejected() {
+        String[] corrupted = {"be", "41", "418cf1e3c2e5f23a6ba0ab90f4", "3fe21f"};
+        for (String block : corrupted) {
+            try {
+                new HpackDecoder(HeaderTable.DEFAULT_SIZE).decode(ByteBuffer.wrap(bytes(block)));
+                fail("Corrupted block is accepted: " + block);
+            } catch (Http2Exception e) {
+                assertEquals(Http2Exception.COMPRESSION_ERROR, e.getErrorCode());
+            }
+        }
+    }
+
+    private static List<Pair<String, String>> headers(String... namesAndValues) {
+        Pair<String, String>[] headers = new Pair[namesAndValues.length / 2];
+        for (int k = 0; k < headers.length; ++k) {
+            headers[k] = new Pair<>(namesAndValues[2 * k], namesAndValues[2 * k + 1]);
+        }
+        return Arrays.asList(headers);
+    }
+
+    static byte[] bytes(String hex) {
+        String digits = hex.replace(" ", "");
+        byte[] bytes = new byte[digits.length() / 2];
+        for (int k = 0; k < bytes.length; ++k) {
+            bytes[k] = (byte) Integer.parseInt(digits.substring(2 * k, 2 * k + 2), 16);
+        }
+        return bytes;
+    }
+
+    static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.http.http2;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.SocketClient;
+import org.techlook.net.client.codec.FrameDecoder;
+import org.techlook.net.client.codec.FrameListener;
+import org.techlook.net.client.http.BodyPublishers;
+import org.techlook.net.client.http.Pair;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class Http2ConnectionTest {
+    private static final ForkJoinPool threadPool = new ForkJoinPool();
+
+    private final List<ChannelListener> channels = new ArrayList<>();
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    private final HpackEncoder serverEncoder = new HpackEncoder();
+    private SocketClient transport;
+    private Http2Connection connection;
+
+    @AfterClass
+    public static void afterAllTests() {
+        threadPool.shutdown();
+    }
+
+    @Before
+    public void standUp() throws IOException {
+        transport = mock(SocketClient.class);
+        when(transport.getThreadPool()).thenReturn(threadPool);
+        when(transport.connect(any(SocketAddress.class), any(ChannelListener.class))).then(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                synchronized (channels) {
+                    channels.add(invocation.<ChannelListener>getArgument(1));
+                    return channels.size();
+                }
+            }
+        });
+        when(transport.send(any(ByteBuffer.class), anyInt())).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ByteBuffer frame = invocation.getArgument(0);
+                synchronized (sent) {
+                    sent.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                }
+                return true;
+            }
+        });
+
+        connection = new Http2Connection("server", 80, transport);
+    }
+
+    @Test
+    public void responsesOfConcurrentStreamsAreDemultiplexed() {
+        HttpListener first = mock(HttpListener.class);
+        HttpListener second = mock(HttpListener.class);
+        connection.get("/first", null, null, first);
+        connection.get("/second", null, null, second);
+
+        List<ByteBuffer> frames = sentFrames();
+        assertEquals(Http2Frame.SETTINGS, Http2Frame.type(frames.get(0)));
+        assertEquals(Http2Frame.WINDOW_UPDATE, Http2Frame.type(frames.get(1)));
+        assertFrame(frames.get(2), Http2Frame.HEADERS, Http2Frame.FLAG_END_HEADERS | Http2Frame.FLAG_END_STREAM, 1);
+        assertFrame(frames.get(3), Http2Frame.HEADERS, Http2Frame.FLAG_END_HEADERS | Http2Frame.FLAG_END_STREAM, 3);
+
+        receive(Http2Frame.settings());
+        receive(headers(3, false, ":status", "200", "content-type", "text/plain"));
+        receive(data(3, "second", true));
+        receive(headers(1, false, ":status", "404"));
+
+        verify(second).responseCode(200, Http2Session.HTTP_VERSION, "");
+        verify(second).respondHttpHeaders(Collections.singletonMap("content-type", "text/plain"));
+        verify(second).respond("second".getBytes(StandardCharsets.UTF_8));
+        verify(second).complete();
+        verify(first).responseCode(404, Http2Session.HTTP_VERSION, "");
+        verify(first, never()).complete();
+        assertEquals(1, connection.activeStreams());
+
+        frames = sentFrames();
+        assertFrame(frames.get(0), Http2Frame.SETTINGS, Http2Frame.FLAG_ACK, 0);
+    }
+
+    @Test
+    public void listenerIsCalledOutOfSessionMonitor() {
+        final AtomicInteger activeStreams = new AtomicInteger(-1);
+        HttpListener listener = mock(HttpListener.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                // another thread would wait for the monitor held by the receiving thread
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        activeStreams.set(connection.activeStreams());
+                    }
+                });
+                reader.start();
+                reader.join(1000);
+                return null;
+            }
+        }).when(listener).complete();
+
+        connection.get("/", null, null, listener);
+        receive(headers(1, true, ":status", "204"));
+        verify(listener).complete();
+        assertEquals(0, activeStreams.get());
+    }
+
+    @Test
+    public void requestBodyRespectsFlowControl() {
+        connection.get("/", null, null, mock(HttpListener.class));
+        receive(Http2Frame.settings(Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE, 10));
+        sentFrames();
+
+        byte[] content = "0123456789abcdefghijklmno".getBytes(StandardCharsets.UTF_8);
+        connection.postContent("/", null, null, "text/plain", null, content, mock(HttpListener.class));
+        List<ByteBuffer> frames = sentFrames();
+        assertEquals(2, frames.size());
+        assertFrame(frames.get(0), Http2Frame.HEADERS, Http2Frame.FLAG_END_HEADERS, 3);
+        assertFrame(frames.get(1), Http2Frame.DATA, 0, 3);
+        assertEquals(10, Http2Frame.payloadLength(frames.get(1)));
+
+        receive(Http2Frame.windowUpdate(3, 100));
+        frames = sentFrames();
+        assertEquals(1, frames.size());
+        assertFrame(frames.get(0), Http2Frame.DATA, Http2Frame.FLAG_END_STREAM, 3);
+        assertEquals(15, Http2Frame.payloadLength(frames.get(0)));
+    }
+
+    @Test
+    public void streamedBodyIsSentByDataFrames() throws Http2Exception {
+        HttpListener listener = mock(HttpListener.class);
+        List<ByteBuffer> parts = Arrays.asList(
+                ByteBuffer.wrap("first".getBytes(StandardCharsets.UTF_8)),
+                ByteBuffer.wrap("second".getBytes(StandardCharsets.UTF_8)));
+        connection.streamContent("PUT", "/", null, null, "text/plain", null,
+                BodyPublishers.ofBuffers(parts.iterator(), BodyPublishers.UNKNOWN_LENGTH), listener);
+
+        List<ByteBuffer> frames = awaitFrames(6);
+        assertFrame(frames.get(2), Http2Frame.HEADERS, Http2Frame.FLAG_END_HEADERS, 1);
+        for (Pair<String, String> header : new HpackDecoder(HeaderTable.DEFAULT_SIZE).decode(
+                Http2Frame.payload(frames.get(2)))) {
+            assertNotEquals("content-length", header.getKey());
+        }
+        assertFrame(frames.get(3), Http2Frame.DATA, 0, 1);
+        assertEquals("first", payload(frames.get(3)));
+        assertFrame(frames.get(4), Http2Frame.DATA, 0, 1);
+        assertEquals("second", payload(frames.get(4)));
+        assertFrame(frames.get(5), Http2Frame.DATA, Http2Frame.FLAG_END_STREAM, 1);
+        assertEquals(0, Http2Frame.payloadLength(frames.get(5)));
+
+        receive(headers(1, true, ":status", "204"));
+        verify(listener).complete();
+    }
+
+    @Test
+    public void streamedBodyLongerThanItsLengthResetsStream() {
+        HttpListener listener = mock(HttpListener.class);
+        List<ByteBuffer> parts = Collections.singletonList(
+                ByteBuffer.wrap("0123456789".getBytes(StandardCharsets.UTF_8)));
+        connection.streamContent("POST", "/", null, null, "text/plain", null,
+                BodyPublishers.ofBuffers(parts.iterator(), 4), listener);
+
+        verify(listener, timeout(1000)).failure(any(String.class));
+        List<ByteBuffer> frames = awaitFrames(4);
+        assertFrame(frames.get(3), Http2Frame.RST_STREAM, 0, 1);
+        assertEquals(Http2Exception.CANCEL, frames.get(3).getInt(Http2Frame.HEADER_LENGTH));
+        assertEquals(0, connection.activeStreams());
+    }
+
+    @Test
+    public void streamsAboveConcurrencyLimitWait() {
+        HttpListener first = mock(HttpListener.class);
+        connection.get("/", null, null, first);
+        receive(Http2Frame.settings(Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS, 1));
+        sentFrames();
+
+        connection.get("/", null, null, mock(HttpListener.class));
+        assertTrue(sentFrames().isEmpty());
+
+        receive(headers(1, true, ":status", "204"));
+        verify(first).complete();
+        List<ByteBuffer> frames = sentFrames();
+        assertEquals(1, frames.size());
+        assertFrame(frames.get(0), Http2Frame.HEADERS, Http2Frame.FLAG_END_HEADERS | Http2Frame.FLAG_END_STREAM, 3);
+    }
+
+    @Test
+    public void pingIsAcknowledged() {
+        connection.get("/", null, null, mock(HttpListener.class));
+        sentFrames();
+
+        ByteBuffer ping = Http2Frame.allocate(Http2Frame.PING, 0, 0, 8);
+        ping.putLong(0x1122334455667788L);
+        ping.flip();
+        receive(ping);
+
+        List<ByteBuffer> frames = sentFrames();
+        assertFrame(frames.get(0), Http2Frame.PING, Http2Frame.FLAG_ACK, 0);
+        assertEquals(0x1122334455667788L, frames.get(0).getLong(Http2Frame.HEADER_LENGTH));
+    }
+
+    @Test
+    public void requestsUnprocessedBeforeGoAwayAreRetried() throws IOException {
+        HttpListener first = mock(HttpListener.class);
+        HttpListener second = mock(HttpListener.class);
+        connection.get("/", null, null, first);
+        connection.get("/", null, null, second);
+
+        receive(Http2Frame.goAway(1, Http2Exception.NO_ERROR));
+        verify(transport, timeout(1000).times(2)).connect(any(SocketAddress.class), any(ChannelListener.class));
+        verify(second, never()).failure(any(String.class));
+
+        receive(headers(1, true, ":status", "200"));
+        verify(first).complete();
+    }
+
+    @Test
+    public void protocolErrorClosesConnection() {
+        HttpListener listener = mock(HttpListener.class);
+        connection.get("/", null, null, listener);
+        sentFrames();
+
+        receive(Http2Frame.windowUpdate(0, 0));
+        verify(listener).failure(any(String.class));
+        List<ByteBuffer> frames = sentFrames();
+        assertFrame(frames.get(0), Http2Frame.GOAWAY, 0, 0);
+        assertEquals(Http2Exception.PROTOCOL_ERROR, frames.get(0).getInt(Http2Frame.HEADER_LENGTH + 4));
+        verify(listener, never()).respondHttpHeaders(Mockito.<String, String>anyMap());
+    }
+
+    private void receive(ByteBuffer frame) {
+        byte[] chunk = new byte[frame.remaining()];
+        frame.get(chunk);
+        channels.get(0).chunkIsReceived(chunk);
+    }
+
+    private ByteBuffer headers(int streamId, boolean endsStream, String... namesAndValues) {
+        List<Pair<String, String>> headers = new ArrayList<>();
+        for (int k = 0; k < namesAndValues.length; k += 2) {
+            headers.add(new Pair<>(namesAndValues[k], namesAndValues[k + 1]));
+        }
+        byte[] block = serverEncoder.encode(headers);
+        ByteBuffer frame = Http2Frame.allocate(Http2Frame.HEADERS,
+                Http2Frame.FLAG_END_HEADERS | (endsStream ? Http2Frame.FLAG_END_STREAM : 0), streamId, block.length);
+        frame.put(block);
+        frame.flip();
+
+        return frame;
+    }
+
+    private static ByteBuffer data(int streamId, String content, boolean endsStream) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = Http2Frame.allocate(Http2Frame.DATA,
+                endsStream ? Http2Frame.FLAG_END_STREAM : 0, streamId, bytes.length);
+        frame.put(bytes);
+        frame.flip();
+
+        return frame;
+    }
+
+    private static String payload(ByteBuffer frame) throws Http2Exception {
+        ByteBuffer payload = Http2Frame.payload(frame);
+        return new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return frames sent since the previous call once there are at least the given number of them
+     */
+    private List<ByteBuffer> awaitFrames(int count) {
+        List<ByteBuffer> frames = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (frames.size() < count && System.currentTimeMillis() < deadline) {
+            frames.addAll(sentFrames());
+            Thread.yield();
+        }
+        assertTrue(frames.size() >= count);
+
+        return frames;
+    }
+
+    /**
+     * @return frames sent since the previous call, the connection preface is skipped
+     */
+    private List<ByteBuffer> sentFrames() {
+        byte[] bytes;
+        synchronized (sent) {
+            bytes = sent.toByteArray();
+            sent.reset();
+        }
+        int start = 0;
+        int prefaceLength = Http2Frame.CONNECTION_PREFACE.length;
+        if (bytes.length >= prefaceLength
+                && Arrays.equals(Http2Frame.CONNECTION_PREFACE, Arrays.copyOf(bytes, prefaceLength))) {
+            start = prefaceLength;
+        }
+
+        final List<ByteBuffer> frames = new ArrayList<>();
+        FrameDecoder decoder = Http2Frame.decoder(Http2Frame.MAX_FRAME_SIZE_LIMIT);
+        decoder.decode(Arrays.copyOfRange(bytes, start, bytes.length), new FrameListener() {
+            @Override
+            public void frameIsReceived(ByteBuffer frame) {
+                frames.add(frame);
+            }
+
+            @Override
+            public void channelError(String message) {
+                fail(message);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertEquals(0, decoder.pendingBytes());
+
+        return frames;
+    }
+
+    private static void assertFrame(ByteBuffer frame, int type, int flags, int streamId) {
+        assertEquals(type, Http2Frame.type(frame));
+        assertEquals(flags, Http2Frame.flags(frame));
+        assertEquals(streamId, Http2Frame.streamId(frame));
+    }
+}
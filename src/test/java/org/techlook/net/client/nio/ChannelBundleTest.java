@@ -31,16 +31,22 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.mockito.quality.Strictness;
+import org.techlook.net.client.BackpressuredListener;
+import org.techlook.net.client.BufferChannelSink;
 import org.techlook.net.client.ByteChunksEmitter;
+import org.techlook.net.client.DrainAwareListener;
 import org.techlook.net.client.ReadableByteSource;
 import org.techlook.net.client.SocketClient;
 import org.techlook.net.client.WritableChannelSink;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.WritableByteChannel;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -88,6 +94,126 @@ public class ChannelBundleTest {
         verify(socketClient).close(channelId);
     }
 
+    @Test
+    public void shapedChannelIsParkedWhenTokensRunOut() {
+        BandwidthScheduler scheduler = new BandwidthScheduler();
+        scheduler.limitGroup("uplink", 1, 3000);
+        channelBundle.shape(scheduler.share("uplink", 1));
+
+        channelBundle.appendToWrite(new byte[2000], 0, 2000);
+        channelBundle.appendToWrite(new byte[2000], 0, 2000);
+        CountingChannel channel = new CountingChannel();
+        channelBundle.write(channel);
+
+        assertEquals(3000, channel.written);
+        assertTrue(channelBundle.share().isParked());
+        assertFalse(channelBundle.shouldWrite());
+
+        scheduler.releaseParked();
+        assertTrue(channelBundle.share().isParked());
+    }
+
+    @Test
+    public void shapedChannelWritesQuantumPerTurn() {
+        BandwidthScheduler scheduler = new BandwidthScheduler(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        channelBundle.shape(scheduler.share(null, 2));
+
+        int size = 5 * BandwidthScheduler.QUANTUM;
+        channelBundle.appendToWrite(new byte[size], 0, size);
+        CountingChannel channel = new CountingChannel();
+        channelBundle.write(channel);
+
+        assertEquals(2 * BandwidthScheduler.QUANTUM, channel.written);
+        assertFalse(channelBundle.share().isParked());
+        assertTrue(channelBundle.shouldWrite());
+
+        channelBundle.write(channel);
+        channelBundle.write(channel);
+        assertEquals(size, channel.written);
+        assertFalse(channelBundle.shouldWrite());
+    }
+
+    @Test
+    public void readingIsPausedWhileListenerIsSaturated() {
+        SaturatingListener listener = new SaturatingListener();
+        channelBundle = new ChannelBundle(TransportChannel.TCP,
+                listener, channelId, socketClient, AsyncSocketClient.DEFAULT_READ_BUFFER_SIZE);
+        ReadableByteSource source = new ReadableByteSource();
+
+        listener.isSaturated = true;
+        channelBundle.read(source);
+        assertEquals(1, listener.chunks);
+        assertTrue(channelBundle.isReadingPaused());
+
+        listener.isSaturated = false;
+        channelBundle.resumeReading();
+        assertFalse(channelBundle.isReadingPaused());
+
+        channelBundle.read(source);
+        assertTrue(listener.chunks > 1);
+        verify(socketClient).close(channelId);
+    }
+
+    @Test
+    public void pausedChannelIsClosedOnRequest() throws IOException {
+        SaturatingListener listener = new SaturatingListener();
+        channelBundle = new ChannelBundle(TransportChannel.TCP,
+                listener, channelId, socketClient, AsyncSocketClient.DEFAULT_READ_BUFFER_SIZE);
+        Pipe pipe = Pipe.open();
+        SelectableChannel channel = pipe.source();
+        SelectionKey key = mock(SelectionKey.class);
+        when(key.channel()).thenReturn(channel);
+        channelBundle.setSelectionKey(key);
+
+        listener.isSaturated = true;
+        channelBundle.read(new ReadableByteSource());
+        assertTrue(channelBundle.isReadingPaused());
+
+        channelBundle.close();
+        channelBundle.closeIfRequested();
+
+        assertTrue(listener.isClosed);
+        assertFalse(channel.isOpen());
+        assertFalse(channelBundle.isReadingPaused());
+        verify(socketClient).close(channelId);
+        pipe.sink().close();
+    }
+
+    @Test
+    public void readBuffersAreHandedOverToBufferListener() {
+        BufferChannelSink listener = new BufferChannelSink();
+        channelBundle = new ChannelBundle(TransportChannel.TCP,
+                listener, channelId, socketClient, AsyncSocketClient.DEFAULT_READ_BUFFER_SIZE);
+        ReadableByteSource source = new ReadableByteSource();
+        channelBundle.read(source);
+
+        assertTrue(listener.internalBufferEqualsTo(source.content()));
+        int reads = (source.content().length + AsyncSocketClient.DEFAULT_READ_BUFFER_SIZE - 1)
+                / AsyncSocketClient.DEFAULT_READ_BUFFER_SIZE;
+        assertTrue("Every read is passed in its own buffer", listener.receivedBuffers() >= reads);
+        verify(socketClient).close(channelId);
+    }
+
+    @Test
+    public void listenerIsNotifiedWhenQueueIsDrained() {
+        DrainCountingListener listener = new DrainCountingListener();
+        channelBundle = new ChannelBundle(TransportChannel.TCP,
+                listener, channelId, socketClient, AsyncSocketClient.DEFAULT_READ_BUFFER_SIZE);
+        CountingChannel channel = new CountingChannel();
+
+        channelBundle.write(channel);
+        assertEquals("Nothing has been written", 0, listener.drains);
+
+        channelBundle.appendToWrite(new byte[2000], 0, 2000);
+        channelBundle.appendToWrite(new byte[2000], 0, 2000);
+        channelBundle.write(channel);
+        assertEquals(4000, channel.written);
+        assertEquals(1, listener.drains);
+
+        channelBundle.write(channel);
+        assertEquals(1, listener.drains);
+    }
+
     private void checkWriteIntegrity(ByteChunksEmitter source, Iterable<ByteBuffer> emittedChunks) {
         for (ByteBuffer chunk: emittedChunks) {
             byte[] buffer = new byte[chunk.remaining()];
@@ -98,4 +224,76 @@ public class ChannelBundleTest {
         channelBundle.write(sink);
         assertTrue(sink.internalBufferEqualsTo(source));
     }
+
+    private static class SaturatingListener implements BackpressuredListener {
+        private boolean isSaturated;
+        private boolean isClosed;
+        private int chunks;
+
+        @Override
+        public boolean isSaturated() {
+            return isSaturated;
+        }
+
+        @Override
+        public void setDrainCallback(Runnable drainCallback) {
+        }
+
+        @Override
+        public void channelError(String message) {
+        }
+
+        @Override
+        public void chunkIsReceived(byte[] chunk) {
+            ++chunks;
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+
+    private static class DrainCountingListener implements DrainAwareListener {
+        private int drains;
+
+        @Override
+        public void channelDrained() {
+            ++drains;
+        }
+
+        @Override
+        public void channelError(String message) {
+        }
+
+        @Override
+        public void chunkIsReceived(byte[] chunk) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingChannel implements WritableByteChannel {
+        private int written;
+
+        @Override
+        public int write(ByteBuffer buffer) {
+            int size = buffer.remaining();
+            buffer.position(buffer.limit());
+            written += size;
+
+            return size;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
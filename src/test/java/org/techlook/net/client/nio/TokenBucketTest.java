@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.nio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void grantsBurstThenRefillsAtRate() {
+        TokenBucket bucket = new TokenBucket(1000, 500, 0);
+
+        assertEquals(500, bucket.take(800, 0));
+        assertEquals(0, bucket.take(100, 0));
+        assertFalse(bucket.hasTokens(0));
+
+        assertEquals(100, bucket.take(800, SECOND / 10));
+        assertEquals(500, bucket.take(800, 10 * SECOND));
+    }
+
+    @Test
+    public void accumulatesFractionsOfByte() {
+        TokenBucket bucket = new TokenBucket(10, 10, 0);
+        bucket.take(10, 0);
+
+        for (long now = SECOND / 100; now < SECOND / 10; now += SECOND / 100) {
+            assertEquals(0, bucket.take(1, now));
+        }
+        assertEquals(1, bucket.take(1, SECOND / 10));
+    }
+
+    @Test
+    public void datagramRunsIntoDebt() {
+        TokenBucket bucket = new TokenBucket(1000, 500, 0);
+
+        assertTrue(bucket.takeWhole(2000, 0));
+        assertFalse(bucket.takeWhole(1, SECOND));
+        assertTrue(bucket.takeWhole(100, 2 * SECOND));
+    }
+
+    @Test
+    public void refundDoesntExceedCapacity() {
+        TokenBucket bucket = new TokenBucket(1000, 500, 0);
+
+        assertEquals(200, bucket.take(200, 0));
+        bucket.refund(1000);
+        assertEquals(500, bucket.take(1000, 0));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class AbstractSSLActionTest {
+    private final AbstractSSLAction action = new AbstractSSLAction(null, null, ForkJoinPool.commonPool(), null, null) {
+        @Override
+        protected void processAction() {
+        }
+    };
+
+    @Test
+    public void heapBufferIsEnlargedOutOfPool() {
+        long pooledBytes = BufferPool.SHARED.pooledBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(BufferPool.GRANULARITY);
+        buffer.put((byte) 1);
+
+        ByteBuffer enlarged = action.enlargeBuffer(buffer, 3 * BufferPool.GRANULARITY);
+        assertFalse(enlarged.isDirect());
+        assertEquals(3 * BufferPool.GRANULARITY, enlarged.capacity());
+        assertEquals(1, enlarged.position());
+        assertEquals(1, enlarged.get(0));
+        assertEquals(pooledBytes, BufferPool.SHARED.pooledBytes());
+
+        assertNull(action.releaseIfEmpty(ByteBuffer.allocate(BufferPool.GRANULARITY)));
+        assertEquals(pooledBytes, BufferPool.SHARED.pooledBytes());
+    }
+
+    @Test
+    public void pooledBufferIsEnlargedWithinPool() {
+        ByteBuffer buffer = BufferPool.SHARED.acquire(BufferPool.GRANULARITY);
+        buffer.put((byte) 1);
+
+        long pooledBytes = BufferPool.SHARED.pooledBytes();
+        ByteBuffer enlarged = action.enlargeBuffer(buffer, 0);
+        assertTrue(enlarged.isDirect());
+        assertEquals(2 * BufferPool.GRANULARITY, enlarged.capacity());
+        assertEquals(1, enlarged.get(0));
+        assertEquals(pooledBytes + BufferPool.GRANULARITY, BufferPool.SHARED.pooledBytes());
+        BufferPool.SHARED.release(enlarged);
+    }
+}
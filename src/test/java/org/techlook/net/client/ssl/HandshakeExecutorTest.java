@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HandshakeExecutorTest {
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private HandshakeExecutor executor;
+    private CountDownLatch release;
+
+    @Before
+    public void standUp() {
+        executor = new HandshakeExecutor(1, 4);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void rejectsConnectionsWhenQueueIsFilled() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        assertTrue(executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                awaitRelease();
+            }
+        }, NOTHING));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        assertTrue(executor.admits());
+        for (int k = 0; k < 3; ++k) {
+            assertTrue(executor.execute(NOTHING, NOTHING));
+        }
+        assertFalse(executor.admits());
+        assertEquals(3, executor.getQueueDepth());
+
+        assertTrue(executor.execute(NOTHING, NOTHING));
+        assertFalse("The queue is full", executor.execute(NOTHING, NOTHING));
+    }
+
+    @Test
+    public void measuresTasks() throws InterruptedException {
+        final CountDownLatch completed = new CountDownLatch(2);
+        Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                completed.countDown();
+            }
+        };
+
+        assertTrue(executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sleep(20);
+            }
+        }, completion));
+        assertTrue(executor.execute(NOTHING, completion));
+        assertTrue(completed.await(1, TimeUnit.SECONDS));
+
+        assertEquals(2, executor.getCompletedTasks());
+        assertTrue(executor.getMaxWaitingMillis() >= 15);
+        assertTrue(executor.getAverageRunningMillis() >= 5);
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void sleep(long milliseconds) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(milliseconds);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
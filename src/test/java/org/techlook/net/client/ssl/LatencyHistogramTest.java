@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private static final long MICROSECOND = 1000;
+    private static final long MILLISECOND = 1000 * MICROSECOND;
+
+    @Test
+    public void bucketsCoverConsecutiveRanges() {
+        long expectedLowerBound = 0;
+        for (int bucket = 0; bucket < 200; bucket++) {
+            long upperBound = LatencyHistogram.upperBound(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(expectedLowerBound));
+            assertEquals(bucket, LatencyHistogram.bucket(upperBound));
+            expectedLowerBound = upperBound + 1;
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MILLISECOND);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000 * MILLISECOND, histogram.getMaxNanos());
+        assertEquals(500.5 * MILLISECOND, histogram.getMeanNanos(), 1);
+        assertWithinResolution(500 * MILLISECOND, histogram.getPercentileNanos(50));
+        assertWithinResolution(990 * MILLISECOND, histogram.getPercentileNanos(99));
+        assertEquals(1000 * MILLISECOND, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void unknownLatencyIsIgnored() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(ConnectionTimings.UNKNOWN);
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    private static void assertWithinResolution(long expected, long actual) {
+        assertTrue(actual + " < " + expected, actual >= expected);
+        assertTrue(actual + " > " + expected, actual <= expected * 9 / 8);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.techlook.net.client.BackpressuredListener;
+import org.techlook.net.client.ChannelListener;
+import org.techlook.net.client.DrainAwareListener;
+import org.techlook.net.client.http.BodyPublishers;
+import org.techlook.net.client.http.client.HttpAsyncClient;
+import org.techlook.net.client.http.client.HttpListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class PrewarmedConnectionPoolTest {
+    private static final long MAX_IDLE_MILLIS = 1000;
+    private static final long MAX_IDLE_NANOS = MAX_IDLE_MILLIS * 1000000L;
+
+    private final InetSocketAddress server = InetSocketAddress.createUnresolved("localhost", 443);
+    private final List<ChannelListener> connections = new ArrayList<>();
+    private SSLSocketClient client;
+    private PrewarmedConnectionPool pool;
+
+    @Before
+    public void standUp() throws IOException {
+        client = mock(SSLSocketClient.class);
+        when(client.connect(any(SocketAddress.class), any(ChannelListener.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                connections.add((ChannelListener) invocation.getArgument(1));
+                return connections.size() - 1;
+            }
+        });
+
+        ScheduledExecutorService maintenance = mock(ScheduledExecutorService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArgument(0)).run();
+                return null;
+            }
+        }).when(maintenance).execute(any(Runnable.class));
+
+        pool = new PrewarmedConnectionPool(client, 2, MAX_IDLE_MILLIS, maintenance);
+    }
+
+    @Test
+    public void handshakenConnectionIsTaken() throws IOException {
+        pool.prewarm(server);
+        assertEquals(2, connections.size());
+        verify(client).startHandshake(0);
+        verify(client).startHandshake(1);
+        assertEquals(0, pool.getIdleConnections(server));
+
+        completeHandshakes();
+        assertEquals(2, pool.getIdleConnections(server));
+
+        ChannelListener listener = mock(ChannelListener.class);
+        int id = pool.connect(server, listener);
+        assertTrue(id == 0 || id == 1);
+        assertEquals(1, pool.getHits());
+        assertEquals(3, connections.size());
+
+        byte[] chunk = {1, 2, 3};
+        connections.get(id).chunkIsReceived(chunk);
+        verify(listener).chunkIsReceived(chunk);
+    }
+
+    @Test
+    public void connectionIsEstablishedWhenPoolIsEmpty() throws IOException {
+        ChannelListener listener = mock(ChannelListener.class);
+        pool.connect(server, listener);
+
+        assertEquals(1, pool.getMisses());
+        assertEquals(3, connections.size());
+        assertTrue(connections.contains(listener));
+    }
+
+    @Test
+    public void expiredConnectionsAreReplaced() {
+        pool.prewarm(server);
+        completeHandshakes();
+
+        pool.evictExpired(System.nanoTime() + 2 * MAX_IDLE_NANOS);
+
+        verify(client).close(0);
+        verify(client).close(1);
+        assertEquals(2, pool.getExpiredConnections());
+        assertEquals(4, connections.size());
+    }
+
+    @Test
+    public void idleConnectionClosedByHostIsReplaced() {
+        pool.prewarm(server);
+        completeHandshakes();
+
+        connections.get(0).close();
+
+        verify(client).close(0);
+        assertEquals(1, pool.getIdleConnections(server));
+        assertEquals(3, connections.size());
+    }
+
+    @Test
+    public void streamedBodyIsPacedThroughPooledConnection() throws Exception {
+        final int bodySize = 10 * 0x10000;
+        final AtomicLong sentBodyBytes = new AtomicLong();
+        ForkJoinPool threadPool = new ForkJoinPool(2);
+        when(client.getThreadPool()).thenReturn(threadPool);
+        when(client.send(any(byte[].class), anyInt(), anyInt(), any(Integer.class))).thenReturn(true);
+        when(client.send(any(ByteBuffer.class), any(Integer.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                sentBodyBytes.addAndGet(((ByteBuffer) invocation.getArgument(0)).remaining());
+                return true;
+            }
+        });
+
+        pool.prewarm(server);
+        completeHandshakes();
+        // the TLS channel sets the drain callback of its listener before the connection is taken
+        Runnable drainCallback = mock(Runnable.class);
+        for (ChannelListener connection : connections) {
+            ((BackpressuredListener) connection).setDrainCallback(drainCallback);
+        }
+
+        HttpAsyncClient http = new HttpAsyncClient("localhost", 443, true, pool);
+        http.streamContent(HttpAsyncClient.Method.PUT, "/upload", null, null, "application/octet-stream", null,
+                BodyPublishers.ofInputStream(new ByteArrayInputStream(new byte[bodySize]), bodySize),
+                mock(HttpListener.class));
+
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sentBodyBytes.get() < bodySize) {
+                assertTrue("The body isn't sent in time", System.currentTimeMillis() < deadline);
+                for (ChannelListener connection : new ArrayList<>(connections)) {
+                    ((DrainAwareListener) connection).channelDrained();
+                }
+                Thread.sleep(5);
+            }
+            assertEquals(bodySize, sentBodyBytes.get());
+            assertEquals(1, pool.getHits());
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+
+    private void completeHandshakes() {
+        for (ChannelListener connection : new ArrayList<>(connections)) {
+            ((HandshakeListener) connection).handshakeCompleted(null);
+        }
+    }
+}
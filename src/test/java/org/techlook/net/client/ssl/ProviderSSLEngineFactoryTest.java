@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.Test;
+
+import java.security.Provider;
+
+import static org.junit.Assert.*;
+
+public class ProviderSSLEngineFactoryTest {
+    @Test
+    public void providerIsInstantiatedByClassName() {
+        ProviderSSLEngineFactory factory = ProviderSSLEngineFactory.forProviderClass(
+                TestProvider.class.getName(), ProviderSSLEngineFactory.DEFAULT_PROTOCOL);
+        assertNotNull(factory);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void classWhichIsNotProviderIsRejected() {
+        ProviderSSLEngineFactory.forProviderClass(String.class.getName(), ProviderSSLEngineFactory.DEFAULT_PROTOCOL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void providerWithoutNoArgConstructorIsRejected() {
+        ProviderSSLEngineFactory.forProviderClass(
+                ConfiguredProvider.class.getName(), ProviderSSLEngineFactory.DEFAULT_PROTOCOL);
+    }
+
+    public static class TestProvider extends Provider {
+        public TestProvider() {
+            super("Test", 1.0, "Test provider");
+        }
+    }
+
+    public static class ConfiguredProvider extends Provider {
+        public ConfiguredProvider(String name) {
+            super(name, 1.0, "Test provider");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordSizerTest {
+    private static final long MILLISECOND = 1000000L;
+
+    @Test
+    public void rampsUpAfterThreshold() {
+        RecordSizer sizer = new RecordSizer(1000, 3000, 100);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1000, sizer.recordLimit(i));
+            sizer.recordSent(1000, i);
+        }
+        assertEquals(Integer.MAX_VALUE, sizer.recordLimit(3));
+    }
+
+    @Test
+    public void getsSmallAfterIdlePeriod() {
+        RecordSizer sizer = new RecordSizer(1000, 3000, 100);
+        sizer.recordSent(5000, 0);
+
+        assertEquals(Integer.MAX_VALUE, sizer.recordLimit(100 * MILLISECOND));
+        assertEquals(1000, sizer.recordLimit(101 * MILLISECOND));
+    }
+}
@@ -35,6 +35,7 @@ import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.mockito.quality.Strictness;
 import org.mockito.stubbing.Answer;
+import org.techlook.net.client.BufferChannelSink;
 import org.techlook.net.client.ByteChunksEmitter;
 import org.techlook.net.client.SocketClient;
 import org.techlook.net.client.WritableChannelSink;
@@ -47,7 +48,9 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
@@ -169,6 +172,15 @@ public class SSLChannelTest {
         checkCollectingIntegrity(1, chunksEmitter, chunksEmitter.smallChunksEmitter());
     }
 
+    @Test
+    public void bufferListenerCollectsChunksWithBufferUnderflow() {
+        unwrappingWithBufferUnderflow((int) (SSL_PACKET_BUFFER_SIZE * 0.75));
+        channelSink = new BufferChannelSink();
+        sslChannel = new SSLChannel(sslEngine, channelSink, threadPool, socketClient);
+        ByteChunksEmitter chunksEmitter = new ByteChunksEmitter();
+        checkCollectingIntegrity(0, chunksEmitter, chunksEmitter.mediumSizeEmitterWithBlankChunks());
+    }
+
     @Test
     public void noIntermediateBuffersWhichHasNotBeenTransmitted() {
         unwrappingWithBufferUnderflow((int) (SSL_PACKET_BUFFER_SIZE * 0.75));
@@ -196,6 +208,39 @@ public class SSLChannelTest {
         assertTrue(channelSink.internalBufferEqualsTo(chunksEmitter));
     }
 
+    @Test
+    public void buffersAreReleasedWhenIdle() {
+        unwrapping(0);
+        ByteChunksEmitter chunksEmitter = new ByteChunksEmitter();
+        checkCollectingIntegrity(0, chunksEmitter, chunksEmitter.mediumSizeEmitterWithBlankChunks());
+
+        assertTrue("Idle channel holds no buffers", sslChannel.holdsNoBuffers());
+    }
+
+    @Test
+    public void closingIsForwardedWhenReceivedRecordsAreDelivered() {
+        unwrapping(1);
+        final ByteChunksEmitter chunksEmitter = new ByteChunksEmitter();
+        final AtomicBoolean isDeliveredBeforeClosing = new AtomicBoolean(false);
+        channelSink = new WritableChannelSink() {
+            @Override
+            public void close() {
+                isDeliveredBeforeClosing.set(internalBufferEqualsTo(chunksEmitter));
+                super.close();
+            }
+        };
+        sslChannel = new SSLChannel(sslEngine, channelSink, threadPool, socketClient);
+
+        for (ByteBuffer buffer : chunksEmitter.largeChunksEmitter()) {
+            sslChannel.chunkIsReceived(buffer);
+        }
+        sslChannel.close();
+
+        sslChannel.waitFinishing();
+        assertFalse(channelSink.isOpen());
+        assertTrue("All records are delivered before closing", isDeliveredBeforeClosing.get());
+    }
+
     private void unwrappingWithBufferUnderflow(final int minRequiredBufferLength) {
         try {
             when(sslEngine.unwrap(any(ByteBuffer.class), any(ByteBuffer.class))).then(new Answer<SSLEngineResult>() {
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the client side connection setup cost with a context built per connection (the former behavior)
+ * and with the context cached by SSLSocketClient. Each connection creates an engine and wraps its ClientHello.
+ *
+ * Run: java -cp target/classes:target/test-classes org.techlook.net.client.ssl.SSLContextBenchmark [seconds]
+ */
+public class SSLContextBenchmark {
+    private static final String HOST = "localhost";
+    private static final int PORT = 443;
+
+    public static void main(String[] args) throws SSLException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        final SSLSocketClient client = new SSLSocketClient(null);
+        final SSLEngineFactory engineFactory = new ProviderSSLEngineFactory();
+
+        Setup perConnection = new Setup() {
+            @Override
+            public SSLContext context() {
+                return SSLSocketClient.buildContext(engineFactory, null, null);
+            }
+        };
+        Setup cached = new Setup() {
+            @Override
+            public SSLContext context() {
+                return client.context();
+            }
+        };
+
+        // warming up
+        measure(perConnection, 1);
+        measure(cached, 1);
+
+        System.out.printf("context per connection: %10.1f connects/s%n", measure(perConnection, seconds));
+        System.out.printf("cached context:         %10.1f connects/s%n", measure(cached, seconds));
+    }
+
+    private static double measure(Setup setup, long seconds) throws SSLException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        long connects = 0;
+
+        while (System.nanoTime() < deadline) {
+            SSLEngine engine = setup.context().createSSLEngine(HOST, PORT);
+            engine.setUseClientMode(true);
+            engine.beginHandshake();
+
+            ByteBuffer packet = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            engine.wrap(ByteBuffer.allocate(0), packet);
+            ++connects;
+        }
+
+        return connects * 1e9 / (System.nanoTime() - start);
+    }
+
+    private interface Setup {
+        SSLContext context();
+    }
+}
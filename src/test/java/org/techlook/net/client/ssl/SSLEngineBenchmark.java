@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares JSSE providers on full handshakes per second and on bulk encryption/decryption throughput.
+ * Client and server engines of a provider are connected in memory, so the network doesn't affect results.
+ * The default provider is always measured, alternative ones are loaded from the classpath by their class names.
+ *
+ * Run: java -cp target/classes:target/test-classes[:conscrypt.jar] org.techlook.net.client.ssl.SSLEngineBenchmark
+ *          keystore.p12 password [seconds] [org.conscrypt.OpenSSLProvider ...]
+ */
+public class SSLEngineBenchmark {
+    private static final String HOST = "localhost";
+    private static final int PORT = 443;
+    private static final int BULK_CHUNK_SIZE = 16 * 1024;
+    private static final int FULL_HANDSHAKE_PORTS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: SSLEngineBenchmark keystore.p12 password [seconds] [provider class...]");
+            return;
+        }
+
+        char[] password = args[1].toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(args[0])) {
+            keyStore.load(input, password);
+        }
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 5;
+
+        List<ProviderSSLEngineFactory> factories = new ArrayList<>();
+        factories.add(new ProviderSSLEngineFactory());
+        for (int i = 3; i < args.length; i++) {
+            factories.add(ProviderSSLEngineFactory.forProviderClass(args[i], ProviderSSLEngineFactory.DEFAULT_PROTOCOL));
+        }
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+
+        for (ProviderSSLEngineFactory factory : factories) {
+            EnginePair pair = new EnginePair(factory,
+                    factory.createContext(null, trustManagers.getTrustManagers()),
+                    factory.createContext(keyManagers.getKeyManagers(), null));
+
+            // warming up
+            pair.measureHandshakes(1);
+            pair.measureBulk(1);
+
+            System.out.printf("%-12s handshakes: %10.1f /s, bulk: %10.1f MiB/s (%s)%n",
+                    factory.getProviderName(),
+                    pair.measureHandshakes(seconds),
+                    pair.measureBulk(seconds) / (1024 * 1024),
+                    pair.cipherSuite());
+        }
+    }
+
+    private static class EnginePair {
+        private final SSLEngineFactory factory;
+        private final SSLContext clientContext;
+        private final SSLContext serverContext;
+        private SSLEngine client;
+        private SSLEngine server;
+        private ByteBuffer clientToServer;
+        private ByteBuffer serverToClient;
+        private ByteBuffer clientApp;
+        private ByteBuffer serverApp;
+
+        EnginePair(SSLEngineFactory factory, SSLContext clientContext, SSLContext serverContext) {
+            this.factory = factory;
+            this.clientContext = clientContext;
+            this.serverContext = serverContext;
+        }
+
+        double measureHandshakes(long seconds) throws SSLException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long start = System.nanoTime();
+            long handshakes = 0;
+
+            while (System.nanoTime() < deadline) {
+                // sessions are cached by a host and a port, so a new port forces a full handshake
+                handshake(PORT + (int) (handshakes % FULL_HANDSHAKE_PORTS) + 1);
+                ++handshakes;
+            }
+
+            return handshakes * 1e9 / (System.nanoTime() - start);
+        }
+
+        /**
+         * @return bytes per second
+         */
+        double measureBulk(long seconds) throws SSLException {
+            handshake(PORT);
+            ByteBuffer chunk = ByteBuffer.allocate(BULK_CHUNK_SIZE);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long start = System.nanoTime();
+            long bytes = 0;
+
+            while (System.nanoTime() < deadline) {
+                chunk.clear();
+                while (chunk.hasRemaining()) {
+                    clientToServer.clear();
+                    client.wrap(chunk, clientToServer);
+                    clientToServer.flip();
+
+                    serverApp.clear();
+                    server.unwrap(clientToServer, serverApp);
+                    bytes += serverApp.position();
+                }
+            }
+
+            return bytes * 1e9 / (System.nanoTime() - start);
+        }
+
+        String cipherSuite() {
+            return client.getSession().getCipherSuite();
+        }
+
+        private void handshake(int port) throws SSLException {
+            client = factory.createEngine(clientContext, HOST, port);
+            client.setUseClientMode(true);
+            server = factory.createEngine(serverContext, HOST, port);
+            server.setUseClientMode(false);
+
+            int packetSize = Math.max(client.getSession().getPacketBufferSize(),
+                    server.getSession().getPacketBufferSize());
+            int appSize = Math.max(client.getSession().getApplicationBufferSize(),
+                    server.getSession().getApplicationBufferSize());
+            clientToServer = ByteBuffer.allocate(packetSize);
+            serverToClient = ByteBuffer.allocate(packetSize);
+            clientApp = ByteBuffer.allocate(appSize);
+            serverApp = ByteBuffer.allocate(appSize);
+
+            client.beginHandshake();
+            server.beginHandshake();
+            while (!isDone(client) || !isDone(server)) {
+                step(client, serverToClient, clientToServer, clientApp);
+                step(server, clientToServer, serverToClient, serverApp);
+            }
+            clientToServer.clear();
+            serverToClient.clear();
+        }
+
+        private static boolean isDone(SSLEngine engine) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                    || status == SSLEngineResult.HandshakeStatus.FINISHED;
+        }
+
+        private static void step(SSLEngine engine, ByteBuffer incoming, ByteBuffer outgoing, ByteBuffer app)
+                throws SSLException {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    engine.wrap(ByteBuffer.allocate(0), outgoing);
+                    break;
+                case NEED_UNWRAP:
+                    incoming.flip();
+                    app.clear();
+                    engine.unwrap(incoming, app);
+                    incoming.compact();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
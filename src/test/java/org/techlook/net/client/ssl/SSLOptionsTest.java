@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.Test;
+
+import javax.net.ssl.SSLEngine;
+
+import static org.junit.Assert.*;
+
+public class SSLOptionsTest {
+    private final SSLEngineFactory engineFactory = new ProviderSSLEngineFactory();
+
+    @Test
+    public void protocolsAndCipherSuitesAreApplied() throws Exception {
+        SSLEngine engine = engineFactory.createEngine(engineFactory.createContext(null, null), "localhost", 443);
+
+        new SSLOptions()
+                .protocols("TLSv1.2")
+                .cipherSuites("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256")
+                .configure(engine);
+
+        assertArrayEquals(new String[]{"TLSv1.2"}, engine.getEnabledProtocols());
+        assertArrayEquals(new String[]{"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"}, engine.getEnabledCipherSuites());
+    }
+
+    @Test
+    public void engineDefaultsAreKept() throws Exception {
+        SSLEngine engine = engineFactory.createEngine(engineFactory.createContext(null, null), "localhost", 443);
+        String[] protocols = engine.getEnabledProtocols();
+
+        new SSLOptions().configure(engine);
+
+        assertArrayEquals(protocols, engine.getEnabledProtocols());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedProtocolIsRejected() throws Exception {
+        SSLEngine engine = engineFactory.createEngine(engineFactory.createContext(null, null), "localhost", 443);
+
+        new SSLOptions().protocols("TLSv0.9").configure(engine);
+    }
+}
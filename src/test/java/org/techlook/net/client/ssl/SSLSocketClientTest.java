@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2022 Vladimir Bragin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.techlook.net.client.ssl;
+
+import org.junit.Test;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+
+import static org.junit.Assert.*;
+
+public class SSLSocketClientTest {
+    private final SSLSocketClient client = new SSLSocketClient(null);
+
+    @Test
+    public void identityIsSelectedByHost() {
+        client.addIdentity("billing", new KeyManager[0]);
+        client.addIdentity("search", new KeyManager[0]);
+        client.bindHost("billing.internal", "billing");
+        client.bindHost("*.search.internal", "search");
+
+        assertEquals("billing", client.identityOf("Billing.Internal"));
+        assertEquals("search", client.identityOf("eu.search.internal"));
+        assertEquals("search", client.identityOf("a.eu.search.internal"));
+        assertNull(client.identityOf("search.internal"));
+        assertNull(client.identityOf("example.com"));
+    }
+
+    @Test
+    public void contextIsCachedPerIdentity() {
+        client.addIdentity("billing", new KeyManager[0]);
+        client.bindHost("*.billing.internal", "billing");
+
+        SSLContext billing = client.contextFor("eu.billing.internal", null);
+        assertSame(billing, client.contextFor("us.billing.internal", null));
+        assertSame(billing, client.contextFor("example.com", new SSLOptions().identity("billing")));
+        assertSame(client.context(), client.contextFor("example.com", null));
+        assertNotSame(billing, client.context());
+
+        client.addIdentity("billing", new KeyManager[0]);
+        assertNotSame(billing, client.contextFor("eu.billing.internal", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownIdentityIsRejected() {
+        client.contextFor("example.com", new SSLOptions().identity("unknown"));
+    }
+}